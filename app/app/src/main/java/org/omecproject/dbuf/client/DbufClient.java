@@ -6,6 +6,7 @@ package org.omecproject.dbuf.client;
 
 import org.onlab.packet.Ip4Address;
 
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -56,6 +57,29 @@ public interface DbufClient {
      */
     CompletableFuture<Boolean> drain(Ip4Address ueAddr, Ip4Address dstAddr, int udpPort);
 
+    /**
+     * Returns the number of drain requests waiting to be sent to dbuf, because
+     * too many drains are already in flight.
+     *
+     * @return number of queued drain requests
+     */
+    int drainQueueDepth();
+
+    /**
+     * Returns the number of drain requests sent to dbuf and waiting for a response.
+     *
+     * @return number of drain requests in flight
+     */
+    int drainsInFlight();
+
+    /**
+     * Returns the number of packets dropped by dbuf for each UE, as reported
+     * by the dbuf notifications.
+     *
+     * @return map of UE IPv4 address to dropped packets
+     */
+    Map<Ip4Address, Long> droppedPackets();
+
     /**
      * Triggers shutdown of this client, destroying any resources associated to it.
      */
@@ -0,0 +1,103 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.dbuf.client;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.onlab.packet.Ip4Address;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Set of clients controlling multiple dbuf instances. UEs are mapped to
+ * instances by consistent hashing on the UE address, so that buffering and
+ * drain requests for the same UE always reach the instance holding the UE's
+ * queue, and adding or removing an instance only remaps the UEs of that
+ * instance.
+ */
+public final class DbufClientPool {
+
+    private static final int VIRTUAL_NODES_PER_INSTANCE = 128;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_32();
+
+    private final List<DbufClient> clients;
+    // Hash -> index of the client in the list.
+    private final NavigableMap<Integer, Integer> ring = Maps.newTreeMap();
+
+    /**
+     * Creates a new pool for the given clients. The position of the UEs in
+     * the hash ring depends only on the service address of the clients, not
+     * on their order.
+     *
+     * @param clients dbuf clients, at least one
+     */
+    public DbufClientPool(List<DbufClient> clients) {
+        checkArgument(!clients.isEmpty(), "At least one dbuf client is required");
+        this.clients = ImmutableList.copyOf(clients);
+        for (int i = 0; i < this.clients.size(); i++) {
+            final String serviceAddr = this.clients.get(i).serviceAddr();
+            for (int v = 0; v < VIRTUAL_NODES_PER_INSTANCE; v++) {
+                ring.put(HASH_FUNCTION.hashString(serviceAddr + "#" + v, StandardCharsets.UTF_8).asInt(), i);
+            }
+        }
+    }
+
+    /**
+     * Returns the clients in this pool.
+     *
+     * @return dbuf clients
+     */
+    public List<DbufClient> clients() {
+        return clients;
+    }
+
+    /**
+     * Returns the number of clients in this pool.
+     *
+     * @return number of clients
+     */
+    public int size() {
+        return clients.size();
+    }
+
+    /**
+     * Returns the index of the client responsible for the given UE.
+     *
+     * @param ueAddr UE IPv4 address
+     * @return index of the client in {@link #clients()}
+     */
+    public int indexOf(Ip4Address ueAddr) {
+        if (clients.size() == 1) {
+            return 0;
+        }
+        final int hash = HASH_FUNCTION.hashInt(ueAddr.toInt()).asInt();
+        final Map.Entry<Integer, Integer> entry = ring.ceilingEntry(hash);
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * Returns the client responsible for the given UE.
+     *
+     * @param ueAddr UE IPv4 address
+     * @return dbuf client
+     */
+    public DbufClient clientFor(Ip4Address ueAddr) {
+        return clients.get(indexOf(ueAddr));
+    }
+
+    /**
+     * Shuts down all the clients in this pool.
+     */
+    public void shutdown() {
+        clients.forEach(DbufClient::shutdown);
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.dbuf.client;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import io.grpc.Status;
+import org.onlab.packet.Ip4Address;
+import org.slf4j.Logger;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Scheduler of dbuf drain requests. Limits the number of drain RPCs in flight,
+ * queueing the excess requests in FIFO order, with at most one queued request
+ * per UE. Requests failing because of transient errors are retried with
+ * exponential backoff.
+ */
+final class DbufDrainScheduler {
+
+    private static final Logger log = getLogger(DbufDrainScheduler.class);
+
+    /**
+     * Function issuing a single drain RPC, returning a future completed with the
+     * RPC status.
+     */
+    @FunctionalInterface
+    interface DrainRpc {
+        CompletableFuture<Status> drain(Ip4Address ueAddr, Ip4Address dstAddr, int udpPort);
+    }
+
+    private final DrainRpc drainRpc;
+    private final ScheduledExecutorService retryExecutor;
+    private final int maxInFlight;
+    private final int maxRetries;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+
+    // UE address -> drain waiting to be started, in FIFO order.
+    private final Map<Ip4Address, Drain> queued = Maps.newLinkedHashMap();
+    private int inFlight = 0;
+    private boolean shutdown = false;
+
+    /**
+     * Creates a new scheduler.
+     *
+     * @param drainRpc         function issuing the drain RPC
+     * @param retryExecutor    executor used to delay retries
+     * @param maxInFlight      maximum number of drain RPCs in flight
+     * @param maxRetries       maximum number of retries for a drain request
+     * @param initialBackoffMs delay before the first retry, in milliseconds
+     * @param maxBackoffMs     maximum delay between retries, in milliseconds
+     */
+    DbufDrainScheduler(DrainRpc drainRpc, ScheduledExecutorService retryExecutor,
+                       int maxInFlight, int maxRetries, long initialBackoffMs, long maxBackoffMs) {
+        this.drainRpc = drainRpc;
+        this.retryExecutor = retryExecutor;
+        this.maxInFlight = maxInFlight;
+        this.maxRetries = maxRetries;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    /**
+     * Requests a drain for the given UE. The drain is started immediately if
+     * the number of drains in flight allows it, otherwise it is queued. If a
+     * drain for the same UE is already queued, the two requests are merged,
+     * using the given tunnel destination.
+     *
+     * @param ueAddr  UE IPv4 address
+     * @param dstAddr destination IPv4 address of the GTP tunnel
+     * @param udpPort destination UDP port of the GTP tunnel
+     * @return a completable future of a boolean indicating whether the drain was
+     * initiated successfully (true), or not
+     */
+    CompletableFuture<Boolean> submit(Ip4Address ueAddr, Ip4Address dstAddr, int udpPort) {
+        final CompletableFuture<Boolean> future;
+        synchronized (this) {
+            if (shutdown) {
+                return CompletableFuture.completedFuture(false);
+            }
+            final Drain existing = queued.get(ueAddr);
+            if (existing != null) {
+                log.debug("Drain for {} already queued, merging requests", ueAddr);
+                existing.dstAddr = dstAddr;
+                existing.udpPort = udpPort;
+                future = existing.future;
+            } else {
+                final Drain drain = new Drain(ueAddr, dstAddr, udpPort);
+                queued.put(ueAddr, drain);
+                future = drain.future;
+            }
+        }
+        dispatch();
+        return future;
+    }
+
+    /**
+     * Returns the number of drain requests waiting to be started.
+     *
+     * @return queued drain requests
+     */
+    synchronized int queueDepth() {
+        return queued.size();
+    }
+
+    /**
+     * Returns the number of drain RPCs in flight.
+     *
+     * @return drain RPCs in flight
+     */
+    synchronized int inFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Stops the scheduler, failing the queued drain requests.
+     */
+    void shutdown() {
+        final List<Drain> dropped;
+        synchronized (this) {
+            shutdown = true;
+            dropped = Lists.newArrayList(queued.values());
+            queued.clear();
+        }
+        dropped.forEach(drain -> drain.future.complete(false));
+    }
+
+    private void dispatch() {
+        final List<Drain> toStart = Lists.newArrayList();
+        synchronized (this) {
+            final Iterator<Drain> it = queued.values().iterator();
+            while (inFlight < maxInFlight && it.hasNext()) {
+                toStart.add(it.next());
+                it.remove();
+                inFlight++;
+            }
+        }
+        // Start RPCs outside the lock, completion might be invoked inline.
+        toStart.forEach(this::start);
+    }
+
+    private void start(Drain drain) {
+        final CompletableFuture<Status> rpcFuture;
+        try {
+            rpcFuture = drainRpc.drain(drain.ueAddr, drain.dstAddr, drain.udpPort);
+        } catch (RuntimeException e) {
+            log.error("Unable to start drain for {}", drain.ueAddr, e);
+            completed(drain, Status.fromThrowable(e));
+            return;
+        }
+        rpcFuture.whenComplete((status, ex) -> completed(
+                drain, ex != null ? Status.fromThrowable(ex) : status));
+    }
+
+    private void completed(Drain drain, Status status) {
+        boolean retry = false;
+        synchronized (this) {
+            inFlight--;
+            if (!status.isOk() && isTransient(status) && drain.attempts < maxRetries && !shutdown) {
+                drain.attempts++;
+                retry = true;
+            }
+        }
+        if (retry) {
+            final long backoff = Math.min(initialBackoffMs << Math.min(drain.attempts - 1, 30), maxBackoffMs);
+            log.info("Drain for {} failed with {}, retrying in {} ms (attempt {} of {})",
+                     drain.ueAddr, status.getCode(), backoff, drain.attempts, maxRetries);
+            retryExecutor.schedule(() -> requeue(drain), backoff, TimeUnit.MILLISECONDS);
+        } else {
+            drain.future.complete(status.isOk());
+        }
+        // A slot is free now.
+        dispatch();
+    }
+
+    private void requeue(Drain drain) {
+        synchronized (this) {
+            if (shutdown) {
+                drain.future.complete(false);
+                return;
+            }
+            final Drain existing = queued.get(drain.ueAddr);
+            if (existing != null) {
+                // A new request arrived meanwhile, it supersedes this one.
+                existing.future.whenComplete((result, ex) -> drain.future.complete(ex == null && result));
+            } else {
+                // Back of the queue, to be fair with requests arrived meanwhile.
+                queued.put(drain.ueAddr, drain);
+            }
+        }
+        dispatch();
+    }
+
+    private static boolean isTransient(Status status) {
+        switch (status.getCode()) {
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case RESOURCE_EXHAUSTED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static final class Drain {
+        private final Ip4Address ueAddr;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        private Ip4Address dstAddr;
+        private int udpPort;
+        private int attempts = 0;
+
+        private Drain(Ip4Address ueAddr, Ip4Address dstAddr, int udpPort) {
+            this.ueAddr = ueAddr;
+            this.dstAddr = dstAddr;
+            this.udpPort = udpPort;
+        }
+    }
+}
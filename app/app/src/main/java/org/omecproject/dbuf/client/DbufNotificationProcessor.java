@@ -0,0 +1,131 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.dbuf.client;
+
+import com.google.common.collect.Lists;
+import org.omecproject.dbuf.grpc.Dbuf;
+import org.slf4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Bounded processing stage for the notifications received on the dbuf
+ * Subscribe RPC. Notifications are queued by the gRPC transport thread and
+ * handled in batches on the given executor, so that slow handling does not
+ * stall the stream. When the queue is full, new notifications are discarded.
+ */
+final class DbufNotificationProcessor {
+
+    private static final Logger log = getLogger(DbufNotificationProcessor.class);
+
+    private final Consumer<List<Dbuf.Notification>> handler;
+    private final Executor executor;
+    private final int batchSize;
+    private final BlockingQueue<Dbuf.Notification> queue;
+    // True if a task processing the queue has been submitted and not completed yet.
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final AtomicBoolean overflowing = new AtomicBoolean(false);
+    private final AtomicLong discarded = new AtomicLong();
+    private volatile boolean shutdown = false;
+
+    /**
+     * Creates a new processor.
+     *
+     * @param handler   handler of a batch of notifications, invoked by one
+     *                  thread at a time, in the order notifications were received
+     * @param executor  executor running the handler
+     * @param capacity  maximum number of notifications waiting to be handled
+     * @param batchSize maximum number of notifications in a batch
+     */
+    DbufNotificationProcessor(Consumer<List<Dbuf.Notification>> handler, Executor executor,
+                              int capacity, int batchSize) {
+        this.handler = handler;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Queues the given notification to be handled. Never blocks.
+     *
+     * @param notification notification
+     * @return true if queued, false if discarded because the queue is full or
+     * the processor is shut down
+     */
+    boolean offer(Dbuf.Notification notification) {
+        if (shutdown) {
+            return false;
+        }
+        if (!queue.offer(notification)) {
+            discarded.incrementAndGet();
+            if (overflowing.compareAndSet(false, true)) {
+                log.warn("Dbuf notification queue is full, discarding notifications " +
+                                 "(discarded so far: {})", discarded.get());
+            }
+            return false;
+        }
+        scheduleIfNeeded();
+        return true;
+    }
+
+    /**
+     * Returns the number of notifications waiting to be handled.
+     *
+     * @return queued notifications
+     */
+    int queueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of notifications discarded because the queue was full.
+     *
+     * @return discarded notifications
+     */
+    long discardedCount() {
+        return discarded.get();
+    }
+
+    /**
+     * Stops handling notifications, discarding the queued ones.
+     */
+    void shutdown() {
+        shutdown = true;
+        queue.clear();
+    }
+
+    private void scheduleIfNeeded() {
+        if (!queue.isEmpty() && !shutdown && scheduled.compareAndSet(false, true)) {
+            executor.execute(this::process);
+        }
+    }
+
+    private void process() {
+        try {
+            final List<Dbuf.Notification> batch = Lists.newArrayListWithCapacity(batchSize);
+            queue.drainTo(batch, batchSize);
+            if (queue.isEmpty()) {
+                overflowing.set(false);
+            }
+            if (!batch.isEmpty() && !shutdown) {
+                handler.accept(batch);
+            }
+        } catch (Throwable ex) {
+            log.error("Exception processing dbuf notifications", ex);
+        } finally {
+            scheduled.set(false);
+            // One batch per task, to not hog the executor if notifications keep arriving.
+            scheduleIfNeeded();
+        }
+    }
+}
@@ -13,44 +13,49 @@ import org.omecproject.dbuf.grpc.DbufServiceGrpc;
 import org.slf4j.Logger;
 
 import java.net.ConnectException;
-import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.lang.String.format;
-import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
-import static org.onlab.util.Tools.groupedThreads;
 import static org.slf4j.LoggerFactory.getLogger;
 
 /**
- * A manager for the dbuf Subscribe RPC that opportunistically starts new RPC (e.g. when one fails
- * because of errors) and relays notification to the client.
+ * A manager for the dbuf Subscribe RPC that starts a new RPC as soon as the channel becomes
+ * ready, and restarts it when it fails or completes, with exponential backoff and jitter.
+ * Notifications are relayed to the client.
  */
 // TODO: create ONOS abstract class to manage gRPC stream RPCS.
 //  There's enough commonality between this one and ONOS's GnmiSubscriptionManager to justify such
 //  common abstract class.
 final class DbufSubscribeManager {
 
-    private static final long DEFAULT_RECONNECT_DELAY = 5; // Seconds
+    private static final long INITIAL_RETRY_DELAY_MS = 100;
+    private static final long MAX_RETRY_DELAY_MS = 5000;
 
     private static final Logger log = getLogger(DbufSubscribeManager.class);
 
     private final DefaultDbufClient client;
-    private final StreamObserver<Dbuf.Notification> responseObserver;
-    private final ScheduledExecutorService streamCheckerExecutor =
-            newSingleThreadScheduledExecutor(groupedThreads("up4/dbuf-subscribe-check", "%d", log));
+    // Shared by all clients, used only to delay the restart of failed RPCs.
+    private final ScheduledExecutorService retryExecutor;
     private final AtomicBoolean subscribeRequested = new AtomicBoolean(false);
     private final AtomicBoolean readyReceived = new AtomicBoolean(false);
 
-    private Future<?> checkTask;
+    private ScheduledFuture<?> retryTask;
+    private int retryAttempts = 0;
     private Context.CancellableContext rpcContext;
 
-    public DbufSubscribeManager(DefaultDbufClient client) {
+    DbufSubscribeManager(DefaultDbufClient client, ScheduledExecutorService retryExecutor) {
         this.client = client;
-        this.responseObserver = new InternalStreamResponseObserver();
+        this.retryExecutor = retryExecutor;
     }
 
+    /**
+     * Starts a new Subscribe RPC, cancelling the existing one, if any. Invoked
+     * when the channel becomes ready.
+     */
     public void subscribe() {
         synchronized (this) {
             subscribeRequested.set(true);
@@ -59,29 +64,59 @@ final class DbufSubscribeManager {
                         "starting a new one", client.serviceAddr());
                 cancel();
             }
-            // Async spawn periodic task start Subscribe RPC, and to make sure
-            // it is restarted in case of failures.
-            if (checkTask == null) {
-                checkTask = streamCheckerExecutor.scheduleAtFixedRate(
-                        this::checkSubscription, 0,
-                        DEFAULT_RECONNECT_DELAY, TimeUnit.SECONDS);
+            cancelRetry();
+            // The channel has just been (re)connected, do not wait.
+            retryAttempts = 0;
+            startSubscription();
+        }
+    }
+
+    private void startSubscription() {
+        synchronized (this) {
+            if (!subscribeRequested.get() || !isCancelled()) {
+                return;
+            }
+            if (!client.isServerReachable()) {
+                // The subscription will be started by the channel state callback.
+                log.debug("Not starting Subscribe RPC for {}, server is NOT reachable",
+                        client.serviceAddr());
+                return;
             }
+            log.info("Starting Subscribe RPC for {}...", client.serviceAddr());
+            final Context.CancellableContext context = Context.current().withCancellation();
+            rpcContext = context;
+            context.run(() -> DbufServiceGrpc.newStub(client.channel())
+                    .subscribe(Dbuf.SubscribeRequest.getDefaultInstance(),
+                            new InternalStreamResponseObserver(context)));
         }
     }
 
-    private void checkSubscription() {
+    // Invoked when the RPC failed or completed.
+    private void scheduleRetry() {
         synchronized (this) {
-            if (subscribeRequested.get() && isCancelled()) {
-                if (client.isServerReachable()) {
-                    log.info("Starting Subscribe RPC for {}...", client.serviceAddr());
-                    rpcContext = Context.current().withCancellation();
-                    rpcContext.run(() -> DbufServiceGrpc.newStub(client.channel())
-                            .subscribe(Dbuf.SubscribeRequest.getDefaultInstance(),
-                                    responseObserver));
-                } else {
-                    log.debug("Not starting Subscribe RPC for {}, server is NOT reachable",
-                            client.serviceAddr());
+            if (!subscribeRequested.get() || retryTask != null) {
+                return;
+            }
+            final long delay = Math.min(INITIAL_RETRY_DELAY_MS << Math.min(retryAttempts, 30),
+                    MAX_RETRY_DELAY_MS);
+            // Jitter avoids all clients reconnecting at the same time.
+            final long jitteredDelay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+            retryAttempts++;
+            log.debug("Restarting Subscribe RPC for {} in {} ms", client.serviceAddr(), jitteredDelay);
+            retryTask = retryExecutor.schedule(() -> {
+                synchronized (this) {
+                    retryTask = null;
+                    startSubscription();
                 }
+            }, jitteredDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void cancelRetry() {
+        synchronized (this) {
+            if (retryTask != null) {
+                retryTask.cancel(false);
+                retryTask = null;
             }
         }
     }
@@ -96,6 +131,18 @@ final class DbufSubscribeManager {
         }
     }
 
+    // Invoked by the observer of the given RPC when it fails or completes.
+    private void rpcTerminated(Context.CancellableContext context) {
+        synchronized (this) {
+            if (context != rpcContext) {
+                // Stale RPC, a new one has already been started.
+                return;
+            }
+            cancel();
+            scheduleRetry();
+        }
+    }
+
     public boolean isCancelled() {
         return rpcContext == null || rpcContext.isCancelled();
     }
@@ -108,11 +155,7 @@ final class DbufSubscribeManager {
         synchronized (this) {
             log.debug("Shutting down subscription manager for {}", client.serviceAddr());
             subscribeRequested.set(false);
-            if (checkTask != null) {
-                checkTask.cancel(false);
-                checkTask = null;
-            }
-            streamCheckerExecutor.shutdown();
+            cancelRetry();
             cancel();
         }
     }
@@ -122,6 +165,12 @@ final class DbufSubscribeManager {
      */
     private final class InternalStreamResponseObserver implements StreamObserver<Dbuf.Notification> {
 
+        private final Context.CancellableContext context;
+
+        private InternalStreamResponseObserver(Context.CancellableContext context) {
+            this.context = context;
+        }
+
         @Override
         public void onNext(Dbuf.Notification notification) {
             try {
@@ -130,9 +179,15 @@ final class DbufSubscribeManager {
                             client.serviceAddr(), TextFormat.shortDebugString(notification));
                 }
                 if (notification.hasReady()) {
-                    readyReceived.set(true);
+                    synchronized (DbufSubscribeManager.this) {
+                        if (context == rpcContext) {
+                            readyReceived.set(true);
+                            // Stream is healthy, next failure is retried quickly.
+                            retryAttempts = 0;
+                        }
+                    }
                 }
-                client.handleNotification(notification);
+                client.notificationReceived(notification);
             } catch (Throwable ex) {
                 log.error("Exception processing Notification from " + client.serviceAddr(),
                         ex);
@@ -154,13 +209,13 @@ final class DbufSubscribeManager {
                 log.error(format("Exception on Subscribe RPC for %s",
                         client.serviceAddr()), throwable);
             }
-            cancel();
+            rpcTerminated(context);
         }
 
         @Override
         public void onCompleted() {
             log.warn("Subscribe RPC for {} has completed", client.serviceAddr());
-            cancel();
+            rpcTerminated(context);
         }
     }
 }
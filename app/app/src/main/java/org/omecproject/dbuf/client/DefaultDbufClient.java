@@ -5,10 +5,14 @@
 package org.omecproject.dbuf.client;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.protobuf.TextFormat;
 import io.grpc.Channel;
 import io.grpc.ConnectivityState;
+import io.grpc.Context;
 import io.grpc.ManagedChannel;
+import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.internal.DnsNameResolverProvider;
 import io.grpc.internal.PickFirstLoadBalancerProvider;
@@ -20,8 +24,12 @@ import org.omecproject.up4.Up4Event;
 import org.omecproject.up4.Up4EventSubject;
 import org.omecproject.up4.impl.Up4DeviceManager;
 import org.onlab.packet.Ip4Address;
+import org.onlab.util.SharedExecutors;
+import org.onlab.util.SharedScheduledExecutors;
 import org.slf4j.Logger;
 
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -39,6 +47,12 @@ public final class DefaultDbufClient implements DbufClient {
     private static final DnsNameResolverProvider DNS_NAME_RESOLVER_PROVIDER =
             new DnsNameResolverProvider();
     private static final int DEFAULT_RPC_TIMEOUT_SEC = 5;
+    private static final int MAX_DRAINS_IN_FLIGHT = 64;
+    private static final int MAX_DRAIN_RETRIES = 3;
+    private static final long DRAIN_RETRY_INITIAL_BACKOFF_MS = 200;
+    private static final long DRAIN_RETRY_MAX_BACKOFF_MS = 2000;
+    private static final int NOTIFICATION_QUEUE_SIZE = 8192;
+    private static final int NOTIFICATION_BATCH_SIZE = 256;
     private static final Dbuf.ModifyQueueResponse DEFAULT_MODIFY_QUEUE_RESPONSE =
             Dbuf.ModifyQueueResponse.getDefaultInstance();
 
@@ -46,6 +60,10 @@ public final class DefaultDbufClient implements DbufClient {
     private final String serviceAddr;
     private final ManagedChannel channel;
     private final DbufSubscribeManager subscribeManager;
+    private final DbufDrainScheduler drainScheduler;
+    private final DbufNotificationProcessor notificationProcessor;
+    // UE address -> packets dropped by dbuf.
+    private final Map<Ip4Address, Long> droppedPackets = Maps.newConcurrentMap();
     private final Ip4Address dataplaneIp4Addr;
     private final int dataplaneUdpPort;
     private final Up4DeviceManager up4Manager;
@@ -81,7 +99,16 @@ public final class DefaultDbufClient implements DbufClient {
     DefaultDbufClient(String serviceAddr, ManagedChannel channel, String dataplaneAddr, Up4DeviceManager up4Manager) {
         this.serviceAddr = serviceAddr;
         this.channel = channel;
-        this.subscribeManager = new DbufSubscribeManager(this);
+        this.subscribeManager = new DbufSubscribeManager(
+                this, SharedScheduledExecutors.getSingleThreadExecutor());
+        this.drainScheduler = new DbufDrainScheduler(
+                this::doDrain, SharedScheduledExecutors.getSingleThreadExecutor(),
+                MAX_DRAINS_IN_FLIGHT, MAX_DRAIN_RETRIES,
+                DRAIN_RETRY_INITIAL_BACKOFF_MS, DRAIN_RETRY_MAX_BACKOFF_MS);
+        // Handle notifications off the gRPC transport thread.
+        this.notificationProcessor = new DbufNotificationProcessor(
+                this::handleNotifications, SharedExecutors.getPoolThreadExecutor(),
+                NOTIFICATION_QUEUE_SIZE, NOTIFICATION_BATCH_SIZE);
         this.up4Manager = up4Manager;
         final var pieces = dataplaneAddr.split(":");
         this.dataplaneIp4Addr = Ip4Address.valueOf(pieces[0]);
@@ -122,7 +149,27 @@ public final class DefaultDbufClient implements DbufClient {
             log.warn("Client to {} is not ready, cannot drain buffer", serviceAddr);
             return CompletableFuture.completedFuture(false);
         }
+        // Limit the number of concurrent ModifyQueue RPCs, e.g., after a
+        // burst of paging responses.
+        return drainScheduler.submit(ueAddr, dstAddr, udpPort);
+    }
+
+    @Override
+    public int drainQueueDepth() {
+        return drainScheduler.queueDepth();
+    }
+
+    @Override
+    public int drainsInFlight() {
+        return drainScheduler.inFlight();
+    }
+
+    @Override
+    public Map<Ip4Address, Long> droppedPackets() {
+        return ImmutableMap.copyOf(droppedPackets);
+    }
 
+    private CompletableFuture<Status> doDrain(Ip4Address ueAddr, Ip4Address dstAddr, int udpPort) {
         final var request = Dbuf.ModifyQueueRequest.newBuilder()
                 .setAction(QUEUE_ACTION_RELEASE_AND_PASSTHROUGH)
                 // FIXME: check with Max whether queue_id can be the UE address.
@@ -130,7 +177,7 @@ public final class DefaultDbufClient implements DbufClient {
                 .setDestinationAddress(String.format("%s:%s", dstAddr.toString(), udpPort))
                 .build();
 
-        final var future = new CompletableFuture<Boolean>();
+        final var future = new CompletableFuture<Status>();
         final var responseObserver = new StreamObserver<Dbuf.ModifyQueueResponse>() {
             @Override
             public void onNext(Dbuf.ModifyQueueResponse value) {
@@ -138,15 +185,15 @@ public final class DefaultDbufClient implements DbufClient {
                     log.warn("Received invalid ModifyQueueResponse from {} [{}]",
                             serviceAddr,
                             TextFormat.shortDebugString(value));
-                    future.complete(false);
+                    future.complete(Status.INTERNAL.withDescription("Invalid ModifyQueueResponse"));
                 }
-                future.complete(true);
+                future.complete(Status.OK);
             }
 
             @Override
             public void onError(Throwable t) {
                 handleRpcError(t, "ModifyQueue");
-                future.complete(false);
+                future.complete(Status.fromThrowable(t));
             }
 
             @Override
@@ -155,9 +202,11 @@ public final class DefaultDbufClient implements DbufClient {
             }
         };
 
-        DbufServiceGrpc.newStub(channel)
+        // Retries are started from other RPCs' callbacks, always use a forked
+        // context so the RPC is not cancelled together with the caller's one.
+        Context.current().fork().run(() -> DbufServiceGrpc.newStub(channel)
                 .withDeadlineAfter(DEFAULT_RPC_TIMEOUT_SEC, TimeUnit.SECONDS)
-                .modifyQueue(request, responseObserver);
+                .modifyQueue(request, responseObserver));
 
         return future;
     }
@@ -169,32 +218,51 @@ public final class DefaultDbufClient implements DbufClient {
             return;
         }
         log.info("Shutting down client for {}", serviceAddr);
+        drainScheduler.shutdown();
+        notificationProcessor.shutdown();
         channel.shutdown();
     }
 
-    void handleNotification(Dbuf.Notification notification) {
-        switch (notification.getMessageTypeCase()) {
-            case READY:
-                // TODO: Store dataplane IPv4 and UDP addr
-                log.info("Dbuf service at {} is READY={} [{}]", serviceAddr,
-                        isReady(), TextFormat.shortDebugString(notification.getReady()));
-                break;
-            case FIRST_BUFFER:
-                var ueAddress = Ip4Address.valueOf(notification.getFirstBuffer().getNewBufferId());
-                log.info("Received FIRST_BUFFER: ueAddress={} [{}]",
-                        ueAddress, TextFormat.shortDebugString(notification.getFirstBuffer()));
-                up4Manager.postEvent(new Up4Event(
-                        Up4Event.Type.DOWNLINK_DATA_NOTIFICATION, new Up4EventSubject(ueAddress)));
-                break;
-            case DROPPED_PACKET:
-                // Not sure what to do with this. Drop stats should already be reported to Aether
-                // monitoring.
-                log.info("Received DROPPED_PACKET: {}", TextFormat.shortDebugString(notification.getDroppedPacket()));
-                break;
-            case MESSAGETYPE_NOT_SET:
-                break;
-            default:
-                log.warn("Notification type unhandled: {}", notification.getMessageTypeCase());
+    /**
+     * Queues a notification received on the Subscribe RPC, to be handled
+     * asynchronously. Invoked by the gRPC transport thread.
+     *
+     * @param notification notification
+     */
+    void notificationReceived(Dbuf.Notification notification) {
+        notificationProcessor.offer(notification);
+    }
+
+    private void handleNotifications(List<Dbuf.Notification> notifications) {
+        // Drops are aggregated per UE, logging every single notification is too expensive.
+        final Map<Ip4Address, Integer> batchDrops = Maps.newHashMap();
+        for (Dbuf.Notification notification : notifications) {
+            switch (notification.getMessageTypeCase()) {
+                case READY:
+                    // TODO: Store dataplane IPv4 and UDP addr
+                    log.info("Dbuf service at {} is READY={} [{}]", serviceAddr,
+                            isReady(), TextFormat.shortDebugString(notification.getReady()));
+                    break;
+                case FIRST_BUFFER:
+                    var ueAddress = Ip4Address.valueOf(notification.getFirstBuffer().getNewBufferId());
+                    log.info("Received FIRST_BUFFER: ueAddress={}", ueAddress);
+                    up4Manager.postEvent(new Up4Event(
+                            Up4Event.Type.DOWNLINK_DATA_NOTIFICATION, new Up4EventSubject(ueAddress)));
+                    break;
+                case DROPPED_PACKET:
+                    // Queue ID is the UE address, see doDrain.
+                    batchDrops.merge(Ip4Address.valueOf((int) notification.getDroppedPacket().getQueueId()),
+                                     1, Integer::sum);
+                    break;
+                case MESSAGETYPE_NOT_SET:
+                    break;
+                default:
+                    log.warn("Notification type unhandled: {}", notification.getMessageTypeCase());
+            }
+        }
+        if (!batchDrops.isEmpty()) {
+            batchDrops.forEach((ueAddr, count) -> droppedPackets.merge(ueAddr, (long) count, Long::sum));
+            log.debug("Dbuf at {} dropped packets for {} UEs: {}", serviceAddr, batchDrops.size(), batchDrops);
         }
     }
 
@@ -10,6 +10,7 @@ import org.apache.karaf.shell.api.action.Command;
 import org.apache.karaf.shell.api.action.Option;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 import org.omecproject.up4.Up4Service;
+import org.omecproject.up4.impl.Up4NorthComponent;
 import org.onlab.packet.Ip4Prefix;
 import org.onosproject.cli.AbstractShellCommand;
 import org.onosproject.net.behaviour.upf.UpfApplication;
@@ -61,6 +62,8 @@ public class ApplicationFilteringCommand extends AbstractShellCommand {
     @Override
     protected void doExecute() throws Exception {
         Up4Service app = get(Up4Service.class);
+        // Clients must re-read the state after reconnecting.
+        get(Up4NorthComponent.class).invalidateResyncToken();
         UpfApplication.Builder appFilterBuilder = UpfApplication.builder()
                 .withAppId(appId)
                 .withPriority(priority)
@@ -8,6 +8,7 @@ import org.apache.karaf.shell.api.action.Command;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 import org.omecproject.up4.Up4Service;
 import org.omecproject.up4.impl.Up4AdminService;
+import org.omecproject.up4.impl.Up4NorthComponent;
 import org.onosproject.cli.AbstractShellCommand;
 import org.onosproject.net.behaviour.upf.UpfEntityType;
 import org.onosproject.net.behaviour.upf.UpfProgrammableException;
@@ -24,6 +25,8 @@ public class ClearFlowsCommand extends AbstractShellCommand {
     protected void doExecute() throws UpfProgrammableException {
         Up4Service app = get(Up4Service.class);
         Up4AdminService adminApp = get(Up4AdminService.class);
+        // Clients must re-read the state after reconnecting.
+        get(Up4NorthComponent.class).invalidateResyncToken();
 
         print("Clearing all currently installed UE sessions.");
         app.deleteAll(UpfEntityType.APPLICATION);
@@ -0,0 +1,43 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.cli;
+
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.omecproject.dbuf.client.DbufClient;
+import org.omecproject.up4.impl.Up4AdminService;
+import org.onlab.packet.Ip4Address;
+import org.onosproject.cli.AbstractShellCommand;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prints the status of the dbuf clients.
+ */
+@Service
+@Command(scope = "up4", name = "dbuf-status",
+        description = "Print the status of the dbuf clients, including pending drain requests")
+public class DbufStatusCommand extends AbstractShellCommand {
+
+    @Override
+    protected void doExecute() {
+        Up4AdminService adminService = get(Up4AdminService.class);
+
+        List<DbufClient> dbufClients = adminService.dbufClients();
+        if (dbufClients.isEmpty()) {
+            print("Dbuf is not configured");
+            return;
+        }
+        for (DbufClient dbufClient : dbufClients) {
+            Map<Ip4Address, Long> droppedPackets = dbufClient.droppedPackets();
+            print("serviceAddr=%s, dataplaneAddr=%s:%d, ready=%s, queuedDrains=%d, drainsInFlight=%d, " +
+                          "droppedPackets=%d (%d UEs)",
+                  dbufClient.serviceAddr(), dbufClient.dataplaneIp4Addr(), dbufClient.dataplaneUdpPort(),
+                  dbufClient.isReady(), dbufClient.drainQueueDepth(), dbufClient.drainsInFlight(),
+                  droppedPackets.values().stream().mapToLong(Long::longValue).sum(), droppedPackets.size());
+        }
+    }
+}
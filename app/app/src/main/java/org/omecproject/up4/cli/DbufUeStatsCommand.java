@@ -0,0 +1,34 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.cli;
+
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.omecproject.up4.impl.DbufUeStats;
+import org.omecproject.up4.impl.Up4AdminService;
+import org.onosproject.cli.AbstractShellCommand;
+
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Prints the dbuf statistics of each UE.
+ */
+@Service
+@Command(scope = "up4", name = "dbuf-ue-stats",
+        description = "Print per-UE dbuf statistics: buffering duration, drain latency and dropped packets")
+public class DbufUeStatsCommand extends AbstractShellCommand {
+
+    @Override
+    protected void doExecute() {
+        Up4AdminService adminService = get(Up4AdminService.class);
+
+        Collection<DbufUeStats> stats = adminService.dbufUeStats();
+        stats.stream()
+                .sorted(Comparator.comparingInt(s -> s.ueAddress().toInt()))
+                .forEach(s -> print(s.toString()));
+        print("%d UEs", stats.size());
+    }
+}
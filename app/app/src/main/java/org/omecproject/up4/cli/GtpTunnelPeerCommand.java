@@ -9,6 +9,7 @@ import org.apache.karaf.shell.api.action.Command;
 import org.apache.karaf.shell.api.action.Option;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 import org.omecproject.up4.impl.Up4AdminService;
+import org.omecproject.up4.impl.Up4NorthComponent;
 import org.onlab.packet.Ip4Address;
 import org.onosproject.cli.AbstractShellCommand;
 import org.onosproject.net.behaviour.upf.UpfGtpTunnelPeer;
@@ -49,6 +50,8 @@ public class GtpTunnelPeerCommand extends AbstractShellCommand {
     @Override
     protected void doExecute() throws Exception {
         Up4AdminService app = get(Up4AdminService.class);
+        // Clients must re-read the state after reconnecting.
+        get(Up4NorthComponent.class).invalidateResyncToken();
         UpfGtpTunnelPeer.Builder tunnelPeerBuilder = UpfGtpTunnelPeer.builder()
                 .withTunnelPeerId(tunnelPeer)
                 .withSrcAddr(Ip4Address.valueOf(srcAddr))
@@ -8,6 +8,7 @@ import org.apache.karaf.shell.api.action.Argument;
 import org.apache.karaf.shell.api.action.Command;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 import org.omecproject.up4.Up4Service;
+import org.omecproject.up4.impl.Up4NorthComponent;
 import org.onlab.packet.Ip4Address;
 import org.onosproject.cli.AbstractShellCommand;
 import org.onosproject.net.behaviour.upf.UpfInterface;
@@ -33,6 +34,8 @@ public class InterfaceDeleteCommand extends AbstractShellCommand {
     @Override
     protected void doExecute() throws Exception {
         Up4Service app = get(Up4Service.class);
+        // Clients must re-read the state after reconnecting.
+        get(Up4NorthComponent.class).invalidateResyncToken();
         Ip4Address n3Addr = Ip4Address.valueOf(this.n3Addr);
         print("Removing N3 interface address %s", n3Addr.toString());
         app.delete(UpfInterface.createN3From(n3Addr, sliceId));
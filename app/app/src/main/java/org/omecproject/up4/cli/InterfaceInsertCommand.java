@@ -8,6 +8,7 @@ import org.apache.karaf.shell.api.action.Argument;
 import org.apache.karaf.shell.api.action.Command;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 import org.omecproject.up4.impl.Up4AdminService;
+import org.omecproject.up4.impl.Up4NorthComponent;
 import org.onlab.packet.Ip4Address;
 import org.onosproject.cli.AbstractShellCommand;
 import org.onosproject.net.behaviour.upf.UpfInterface;
@@ -33,6 +34,8 @@ public class InterfaceInsertCommand extends AbstractShellCommand {
     @Override
     protected void doExecute() throws Exception {
         Up4AdminService app = get(Up4AdminService.class);
+        // Clients must re-read the state after reconnecting.
+        get(Up4NorthComponent.class).invalidateResyncToken();
         Ip4Address n3Addr = Ip4Address.valueOf(this.n3Addr);
         print("Adding N3 interface address: %s", n3Addr.toString());
         app.adminApply(UpfInterface.createN3From(n3Addr, sliceId));
@@ -0,0 +1,39 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.cli;
+
+import com.google.protobuf.TextFormat;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.omecproject.up4.impl.Up4NorthComponent;
+import org.onosproject.cli.AbstractShellCommand;
+
+/**
+ * Prints the P4Runtime StreamChannel(s) open on this instance.
+ */
+@Service
+@Command(scope = "up4", name = "read-stream-channels",
+        description = "Print the P4Runtime StreamChannels open on this instance, with their queue stats")
+public class ReadStreamChannelsCommand extends AbstractShellCommand {
+
+    @Override
+    protected void doExecute() {
+        Up4NorthComponent up4North = get(Up4NorthComponent.class);
+
+        var streams = up4North.streamChannels();
+        print("%d StreamChannels", streams.size());
+        streams.forEach((electionId, sender) -> print(
+                "election_id={%s}, role=%s, queued=%d, sent=%d, dropped=%d, coalesced=%d, " +
+                        "unacked_digest_lists=%d, retransmitted_digest_lists=%d",
+                TextFormat.shortDebugString(electionId), sender.isPrimary() ? "primary" : "backup",
+                sender.queueDepth(),
+                sender.sentCount(), sender.droppedCount(), sender.coalescedCount(),
+                sender.outstandingDigestLists(), sender.retransmittedCount()));
+        var readOnlyStreams = up4North.readOnlyStreamChannels();
+        print("%d read-only StreamChannels", readOnlyStreams.size());
+        readOnlyStreams.forEach(sender -> print(
+                "queued=%d, sent=%d, dropped=%d", sender.queueDepth(), sender.sentCount(), sender.droppedCount()));
+    }
+}
@@ -7,6 +7,7 @@ package org.omecproject.up4.cli;
 import org.apache.karaf.shell.api.action.Command;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 import org.omecproject.up4.impl.Up4AdminService;
+import org.omecproject.up4.impl.Up4NorthComponent;
 import org.onosproject.cli.AbstractShellCommand;
 import org.onosproject.net.behaviour.upf.UpfEntityType;
 import org.onosproject.net.behaviour.upf.UpfInterface;
@@ -26,6 +27,8 @@ public class ResetEntriesCommand extends AbstractShellCommand {
     @Override
     protected void doExecute() throws UpfProgrammableException {
         Up4AdminService app = get(Up4AdminService.class);
+        // Clients must re-read the state after reconnecting.
+        get(Up4NorthComponent.class).invalidateResyncToken();
 
         print("Clearing all UP4 dataplane table entries.");
         app.adminDeleteAll(UpfEntityType.SESSION_UPLINK);
@@ -0,0 +1,74 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.cli;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.onlab.metrics.MetricsService;
+import org.onosproject.cli.AbstractShellCommand;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prints the UP4 metrics registered with the ONOS metrics service.
+ */
+@Service
+@Command(scope = "up4", name = "metrics",
+        description = "Print UP4 metrics, e.g., write latency, DDN rate, dbuf drain latency")
+public class Up4MetricsCommand extends AbstractShellCommand {
+
+    private static final String PREFIX = "up4.";
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Override
+    protected void doExecute() {
+        MetricsService metricsService = get(MetricsService.class);
+
+        Map<String, Metric> metrics = new TreeMap<>();
+        metricsService.getMetrics().forEach((name, metric) -> {
+            if (name.startsWith(PREFIX)) {
+                metrics.put(name, metric);
+            }
+        });
+        metrics.forEach((name, metric) -> print("%s %s", name, format(metric)));
+    }
+
+    private static String format(Metric metric) {
+        if (metric instanceof Timer) {
+            Timer timer = (Timer) metric;
+            Snapshot snapshot = timer.getSnapshot();
+            return String.format("count=%d, rate1m=%.2f/s, mean=%.3fms, p50=%.3fms, p99=%.3fms, max=%.3fms",
+                                 timer.getCount(), timer.getOneMinuteRate(),
+                                 snapshot.getMean() / NANOS_PER_MILLI,
+                                 snapshot.getMedian() / NANOS_PER_MILLI,
+                                 snapshot.get99thPercentile() / NANOS_PER_MILLI,
+                                 snapshot.getMax() / NANOS_PER_MILLI);
+        } else if (metric instanceof Meter) {
+            Meter meter = (Meter) metric;
+            return String.format("count=%d, rate1m=%.2f/s, rate15m=%.2f/s",
+                                 meter.getCount(), meter.getOneMinuteRate(), meter.getFifteenMinuteRate());
+        } else if (metric instanceof Histogram) {
+            Histogram histogram = (Histogram) metric;
+            Snapshot snapshot = histogram.getSnapshot();
+            return String.format("count=%d, mean=%.2f, p99=%.2f, max=%d",
+                                 histogram.getCount(), snapshot.getMean(),
+                                 snapshot.get99thPercentile(), snapshot.getMax());
+        } else if (metric instanceof Counter) {
+            return String.format("count=%d", ((Counter) metric).getCount());
+        } else if (metric instanceof Gauge) {
+            return String.format("value=%s", ((Gauge<?>) metric).getValue());
+        }
+        return metric.toString();
+    }
+}
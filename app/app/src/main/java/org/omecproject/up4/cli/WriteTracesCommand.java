@@ -0,0 +1,31 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.cli;
+
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.omecproject.up4.impl.Up4NorthComponent;
+import org.omecproject.up4.impl.WriteTracer;
+import org.onosproject.cli.AbstractShellCommand;
+
+/**
+ * Prints the slowest sampled P4Runtime write requests.
+ */
+@Service
+@Command(scope = "up4", name = "write-traces",
+        description = "Print the last slow write requests sampled by the write tracer, " +
+                "with a per-stage latency breakdown")
+public class WriteTracesCommand extends AbstractShellCommand {
+
+    @Override
+    protected void doExecute() {
+        Up4NorthComponent up4North = get(Up4NorthComponent.class);
+
+        WriteTracer tracer = up4North.writeTracer();
+        var traces = tracer.slowTraces();
+        print("%d slow write requests traced, showing the last %d", tracer.slowCount(), traces.size());
+        traces.forEach(trace -> print(trace.toString()));
+    }
+}
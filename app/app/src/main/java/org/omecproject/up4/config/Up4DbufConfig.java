@@ -4,18 +4,33 @@
  */
 package org.omecproject.up4.config;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
 import org.onlab.packet.Ip4Address;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.net.config.Config;
 import org.onosproject.net.config.InvalidFieldException;
 
+import java.util.Map;
+import java.util.Set;
+
 /**
- * Represents config required by UP4 to control a dbuf instance.
+ * Represents config required by UP4 to control one or more dbuf instances.
+ * A single instance is configured with the serviceAddr and dataplaneAddr
+ * fields, multiple instances with a list of such objects in the instances
+ * field. The first instance uses GTP tunnel peer ID 1, the other ones use
+ * the IDs from 255 downwards, which must not be allocated by the control
+ * plane.
  */
 public class Up4DbufConfig extends Config<ApplicationId> {
     public static final String KEY = "dbuf";
     public static final String DBUF_SERVICE_ADDR = "serviceAddr";
     public static final String DBUF_DATAPLANE_ADDR = "dataplaneAddr";
+    public static final String DBUF_INSTANCES = "instances";
+    // Each instance uses a GTP tunnel peer ID, do not reserve too many of them.
+    public static final int MAX_INSTANCES = 8;
 
     static boolean isValidAddrString(String addr, boolean mustBeIp4Addr) {
         if (addr.isBlank()) {
@@ -45,12 +60,43 @@ public class Up4DbufConfig extends Config<ApplicationId> {
 
     @Override
     public boolean isValid() {
+        if (object.has(DBUF_INSTANCES)) {
+            return hasOnlyFields(DBUF_INSTANCES) && isValidInstances();
+        }
         return hasOnlyFields(DBUF_SERVICE_ADDR, DBUF_DATAPLANE_ADDR) &&
                 hasFields(DBUF_SERVICE_ADDR, DBUF_DATAPLANE_ADDR) &&
                 isValidAddrString(serviceAddr(), false) &&
                 isValidAddrString(dataplaneAddr(), true);
     }
 
+    private boolean isValidInstances() {
+        final JsonNode instances = object.path(DBUF_INSTANCES);
+        if (!instances.isArray() || instances.size() == 0) {
+            throw new InvalidFieldException(DBUF_INSTANCES, "must be a non-empty list");
+        }
+        if (instances.size() > MAX_INSTANCES) {
+            throw new InvalidFieldException(DBUF_INSTANCES, "at most " + MAX_INSTANCES + " instances allowed");
+        }
+        final Set<String> serviceAddrs = Sets.newHashSet();
+        for (JsonNode instance : instances) {
+            if (!instance.isObject()) {
+                throw new InvalidFieldException(DBUF_INSTANCES, "each instance must be an object");
+            }
+            final ObjectNode node = (ObjectNode) instance;
+            if (!hasOnlyFields(node, DBUF_SERVICE_ADDR, DBUF_DATAPLANE_ADDR) ||
+                    !hasFields(node, DBUF_SERVICE_ADDR, DBUF_DATAPLANE_ADDR)) {
+                return false;
+            }
+            final String serviceAddr = node.path(DBUF_SERVICE_ADDR).asText();
+            isValidAddrString(serviceAddr, false);
+            isValidAddrString(node.path(DBUF_DATAPLANE_ADDR).asText(), true);
+            if (!serviceAddrs.add(serviceAddr)) {
+                throw new InvalidFieldException(DBUF_INSTANCES, "duplicate serviceAddr " + serviceAddr);
+            }
+        }
+        return true;
+    }
+
 
     /**
      * Returns the address of the dbuf service (in the form of host:port). Or null if not
@@ -72,5 +118,25 @@ public class Up4DbufConfig extends Config<ApplicationId> {
         return get(DBUF_DATAPLANE_ADDR, null);
     }
 
+    /**
+     * Returns the dbuf instances, as a map of service address to dataplane
+     * address, in the configured order. When a single instance is configured
+     * with the serviceAddr and dataplaneAddr fields, the map contains only
+     * that instance.
+     *
+     * @return the dbuf instances
+     */
+    public Map<String, String> instances() {
+        final ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+        if (object.has(DBUF_INSTANCES)) {
+            object.path(DBUF_INSTANCES).forEach(instance -> builder.put(
+                    instance.path(DBUF_SERVICE_ADDR).asText(),
+                    instance.path(DBUF_DATAPLANE_ADDR).asText()));
+        } else if (serviceAddr() != null && dataplaneAddr() != null) {
+            builder.put(serviceAddr(), dataplaneAddr());
+        }
+        return builder.build();
+    }
+
 }
 
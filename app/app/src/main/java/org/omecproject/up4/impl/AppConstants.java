@@ -10,6 +10,8 @@ public final class AppConstants {
     public static final String APP_NAME = "org.omecproject.up4";
     public static final PiPipeconfId PIPECONF_ID = new PiPipeconfId(APP_NAME);
     public static final int GRPC_SERVER_PORT = 51001;
+    // P4Runtime role_id of the read-only clients, e.g., monitoring tools.
+    public static final long READ_ONLY_ROLE_ID = 1;
     public static final String P4INFO_PATH = "/p4info.txt";
     public static final String SUPPORTED_PIPECONF_STRING = "fabric-upf";
 
@@ -0,0 +1,137 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.onosproject.net.behaviour.upf.UpfCounter;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+/**
+ * Formats counter snapshots using the Prometheus text exposition format.
+ * The output can be restricted to some counter cells and directions (ingress
+ * or egress), and can contain only the increments since the previous
+ * snapshot (delta export), in which case cells that did not change are
+ * omitted.
+ */
+final class CounterExposition {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    static final String INGRESS = "ingress";
+    static final String EGRESS = "egress";
+
+    private static final String PREFIX = "up4_counter_";
+    private static final Set<String> DIRECTIONS = ImmutableSet.of(INGRESS, EGRESS);
+
+    private final Set<Integer> cells;
+    private final Set<String> directions;
+    private final boolean delta;
+
+    /**
+     * Creates a new exposition.
+     *
+     * @param cells      counter cells to export, empty to export all cells
+     * @param directions directions to export, empty to export all directions
+     * @param delta      if true, export the increments since the previous snapshot
+     */
+    CounterExposition(Set<Integer> cells, Set<String> directions, boolean delta) {
+        this.cells = ImmutableSet.copyOf(cells);
+        this.directions = directions.isEmpty() ? DIRECTIONS : ImmutableSet.copyOf(directions);
+        this.delta = delta;
+    }
+
+    /**
+     * Parses the query string of an HTTP request. Supported parameters are
+     * "cell" (comma-separated list of cell IDs), "direction" (ingress or
+     * egress) and "delta" (true or false). Parameters can be repeated.
+     *
+     * @param query raw query string, can be null
+     * @return the exposition
+     * @throws IllegalArgumentException if the query is not valid
+     */
+    static CounterExposition parse(String query) {
+        final Set<Integer> cells = Sets.newHashSet();
+        final Set<String> directions = Sets.newHashSet();
+        boolean delta = false;
+        if (query != null && !query.isEmpty()) {
+            for (String param : query.split("&")) {
+                final int eq = param.indexOf('=');
+                final String name = eq < 0 ? param : param.substring(0, eq);
+                final String value = eq < 0 ? "" : param.substring(eq + 1);
+                switch (name) {
+                    case "cell":
+                        for (String cell : value.split(",")) {
+                            try {
+                                cells.add(Integer.parseInt(cell.trim()));
+                            } catch (NumberFormatException e) {
+                                throw new IllegalArgumentException("Invalid cell " + cell);
+                            }
+                        }
+                        break;
+                    case "direction":
+                        if (!DIRECTIONS.contains(value)) {
+                            throw new IllegalArgumentException("Invalid direction " + value);
+                        }
+                        directions.add(value);
+                        break;
+                    case "delta":
+                        delta = value.isEmpty() || Boolean.parseBoolean(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown parameter " + name);
+                }
+            }
+        }
+        return new CounterExposition(cells, directions, delta);
+    }
+
+    /**
+     * Formats the given snapshot.
+     *
+     * @param snapshot latest snapshot, can be null if no snapshot was taken yet
+     * @param previous snapshot taken before the latest one, can be null
+     * @return text exposition
+     */
+    String format(CounterSnapshot snapshot, CounterSnapshot previous) {
+        final StringBuilder sb = new StringBuilder();
+        if (snapshot == null) {
+            return sb.toString();
+        }
+        sb.append("# HELP " + PREFIX + "snapshot_timestamp_seconds Time the counter snapshot was taken\n")
+                .append("# TYPE " + PREFIX + "snapshot_timestamp_seconds gauge\n")
+                .append(PREFIX + "snapshot_timestamp_seconds ").append(snapshot.timestamp() / 1000.0).append('\n');
+        final Collection<UpfCounter> counters = delta
+                ? snapshot.deltaSince(previous, 0, 0)
+                : snapshot.counters().values();
+        if (directions.contains(INGRESS)) {
+            appendMetric(sb, counters, INGRESS, "packets", UpfCounter::getIngressPkts);
+            appendMetric(sb, counters, INGRESS, "bytes", UpfCounter::getIngressBytes);
+        }
+        if (directions.contains(EGRESS)) {
+            appendMetric(sb, counters, EGRESS, "packets", UpfCounter::getEgressPkts);
+            appendMetric(sb, counters, EGRESS, "bytes", UpfCounter::getEgressBytes);
+        }
+        return sb.toString();
+    }
+
+    private void appendMetric(StringBuilder sb, Collection<UpfCounter> counters, String direction,
+                              String unit, ToLongFunction<UpfCounter> value) {
+        // Deltas are not monotonic, export them as gauges.
+        final String name = PREFIX + direction + "_" + unit + (delta ? "_delta" : "_total");
+        sb.append("# HELP ").append(name).append(' ')
+                .append(delta ? "Increase since the previous snapshot of the " : "Total ")
+                .append(direction).append(' ').append(unit).append(" per counter cell\n")
+                .append("# TYPE ").append(name).append(delta ? " gauge\n" : " counter\n");
+        for (UpfCounter counter : counters) {
+            if (cells.isEmpty() || cells.contains(counter.getCellId())) {
+                sb.append(name).append("{cell=\"").append(counter.getCellId()).append("\"} ")
+                        .append(value.applyAsLong(counter)).append('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.Maps;
+import org.onosproject.net.behaviour.upf.UpfCounter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Tracks the counter values pushed to a single client. The baseline of each
+ * cell is the value last pushed for that cell, so that cells growing slower
+ * than the threshold are eventually pushed, once the accumulated increase
+ * exceeds the threshold. The baseline is seeded when the client connects, so
+ * that only the cells changed since then are pushed.
+ */
+final class CounterPushTracker {
+
+    private final Map<Integer, UpfCounter> baseline = Maps.newHashMap();
+    private long droppedMessages;
+
+    /**
+     * Creates a new tracker for a client.
+     *
+     * @param snapshot        counters known to the client when connecting, or
+     *                        null if none
+     * @param droppedMessages number of messages dropped by the stream of the
+     *                        client so far
+     */
+    CounterPushTracker(CounterSnapshot snapshot, long droppedMessages) {
+        if (snapshot != null) {
+            baseline.putAll(snapshot.counters());
+        }
+        this.droppedMessages = droppedMessages;
+    }
+
+    /**
+     * Returns the current values of the cells that changed since last pushed,
+     * and updates the baseline of the returned cells. If the stream of the
+     * client dropped messages since the last call, they might have carried
+     * counter values, thus the baseline is cleared and all the non-zero cells
+     * are returned.
+     *
+     * @param snapshot        counter snapshot
+     * @param minPkts         minimum increase in packets for a cell to be pushed
+     * @param minBytes        minimum increase in bytes for a cell to be pushed
+     * @param droppedMessages number of messages dropped by the stream so far
+     * @return counters, sorted by cell ID
+     */
+    synchronized List<UpfCounter> update(CounterSnapshot snapshot, long minPkts, long minBytes,
+                                         long droppedMessages) {
+        if (droppedMessages != this.droppedMessages) {
+            this.droppedMessages = droppedMessages;
+            baseline.clear();
+        }
+        final Map<Integer, UpfCounter> counters = snapshot.counters();
+        final List<UpfCounter> changed = CounterSnapshot.deltas(counters, baseline, minPkts, minBytes).stream()
+                .map(delta -> counters.get(delta.getCellId()))
+                .collect(Collectors.toList());
+        changed.forEach(counter -> baseline.put(counter.getCellId(), counter));
+        // Cells no longer reported by the devices.
+        baseline.keySet().retainAll(counters.keySet());
+        return changed;
+    }
+
+    /**
+     * Clears the baseline, e.g., when values returned by the last update could
+     * not be pushed.
+     */
+    synchronized void clear() {
+        baseline.clear();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import org.onosproject.net.behaviour.upf.UpfCounter;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Immutable snapshot of the UPF counters, aggregated over all the UPF
+ * devices, taken at a given time. Snapshots are numbered in increasing order.
+ */
+public final class CounterSnapshot {
+
+    private final long seq;
+    private final long timestamp;
+    private final SortedMap<Integer, UpfCounter> counters;
+
+    CounterSnapshot(long seq, long timestamp, Collection<UpfCounter> counters) {
+        this.seq = seq;
+        this.timestamp = timestamp;
+        final ImmutableSortedMap.Builder<Integer, UpfCounter> builder = ImmutableSortedMap.naturalOrder();
+        counters.forEach(c -> builder.put(c.getCellId(), c));
+        this.counters = builder.build();
+    }
+
+    /**
+     * Returns the sequence number of this snapshot.
+     *
+     * @return sequence number
+     */
+    public long seq() {
+        return seq;
+    }
+
+    /**
+     * Returns the time this snapshot was taken.
+     *
+     * @return time in milliseconds since the epoch
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the counters in this snapshot, by cell ID.
+     *
+     * @return counters sorted by cell ID
+     */
+    public SortedMap<Integer, UpfCounter> counters() {
+        return counters;
+    }
+
+    /**
+     * Returns the counter cells that changed since the given snapshot, with
+     * values equal to the difference between the two snapshots. A cell is
+     * returned only if its packets or bytes, either ingress or egress,
+     * increased by at least the given thresholds. Cells that are not in the
+     * given snapshot, or whose values decreased (i.e., the cell was reset),
+     * are compared against zero.
+     *
+     * @param previous previous snapshot, can be null
+     * @param minPkts  minimum increase in packets
+     * @param minBytes minimum increase in bytes
+     * @return counter deltas, sorted by cell ID
+     */
+    public List<UpfCounter> deltaSince(CounterSnapshot previous, long minPkts, long minBytes) {
+        return deltas(counters, previous == null ? Collections.emptyMap() : previous.counters, minPkts, minBytes);
+    }
+
+    /**
+     * Returns the difference between the given counters and the given
+     * baseline, as described in {@link #deltaSince(CounterSnapshot, long, long)}.
+     *
+     * @param counters counters, by cell ID
+     * @param baseline baseline counters, by cell ID
+     * @param minPkts  minimum increase in packets
+     * @param minBytes minimum increase in bytes
+     * @return counter deltas, in the iteration order of the given counters
+     */
+    static List<UpfCounter> deltas(Map<Integer, UpfCounter> counters, Map<Integer, UpfCounter> baseline,
+                                   long minPkts, long minBytes) {
+        final List<UpfCounter> deltas = Lists.newArrayList();
+        for (UpfCounter curr : counters.values()) {
+            final UpfCounter prev = baseline.get(curr.getCellId());
+            final long ingressPkts = diff(curr.getIngressPkts(), prev == null ? 0 : prev.getIngressPkts());
+            final long ingressBytes = diff(curr.getIngressBytes(), prev == null ? 0 : prev.getIngressBytes());
+            final long egressPkts = diff(curr.getEgressPkts(), prev == null ? 0 : prev.getEgressPkts());
+            final long egressBytes = diff(curr.getEgressBytes(), prev == null ? 0 : prev.getEgressBytes());
+            if (ingressPkts + ingressBytes + egressPkts + egressBytes == 0) {
+                continue;
+            }
+            if (Math.max(ingressPkts, egressPkts) < minPkts && Math.max(ingressBytes, egressBytes) < minBytes) {
+                continue;
+            }
+            deltas.add(UpfCounter.builder()
+                               .withCellId(curr.getCellId())
+                               .setIngress(ingressPkts, ingressBytes)
+                               .setEgress(egressPkts, egressBytes)
+                               .build());
+        }
+        return deltas;
+    }
+
+    private static long diff(long curr, long prev) {
+        return curr >= prev ? curr - prev : curr;
+    }
+
+    @Override
+    public String toString() {
+        return "CounterSnapshot{seq=" + seq + ", timestamp=" + timestamp + ", cells=" + counters.size() + "}";
+    }
+}
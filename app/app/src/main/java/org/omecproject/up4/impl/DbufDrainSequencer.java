@@ -0,0 +1,217 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.Maps;
+import org.onlab.packet.Ip4Address;
+import org.onosproject.net.DeviceId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Sequences the dbuf drain of a UE after the forwarding state for that UE is
+ * complete on all UPF physical devices. While a UE is buffering, the UPF rules
+ * applied for that UE are counted. When the session is switched back to
+ * forwarding, the drain is started only after each device has confirmed at
+ * least as many rules for the UE, or when the timeout expires.
+ */
+final class DbufDrainSequencer {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Consumer<Ip4Address> drainAction;
+    private final Supplier<Collection<DeviceId>> devices;
+    private final ScheduledExecutorService timeoutExecutor;
+
+    // UE address -> rules applied and confirmed since the UE started buffering.
+    private final Map<Ip4Address, UeState> ues = Maps.newHashMap();
+    private long timeoutMs;
+
+    /**
+     * Creates a new sequencer.
+     *
+     * @param drainAction     action starting the drain for a UE
+     * @param devices         supplier of the UPF physical devices that must
+     *                        confirm the rules
+     * @param timeoutExecutor executor used to schedule the timeout
+     * @param timeoutMs       maximum time (in milliseconds) to wait for rule
+     *                        confirmations before draining, 0 to drain immediately
+     */
+    DbufDrainSequencer(Consumer<Ip4Address> drainAction, Supplier<Collection<DeviceId>> devices,
+                       ScheduledExecutorService timeoutExecutor, long timeoutMs) {
+        this.drainAction = drainAction;
+        this.devices = devices;
+        this.timeoutExecutor = timeoutExecutor;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Sets the maximum time to wait for rule confirmations.
+     *
+     * @param newTimeoutMs timeout in milliseconds, 0 to drain immediately
+     */
+    synchronized void setTimeout(long newTimeoutMs) {
+        this.timeoutMs = newTimeoutMs;
+    }
+
+    /**
+     * Starts counting the rules for the given UE, which is now buffering.
+     *
+     * @param ueAddr UE address
+     */
+    synchronized void track(Ip4Address ueAddr) {
+        ues.computeIfAbsent(ueAddr, k -> new UeState());
+    }
+
+    /**
+     * Returns true if the given UE is being tracked, i.e., it is buffering
+     * or waiting for the drain.
+     *
+     * @param ueAddr UE address
+     * @return true if tracked
+     */
+    synchronized boolean isTracked(Ip4Address ueAddr) {
+        return ues.containsKey(ueAddr);
+    }
+
+    /**
+     * Signals that a rule for the given UE has been applied on the leader
+     * device, and is expected to be installed on all devices.
+     *
+     * @param ueAddr UE address
+     */
+    synchronized void ruleApplied(Ip4Address ueAddr) {
+        final UeState state = ues.get(ueAddr);
+        if (state != null) {
+            state.expected++;
+        }
+    }
+
+    /**
+     * Signals that a rule for the given UE has been installed on the given device.
+     *
+     * @param deviceId device identifier
+     * @param ueAddr   UE address
+     */
+    void ruleAdded(DeviceId deviceId, Ip4Address ueAddr) {
+        synchronized (this) {
+            final UeState state = ues.get(ueAddr);
+            if (state == null) {
+                return;
+            }
+            state.confirmed.merge(deviceId, 1, Integer::sum);
+            if (!state.armed || !isComplete(state)) {
+                return;
+            }
+            removeState(ueAddr);
+        }
+        log.info("Forwarding state for {} installed on all devices", ueAddr);
+        drainAction.accept(ueAddr);
+    }
+
+    /**
+     * Requests the drain for the given UE, which has been switched back to
+     * forwarding. The drain starts when all devices confirmed the rules for
+     * the UE, or when the timeout expires.
+     *
+     * @param ueAddr UE address
+     */
+    void arm(Ip4Address ueAddr) {
+        synchronized (this) {
+            final UeState state = ues.get(ueAddr);
+            if (state != null && timeoutMs > 0 && !isComplete(state)) {
+                if (!state.armed) {
+                    state.armed = true;
+                    state.timeoutTask = timeoutExecutor.schedule(
+                            () -> timeout(ueAddr, state), timeoutMs, TimeUnit.MILLISECONDS);
+                }
+                log.debug("Waiting for {} rules to be installed on all devices before draining {}",
+                          state.expected, ueAddr);
+                return;
+            }
+            removeState(ueAddr);
+        }
+        drainAction.accept(ueAddr);
+    }
+
+    /**
+     * Stops tracking the given UE without draining.
+     *
+     * @param ueAddr UE address
+     */
+    synchronized void cancel(Ip4Address ueAddr) {
+        removeState(ueAddr);
+    }
+
+    /**
+     * Stops tracking all UEs without draining.
+     */
+    synchronized void clear() {
+        ues.values().forEach(UeState::cancelTimeout);
+        ues.clear();
+    }
+
+    /**
+     * Returns the number of UEs tracked.
+     *
+     * @return tracked UEs
+     */
+    synchronized int size() {
+        return ues.size();
+    }
+
+    private void timeout(Ip4Address ueAddr, UeState state) {
+        synchronized (this) {
+            if (ues.get(ueAddr) != state) {
+                // Already drained.
+                return;
+            }
+            ues.remove(ueAddr);
+        }
+        log.warn("Rules for {} not confirmed on all devices after {} ms, draining anyway",
+                 ueAddr, timeoutMs);
+        drainAction.accept(ueAddr);
+    }
+
+    // Must be called while holding the lock.
+    private boolean isComplete(UeState state) {
+        for (DeviceId deviceId : devices.get()) {
+            if (state.confirmed.getOrDefault(deviceId, 0) < state.expected) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Must be called while holding the lock.
+    private void removeState(Ip4Address ueAddr) {
+        final UeState state = ues.remove(ueAddr);
+        if (state != null) {
+            state.cancelTimeout();
+        }
+    }
+
+    private static final class UeState {
+        private final Map<DeviceId, Integer> confirmed = Maps.newHashMap();
+        private int expected = 0;
+        private boolean armed = false;
+        private ScheduledFuture<?> timeoutTask;
+
+        private void cancelTimeout() {
+            if (timeoutTask != null) {
+                timeoutTask.cancel(false);
+                timeoutTask = null;
+            }
+        }
+    }
+}
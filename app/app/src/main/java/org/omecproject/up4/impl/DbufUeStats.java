@@ -0,0 +1,118 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import org.onlab.packet.Ip4Address;
+
+/**
+ * Helper class primarily intended for printing the dbuf statistics of a UE.
+ * Times are in milliseconds since the epoch, 0 if the event never happened.
+ */
+public final class DbufUeStats {
+    private final Ip4Address ueAddress;
+    private final long firstBufferTime;
+    private final long drainStartTime;
+    private final long drainEndTime;
+    private final long firstBufferCount;
+    private final long droppedPackets;
+
+    DbufUeStats(Ip4Address ueAddress, long firstBufferTime, long drainStartTime,
+                long drainEndTime, long firstBufferCount, long droppedPackets) {
+        this.ueAddress = ueAddress;
+        this.firstBufferTime = firstBufferTime;
+        this.drainStartTime = drainStartTime;
+        this.drainEndTime = drainEndTime;
+        this.firstBufferCount = firstBufferCount;
+        this.droppedPackets = droppedPackets;
+    }
+
+    /**
+     * Gets the UE address.
+     *
+     * @return UE address
+     */
+    public Ip4Address ueAddress() {
+        return ueAddress;
+    }
+
+    /**
+     * Gets the time of the last FIRST_BUFFER notification for this UE.
+     *
+     * @return time in milliseconds, 0 if never buffered
+     */
+    public long firstBufferTime() {
+        return firstBufferTime;
+    }
+
+    /**
+     * Gets the time the last drain for this UE was started.
+     *
+     * @return time in milliseconds, 0 if never drained
+     */
+    public long drainStartTime() {
+        return drainStartTime;
+    }
+
+    /**
+     * Gets the time the last drain for this UE completed successfully.
+     *
+     * @return time in milliseconds, 0 if never drained
+     */
+    public long drainEndTime() {
+        return drainEndTime;
+    }
+
+    /**
+     * Gets the number of FIRST_BUFFER notifications received for this UE.
+     *
+     * @return number of buffering events
+     */
+    public long firstBufferCount() {
+        return firstBufferCount;
+    }
+
+    /**
+     * Gets the number of packets dropped by dbuf for this UE.
+     *
+     * @return dropped packets
+     */
+    public long droppedPackets() {
+        return droppedPackets;
+    }
+
+    /**
+     * Gets the time between the last FIRST_BUFFER notification and the start
+     * of the following drain, i.e., how long packets were buffered waiting
+     * for the UE to be reachable.
+     *
+     * @return buffering duration in milliseconds, -1 if not available
+     */
+    public long bufferingDuration() {
+        if (firstBufferTime == 0 || drainStartTime < firstBufferTime) {
+            return -1;
+        }
+        return drainStartTime - firstBufferTime;
+    }
+
+    /**
+     * Gets the time needed to complete the last drain.
+     *
+     * @return drain latency in milliseconds, -1 if not available
+     */
+    public long drainLatency() {
+        if (drainStartTime == 0 || drainEndTime < drainStartTime) {
+            return -1;
+        }
+        return drainEndTime - drainStartTime;
+    }
+
+    @Override
+    public String toString() {
+        return "UE " + ueAddress + ": buffered=" + firstBufferCount +
+                ", bufferingDuration=" + bufferingDuration() + "ms" +
+                ", drainLatency=" + drainLatency() + "ms" +
+                ", droppedPackets=" + droppedPackets;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+/**
+ * Per-UE dbuf statistics, keyed by the UE IPv4 address as int. Stored in an
+ * open-addressing hash table with parallel primitive arrays, to avoid boxing
+ * and per-entry objects when tracking many UEs.
+ */
+final class DbufUeStatsTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Consumer of the statistics of a UE.
+     */
+    @FunctionalInterface
+    interface StatsConsumer {
+        void accept(int ueAddr, long firstBufferTime, long drainStartTime,
+                    long drainEndTime, long firstBufferCount);
+    }
+
+    private int[] keys;
+    private boolean[] used;
+    private long[] firstBufferTime;
+    private long[] drainStartTime;
+    private long[] drainEndTime;
+    private long[] firstBufferCount;
+    private int size;
+
+    DbufUeStatsTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Records the reception of a FIRST_BUFFER notification for the given UE.
+     *
+     * @param ueAddr UE address
+     * @param time   time in milliseconds
+     */
+    synchronized void recordFirstBuffer(int ueAddr, long time) {
+        final int i = slotFor(ueAddr);
+        firstBufferTime[i] = time;
+        firstBufferCount[i]++;
+    }
+
+    /**
+     * Records the start of the drain for the given UE.
+     *
+     * @param ueAddr UE address
+     * @param time   time in milliseconds
+     */
+    synchronized void recordDrainStart(int ueAddr, long time) {
+        drainStartTime[slotFor(ueAddr)] = time;
+    }
+
+    /**
+     * Records the successful completion of the drain for the given UE.
+     *
+     * @param ueAddr UE address
+     * @param time   time in milliseconds
+     */
+    synchronized void recordDrainEnd(int ueAddr, long time) {
+        drainEndTime[slotFor(ueAddr)] = time;
+    }
+
+    /**
+     * Removes the statistics of the given UE.
+     *
+     * @param ueAddr UE address
+     * @return true if the UE had statistics
+     */
+    synchronized boolean remove(int ueAddr) {
+        int i = find(ueAddr);
+        if (i < 0) {
+            return false;
+        }
+        clearSlot(i);
+        size--;
+        // Backward shift deletion, moves back the following entries of the
+        // same cluster that would not be reachable anymore.
+        final int mask = keys.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (!used[j]) {
+                return true;
+            }
+            final int home = home(keys[j]);
+            final boolean reachable = i <= j ? i < home && home <= j : i < home || home <= j;
+            if (!reachable) {
+                move(j, i);
+                i = j;
+            }
+        }
+    }
+
+    /**
+     * Removes all statistics.
+     */
+    synchronized void clear() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Returns the number of UEs with statistics.
+     *
+     * @return number of UEs
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Invokes the given consumer for each UE, while holding the table lock.
+     *
+     * @param consumer statistics consumer
+     */
+    synchronized void forEach(StatsConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                consumer.accept(keys[i], firstBufferTime[i], drainStartTime[i],
+                                drainEndTime[i], firstBufferCount[i]);
+            }
+        }
+    }
+
+    private int home(int key) {
+        final int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (keys.length - 1);
+    }
+
+    private int find(int key) {
+        final int mask = keys.length - 1;
+        for (int i = home(key); used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Returns the slot of the given key, inserting it if missing.
+    private int slotFor(int key) {
+        final int existing = find(key);
+        if (existing >= 0) {
+            return existing;
+        }
+        // Keep the load factor at most 0.5.
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        final int mask = keys.length - 1;
+        int i = home(key);
+        while (used[i]) {
+            i = (i + 1) & mask;
+        }
+        used[i] = true;
+        keys[i] = key;
+        size++;
+        return i;
+    }
+
+    private void move(int from, int to) {
+        keys[to] = keys[from];
+        used[to] = true;
+        firstBufferTime[to] = firstBufferTime[from];
+        drainStartTime[to] = drainStartTime[from];
+        drainEndTime[to] = drainEndTime[from];
+        firstBufferCount[to] = firstBufferCount[from];
+        clearSlot(from);
+    }
+
+    private void clearSlot(int i) {
+        used[i] = false;
+        firstBufferTime[i] = 0;
+        drainStartTime[i] = 0;
+        drainEndTime[i] = 0;
+        firstBufferCount[i] = 0;
+    }
+
+    private void resize(int capacity) {
+        final int[] oldKeys = keys;
+        final boolean[] oldUsed = used;
+        final long[] oldFirstBufferTime = firstBufferTime;
+        final long[] oldDrainStartTime = drainStartTime;
+        final long[] oldDrainEndTime = drainEndTime;
+        final long[] oldFirstBufferCount = firstBufferCount;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldUsed[j]) {
+                final int i = slotFor(oldKeys[j]);
+                firstBufferTime[i] = oldFirstBufferTime[j];
+                drainStartTime[i] = oldDrainStartTime[j];
+                drainEndTime[i] = oldDrainEndTime[j];
+                firstBufferCount[i] = oldFirstBufferCount[j];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        used = new boolean[capacity];
+        firstBufferTime = new long[capacity];
+        drainStartTime = new long[capacity];
+        drainEndTime = new long[capacity];
+        firstBufferCount = new long[capacity];
+        size = 0;
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.protobuf.ByteString;
+import org.onlab.packet.Ip4Address;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import p4.v1.P4DataOuterClass;
+import p4.v1.P4RuntimeOuterClass;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+import static org.omecproject.up4.impl.ExtraP4InfoConstants.DDN_DIGEST_ID;
+
+/**
+ * Aggregates downlink data notifications (DDNs) into P4Runtime DigestLists,
+ * following the P4Runtime digest semantics. UE addresses are packed in the same
+ * DigestList until max list size is reached or max timeout expires. Once a UE
+ * address has been sent, further DDNs for the same UE are suppressed until the
+ * DigestList is acknowledged by the client, or until the ack timeout expires.
+ * DigestLists are built only when the sender is ready to accept them, e.g.,
+ * when clients have room for more unacknowledged lists. Otherwise, UE addresses
+ * are kept pending until {@link #flush()} is called again.
+ */
+final class DdnDigestAggregator {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Predicate<P4RuntimeOuterClass.DigestList> digestListSender;
+    private final BooleanSupplier senderReady;
+    private final ScheduledExecutorService timeoutExecutor;
+
+    // UE address -> time it was added, in arrival order.
+    private final Map<Ip4Address, Long> pendingUes = Maps.newLinkedHashMap();
+    // UE address -> list_id of the DigestList waiting for acknowledgement.
+    private final Map<Ip4Address, Long> unackedUes = Maps.newHashMap();
+    // list_id -> DigestList waiting for acknowledgement, in send order.
+    private final Map<Long, OutstandingList> outstandingLists = Maps.newLinkedHashMap();
+
+    private int maxListSize;
+    private long maxTimeoutMs;
+    private long ackTimeoutMs;
+    private long lastListId = 0;
+    private ScheduledFuture<?> timeoutTask;
+
+    /**
+     * Creates a new DDN aggregator.
+     *
+     * @param digestListSender function invoked to send a DigestList to clients,
+     *                         returning false if the list could not be sent
+     * @param senderReady      function returning true if the sender can accept
+     *                         a new DigestList
+     * @param timeoutExecutor  executor used to schedule the max timeout
+     * @param maxListSize      maximum number of UE addresses in a DigestList
+     * @param maxTimeoutMs     maximum time (in milliseconds) a UE address waits
+     *                         before being sent
+     * @param ackTimeoutMs     time (in milliseconds) after which an unacknowledged
+     *                         UE address can be sent again
+     */
+    DdnDigestAggregator(Predicate<P4RuntimeOuterClass.DigestList> digestListSender,
+                        BooleanSupplier senderReady,
+                        ScheduledExecutorService timeoutExecutor,
+                        int maxListSize, long maxTimeoutMs, long ackTimeoutMs) {
+        this.digestListSender = digestListSender;
+        this.senderReady = senderReady;
+        this.timeoutExecutor = timeoutExecutor;
+        configure(maxListSize, maxTimeoutMs, ackTimeoutMs);
+    }
+
+    /**
+     * Updates the aggregation parameters. Applies to UE addresses added after
+     * this call.
+     *
+     * @param newMaxListSize  maximum number of UE addresses in a DigestList
+     * @param newMaxTimeoutMs maximum time (in milliseconds) a UE address waits
+     *                        before being sent
+     * @param newAckTimeoutMs time (in milliseconds) after which an unacknowledged
+     *                        UE address can be sent again
+     */
+    synchronized void configure(int newMaxListSize, long newMaxTimeoutMs, long newAckTimeoutMs) {
+        this.maxListSize = Math.max(newMaxListSize, 1);
+        this.maxTimeoutMs = Math.max(newMaxTimeoutMs, 0);
+        this.ackTimeoutMs = Math.max(newAckTimeoutMs, 0);
+    }
+
+    /**
+     * Adds a DDN for the given UE address. Returns false if the DDN has been
+     * suppressed because the UE address is already waiting to be sent, or
+     * because it has been sent and not acknowledged yet.
+     *
+     * @param ueAddr UE address
+     * @return true if the DDN will be sent, false if suppressed
+     */
+    boolean add(Ip4Address ueAddr) {
+        synchronized (this) {
+            expireUnacked();
+            if (unackedUes.containsKey(ueAddr) ||
+                    pendingUes.putIfAbsent(ueAddr, System.currentTimeMillis()) != null) {
+                return false;
+            }
+        }
+        flush();
+        return true;
+    }
+
+    /**
+     * Sends the pending UE addresses that reached max list size or max timeout,
+     * as long as the sender is ready. Should be called when the sender becomes
+     * ready again.
+     */
+    void flush() {
+        while (true) {
+            final P4RuntimeOuterClass.DigestList digestList;
+            synchronized (this) {
+                digestList = nextDigestList();
+            }
+            if (digestList == null) {
+                return;
+            }
+            send(digestList);
+        }
+    }
+
+    /**
+     * Acknowledges the DigestList with the given list_id, allowing new DDNs for
+     * the UE addresses in that list.
+     *
+     * @param listId list_id of the DigestList
+     * @return true if the list_id was known, false otherwise
+     */
+    boolean ack(long listId) {
+        return release(listId);
+    }
+
+    /**
+     * Releases the UE addresses of the DigestList with the given list_id
+     * without waiting for an acknowledgement, e.g., when the list could not be
+     * delivered to any client.
+     *
+     * @param listId list_id of the DigestList
+     * @return true if the list_id was known, false otherwise
+     */
+    synchronized boolean release(long listId) {
+        final OutstandingList acked = outstandingLists.remove(listId);
+        if (acked == null) {
+            return false;
+        }
+        acked.ueAddrs.forEach(ueAddr -> unackedUes.remove(ueAddr, listId));
+        return true;
+    }
+
+    /**
+     * Returns the number of UE addresses waiting to be sent.
+     *
+     * @return number of pending UE addresses
+     */
+    synchronized int pendingCount() {
+        return pendingUes.size();
+    }
+
+    /**
+     * Returns the number of DigestLists sent and waiting for acknowledgement.
+     *
+     * @return number of unacknowledged lists
+     */
+    synchronized int outstandingCount() {
+        expireUnacked();
+        return outstandingLists.size();
+    }
+
+    /**
+     * Discards all pending and unacknowledged UE addresses.
+     */
+    synchronized void clear() {
+        if (timeoutTask != null) {
+            timeoutTask.cancel(false);
+            timeoutTask = null;
+        }
+        pendingUes.clear();
+        unackedUes.clear();
+        outstandingLists.clear();
+    }
+
+    private void maxTimeoutExpired() {
+        synchronized (this) {
+            timeoutTask = null;
+        }
+        flush();
+    }
+
+    private void send(P4RuntimeOuterClass.DigestList digestList) {
+        if (!digestListSender.test(digestList)) {
+            // Nobody received it, don't wait for an ack.
+            release(digestList.getListId());
+        }
+    }
+
+    // Must be called while holding the lock.
+    private P4RuntimeOuterClass.DigestList nextDigestList() {
+        if (pendingUes.isEmpty()) {
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        final long deadline = pendingUes.values().iterator().next() + maxTimeoutMs;
+        if (pendingUes.size() < maxListSize && deadline > now) {
+            if (timeoutTask == null) {
+                timeoutTask = timeoutExecutor.schedule(
+                        this::maxTimeoutExpired, deadline - now, TimeUnit.MILLISECONDS);
+            }
+            return null;
+        }
+        if (!senderReady.getAsBoolean()) {
+            // Will be sent by the next flush.
+            return null;
+        }
+        return buildDigestList(now);
+    }
+
+    // Must be called while holding the lock.
+    private P4RuntimeOuterClass.DigestList buildDigestList(long now) {
+        final long listId = ++lastListId;
+        final var builder = P4RuntimeOuterClass.DigestList.newBuilder()
+                .setDigestId(DDN_DIGEST_ID)
+                .setListId(listId);
+        final ImmutableList.Builder<Ip4Address> ueAddrs = ImmutableList.builder();
+        final Iterator<Ip4Address> it = pendingUes.keySet().iterator();
+        while (it.hasNext() && builder.getDataCount() < maxListSize) {
+            final Ip4Address ueAddr = it.next();
+            it.remove();
+            ueAddrs.add(ueAddr);
+            builder.addData(P4DataOuterClass.P4Data.newBuilder()
+                                    .setBitstring(ByteString.copyFrom(ueAddr.toOctets()))
+                                    .build());
+        }
+        if (pendingUes.isEmpty() && timeoutTask != null) {
+            timeoutTask.cancel(false);
+            timeoutTask = null;
+        }
+        if (ackTimeoutMs > 0) {
+            final List<Ip4Address> sentUes = ueAddrs.build();
+            sentUes.forEach(ueAddr -> unackedUes.put(ueAddr, listId));
+            outstandingLists.put(listId, new OutstandingList(sentUes, now + ackTimeoutMs));
+        }
+        log.debug("Built DDN DigestList {} with {} UE addresses", listId, builder.getDataCount());
+        return builder.build();
+    }
+
+    // Must be called while holding the lock.
+    private void expireUnacked() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<Long, OutstandingList>> it = outstandingLists.entrySet().iterator();
+        while (it.hasNext()) {
+            final var entry = it.next();
+            if (entry.getValue().expiry > now) {
+                // Lists are in send order, the following ones expire later.
+                break;
+            }
+            log.debug("DDN DigestList {} not acknowledged before timeout", entry.getKey());
+            entry.getValue().ueAddrs.forEach(ueAddr -> unackedUes.remove(ueAddr, entry.getKey()));
+            it.remove();
+        }
+    }
+
+    private static final class OutstandingList {
+        private final List<Ip4Address> ueAddrs;
+        private final long expiry;
+
+        private OutstandingList(List<Ip4Address> ueAddrs, long expiry) {
+            this.ueAddrs = ueAddrs;
+            this.expiry = expiry;
+        }
+    }
+}
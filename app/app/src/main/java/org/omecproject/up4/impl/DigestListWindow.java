@@ -0,0 +1,128 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import p4.v1.P4RuntimeOuterClass;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Window of DigestLists sent on a StreamChannel and not yet acknowledged by the
+ * client. The window has a maximum size, so that a slow client limits the rate
+ * of DigestLists sent to it.
+ */
+final class DigestListWindow {
+
+    private final int maxOutstanding;
+    // list_id -> unacknowledged DigestList, ordered by last transmission time.
+    private final Map<Long, Outstanding> outstanding = Maps.newLinkedHashMap();
+
+    /**
+     * Creates a new window.
+     *
+     * @param maxOutstanding maximum number of unacknowledged DigestLists
+     */
+    DigestListWindow(int maxOutstanding) {
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    /**
+     * Returns true if there is room for another DigestList.
+     *
+     * @return true if the window is not full
+     */
+    synchronized boolean hasCapacity() {
+        return outstanding.size() < maxOutstanding;
+    }
+
+    /**
+     * Adds the given DigestList to the window, if there is room for it.
+     *
+     * @param digestList the DigestList being sent
+     * @param now        current time in milliseconds
+     * @return true if added, false if the window is full
+     */
+    synchronized boolean add(P4RuntimeOuterClass.DigestList digestList, long now) {
+        if (outstanding.size() >= maxOutstanding) {
+            return false;
+        }
+        outstanding.put(digestList.getListId(), new Outstanding(digestList, now));
+        return true;
+    }
+
+    /**
+     * Removes the DigestList with the given list_id from the window.
+     *
+     * @param listId list_id of the acknowledged DigestList
+     * @return true if the list was in the window, false otherwise
+     */
+    synchronized boolean ack(long listId) {
+        return outstanding.remove(listId) != null;
+    }
+
+    /**
+     * Returns the number of unacknowledged DigestLists.
+     *
+     * @return window size
+     */
+    synchronized int size() {
+        return outstanding.size();
+    }
+
+    /**
+     * Returns the DigestLists not acknowledged within the given timeout since
+     * their last transmission, marking them as transmitted again. DigestLists
+     * already retransmitted maxRetransmits times are removed from the window
+     * and their list_id added to givenUp.
+     *
+     * @param now            current time in milliseconds
+     * @param timeoutMs      retransmission timeout in milliseconds
+     * @param maxRetransmits maximum number of retransmissions for a DigestList
+     * @param givenUp        collection where to add the list_id of the
+     *                       DigestLists removed from the window
+     * @return DigestLists to retransmit
+     */
+    synchronized List<P4RuntimeOuterClass.DigestList> expired(long now, long timeoutMs, int maxRetransmits,
+                                                              Collection<Long> givenUp) {
+        final List<Outstanding> expired = Lists.newArrayList();
+        for (Outstanding entry : outstanding.values()) {
+            if (entry.lastSent + timeoutMs > now) {
+                // Following lists were sent later.
+                break;
+            }
+            expired.add(entry);
+        }
+        final List<P4RuntimeOuterClass.DigestList> toRetransmit = Lists.newArrayList();
+        for (Outstanding entry : expired) {
+            final long listId = entry.digestList.getListId();
+            outstanding.remove(listId);
+            if (entry.retransmits >= maxRetransmits) {
+                givenUp.add(listId);
+            } else {
+                // Move to the tail, to keep the transmission time order.
+                entry.retransmits++;
+                entry.lastSent = now;
+                outstanding.put(listId, entry);
+                toRetransmit.add(entry.digestList);
+            }
+        }
+        return toRetransmit;
+    }
+
+    private static final class Outstanding {
+        private final P4RuntimeOuterClass.DigestList digestList;
+        private long lastSent;
+        private int retransmits = 0;
+
+        private Outstanding(P4RuntimeOuterClass.DigestList digestList, long lastSent) {
+            this.digestList = digestList;
+            this.lastSent = lastSent;
+        }
+    }
+}
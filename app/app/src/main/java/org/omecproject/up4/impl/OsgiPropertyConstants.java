@@ -13,6 +13,69 @@ public final class OsgiPropertyConstants {
     public static final String UPF_RECONCILE_INTERVAL = "upfReconcileInterval";
     public static final long UPF_RECONCILE_INTERVAL_DEFAULT = 30; // Seconds
 
+    public static final String PACKET_OUT_DEVICE_SELECTOR = "packetOutDeviceSelector";
+    public static final String PACKET_OUT_DEVICE_SELECTOR_DEFAULT = "UE_HASH";
+
+    public static final String DBUF_DRAIN_TIMEOUT = "dbufDrainTimeout";
+    public static final long DBUF_DRAIN_TIMEOUT_DEFAULT = 1000; // Milliseconds
+
+    public static final String STREAM_QUEUE_SIZE = "streamQueueSize";
+    public static final int STREAM_QUEUE_SIZE_DEFAULT = 1024;
+
+    public static final String STREAM_QUEUE_FULL_POLICY = "streamQueueFullPolicy";
+    public static final String STREAM_QUEUE_FULL_POLICY_DEFAULT = "DROP_OLDEST";
+
+    public static final String DDN_MAX_LIST_SIZE = "ddnMaxListSize";
+    public static final int DDN_MAX_LIST_SIZE_DEFAULT = 64;
+
+    public static final String DDN_MAX_TIMEOUT = "ddnMaxTimeout";
+    public static final long DDN_MAX_TIMEOUT_DEFAULT = 10; // Milliseconds
+
+    public static final String DDN_ACK_TIMEOUT = "ddnAckTimeout";
+    public static final long DDN_ACK_TIMEOUT_DEFAULT = 2000; // Milliseconds
+
+    public static final String DDN_MAX_OUTSTANDING_LISTS = "ddnMaxOutstandingLists";
+    public static final int DDN_MAX_OUTSTANDING_LISTS_DEFAULT = 16;
+
+    public static final String DDN_RETRANSMIT_TIMEOUT = "ddnRetransmitTimeout";
+    public static final long DDN_RETRANSMIT_TIMEOUT_DEFAULT = 500; // Milliseconds
+
+    public static final String DDN_MAX_RETRANSMITS = "ddnMaxRetransmits";
+    public static final int DDN_MAX_RETRANSMITS_DEFAULT = 3;
+
+    public static final String WRITE_TRACE_SAMPLE_RATE = "writeTraceSampleRate";
+    public static final int WRITE_TRACE_SAMPLE_RATE_DEFAULT = 0; // Disabled
+
+    public static final String WRITE_TRACE_SLOW_THRESHOLD = "writeTraceSlowThreshold";
+    public static final long WRITE_TRACE_SLOW_THRESHOLD_DEFAULT = 50; // Milliseconds
+
+    public static final String COUNTER_SNAPSHOT_INTERVAL = "counterSnapshotInterval";
+    public static final long COUNTER_SNAPSHOT_INTERVAL_DEFAULT = 10000; // Milliseconds
+
+    public static final String COUNTER_EXPORT_PORT = "counterExportPort";
+    public static final int COUNTER_EXPORT_PORT_DEFAULT = 0; // Disabled
+
+    public static final String COUNTER_EXPORT_ADDRESS = "counterExportAddress";
+    public static final String COUNTER_EXPORT_ADDRESS_DEFAULT = "127.0.0.1";
+
+    public static final String COUNTER_PUSH_ENABLED = "counterPushEnabled";
+    public static final boolean COUNTER_PUSH_ENABLED_DEFAULT = false;
+
+    public static final String COUNTER_PUSH_MIN_PACKETS = "counterPushMinPackets";
+    public static final long COUNTER_PUSH_MIN_PACKETS_DEFAULT = 0;
+
+    public static final String COUNTER_PUSH_MIN_BYTES = "counterPushMinBytes";
+    public static final long COUNTER_PUSH_MIN_BYTES_DEFAULT = 0;
+
+    public static final String READ_ONLY_SERVER_PORT = "readOnlyServerPort";
+    public static final int READ_ONLY_SERVER_PORT_DEFAULT = 0; // Disabled
+
+    public static final String UPF_DEGRADED_READY = "upfDegradedReady";
+    public static final boolean UPF_DEGRADED_READY_DEFAULT = false;
+
+    public static final String FOLLOWER_SYNC_BATCH_SIZE = "followerSyncBatchSize";
+    public static final int FOLLOWER_SYNC_BATCH_SIZE_DEFAULT = 1000;
+
     private OsgiPropertyConstants() {
     }
 }
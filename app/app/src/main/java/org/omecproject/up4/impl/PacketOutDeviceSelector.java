@@ -0,0 +1,26 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import org.onosproject.net.DeviceId;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Selects the UPF physical device used to send a packet-out.
+ */
+interface PacketOutDeviceSelector {
+
+    /**
+     * Returns the device that should be used to send the given frame.
+     *
+     * @param devices available UPF physical devices, never empty
+     * @param frame   Ethernet frame to send, the buffer position and limit
+     *                must not be modified
+     * @return one of the given devices
+     */
+    DeviceId select(List<DeviceId> devices, ByteBuffer frame);
+}
@@ -0,0 +1,197 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.Maps;
+import org.onosproject.net.DeviceId;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implementations of {@link PacketOutDeviceSelector}.
+ */
+final class PacketOutDeviceSelectors {
+
+    /**
+     * Type of packet-out device selector.
+     */
+    enum Type {
+        /**
+         * Use each device in turn.
+         */
+        ROUND_ROBIN,
+        /**
+         * Use the same device for all packets of the same UE, hashing on the
+         * UE address (or on the TEID for GTP-U packets without inner packet,
+         * e.g., end markers).
+         */
+        UE_HASH,
+        /**
+         * Use the device that has not been used for the longest time.
+         */
+        LEAST_RECENTLY_USED
+    }
+
+    private static final int ETH_HEADER_LEN = 14;
+    private static final int ETH_TYPE_OFFSET = 12;
+    private static final int VLAN_TAG_LEN = 4;
+    private static final int TYPE_IPV4 = 0x0800;
+    private static final int TYPE_VLAN = 0x8100;
+    private static final int TYPE_QINQ = 0x88a8;
+    private static final int IPV4_MIN_HEADER_LEN = 20;
+    private static final int IPV4_PROTO_OFFSET = 9;
+    private static final int IPV4_DST_OFFSET = 16;
+    private static final int PROTO_UDP = 17;
+    private static final int UDP_HEADER_LEN = 8;
+    private static final int GTPU_PORT = 2152;
+    private static final int GTPU_HEADER_LEN = 8;
+    private static final int GTPU_OPT_HEADER_LEN = 4;
+    private static final int GTPU_OPT_FLAGS = 0x07;
+    private static final int GTPU_TEID_OFFSET = 4;
+
+    private PacketOutDeviceSelectors() {
+        // Hide constructor.
+    }
+
+    /**
+     * Returns a new selector of the given type.
+     *
+     * @param type selector type
+     * @return packet-out device selector
+     */
+    static PacketOutDeviceSelector create(Type type) {
+        switch (type) {
+            case ROUND_ROBIN:
+                return new RoundRobin();
+            case UE_HASH:
+                return new UeHash();
+            case LEAST_RECENTLY_USED:
+                return new LeastRecentlyUsed();
+            default:
+                throw new IllegalArgumentException("Unknown packet-out device selector " + type);
+        }
+    }
+
+    /**
+     * Returns the key identifying the UE of the given Ethernet frame, that is
+     * the destination address of the inner IPv4 packet for GTP-U packets, the
+     * TEID for GTP-U packets without inner IPv4 packet, and the destination
+     * address for other IPv4 packets. The frame is read without copying it.
+     *
+     * @param frame Ethernet frame
+     * @return UE key, or null if the frame is not IPv4
+     */
+    static Integer ueKey(ByteBuffer frame) {
+        final int start = frame.position();
+        final int end = frame.limit();
+        int offset = start + ETH_TYPE_OFFSET;
+        if (offset + 2 > end) {
+            return null;
+        }
+        int ethType = frame.getShort(offset) & 0xffff;
+        while (ethType == TYPE_VLAN || ethType == TYPE_QINQ) {
+            offset += VLAN_TAG_LEN;
+            if (offset + 2 > end) {
+                return null;
+            }
+            ethType = frame.getShort(offset) & 0xffff;
+        }
+        if (ethType != TYPE_IPV4) {
+            return null;
+        }
+        final int ipv4 = offset + 2;
+        if (ipv4 + IPV4_MIN_HEADER_LEN > end) {
+            return null;
+        }
+        final int ipv4Dst = frame.getInt(ipv4 + IPV4_DST_OFFSET);
+        final int ihl = (frame.get(ipv4) & 0x0f) * 4;
+        final int udp = ipv4 + ihl;
+        if ((frame.get(ipv4 + IPV4_PROTO_OFFSET) & 0xff) != PROTO_UDP ||
+                udp + UDP_HEADER_LEN > end ||
+                (frame.getShort(udp + 2) & 0xffff) != GTPU_PORT) {
+            return ipv4Dst;
+        }
+        final int gtpu = udp + UDP_HEADER_LEN;
+        if (gtpu + GTPU_HEADER_LEN > end) {
+            return ipv4Dst;
+        }
+        final int teid = frame.getInt(gtpu + GTPU_TEID_OFFSET);
+        int innerIpv4 = gtpu + GTPU_HEADER_LEN;
+        if ((frame.get(gtpu) & GTPU_OPT_FLAGS) != 0) {
+            innerIpv4 += GTPU_OPT_HEADER_LEN;
+            // Skip extension headers, if any. The length is in 4 bytes units,
+            // the last byte is the type of the next extension header.
+            int nextExtType = innerIpv4 <= end ? frame.get(innerIpv4 - 1) & 0xff : 0;
+            while (nextExtType != 0 && innerIpv4 < end) {
+                final int extLen = (frame.get(innerIpv4) & 0xff) * 4;
+                if (extLen == 0) {
+                    return teid;
+                }
+                innerIpv4 += extLen;
+                nextExtType = innerIpv4 <= end ? frame.get(innerIpv4 - 1) & 0xff : 0;
+            }
+        }
+        if (innerIpv4 + IPV4_MIN_HEADER_LEN > end || (frame.get(innerIpv4) & 0xf0) != 0x40) {
+            // E.g., end marker.
+            return teid;
+        }
+        return frame.getInt(innerIpv4 + IPV4_DST_OFFSET);
+    }
+
+    private static final class RoundRobin implements PacketOutDeviceSelector {
+        private final AtomicInteger nextIdx = new AtomicInteger();
+
+        @Override
+        public DeviceId select(List<DeviceId> devices, ByteBuffer frame) {
+            return devices.get(Math.floorMod(nextIdx.getAndIncrement(), devices.size()));
+        }
+    }
+
+    private static final class UeHash implements PacketOutDeviceSelector {
+        // Used for non-IPv4 frames.
+        private final RoundRobin fallback = new RoundRobin();
+
+        @Override
+        public DeviceId select(List<DeviceId> devices, ByteBuffer frame) {
+            final Integer key = ueKey(frame);
+            if (key == null) {
+                return fallback.select(devices, frame);
+            }
+            // Mix the bits, consecutive UE addresses should not map to the same device.
+            int hash = key * 0x9e3779b9;
+            hash ^= hash >>> 16;
+            return devices.get(Math.floorMod(hash, devices.size()));
+        }
+    }
+
+    private static final class LeastRecentlyUsed implements PacketOutDeviceSelector {
+        private final AtomicLong useSequence = new AtomicLong();
+        private final Map<DeviceId, Long> lastUsed = Maps.newConcurrentMap();
+
+        @Override
+        public DeviceId select(List<DeviceId> devices, ByteBuffer frame) {
+            DeviceId selected = null;
+            long selectedLastUsed = Long.MAX_VALUE;
+            for (DeviceId deviceId : devices) {
+                // Devices never used come first.
+                final long deviceLastUsed = lastUsed.getOrDefault(deviceId, -1L);
+                if (deviceLastUsed < selectedLastUsed) {
+                    selected = deviceId;
+                    selectedLastUsed = deviceLastUsed;
+                }
+            }
+            lastUsed.put(selected, useSequence.incrementAndGet());
+            if (lastUsed.size() > devices.size() * 2) {
+                // Forget devices no longer available.
+                lastUsed.keySet().retainAll(devices);
+            }
+            return selected;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Plans the reconciliation passes between the leader and the follower UPF
+ * devices. The nominal interval between passes is shortened when the last
+ * pass found drift, or after a recent device event, and extended when the
+ * write load is high, so that reconciliation doesn't compete with attach
+ * storms for the flow rule store.
+ */
+final class ReconcileScheduler {
+
+    /**
+     * Minimum delay (in milliseconds) between passes.
+     */
+    static final long MIN_DELAY = 1000;
+    /**
+     * Write rate (in writes per second) above which passes are deferred.
+     */
+    static final double HIGH_WRITE_RATE = 200;
+    /**
+     * Maximum number of passes between two full passes, comparing the state
+     * of all the followers regardless of the changes detected.
+     */
+    static final int MAX_PASSES_BETWEEN_FULL = 10;
+
+    private final LongAdder writes = new LongAdder();
+    private volatile long lastDeviceEvent;
+    private long lastPass;
+    private int passesSinceFull;
+
+    /**
+     * Creates a new scheduler.
+     *
+     * @param now current time in milliseconds
+     */
+    ReconcileScheduler(long now) {
+        this.lastPass = now;
+        // No device event yet.
+        this.lastDeviceEvent = Long.MIN_VALUE / 2;
+    }
+
+    /**
+     * Records a write to the UPF data plane.
+     */
+    void recordWrite() {
+        writes.increment();
+    }
+
+    /**
+     * Records an event of a UPF device, e.g., a reconnection.
+     *
+     * @param now current time in milliseconds
+     */
+    void recordDeviceEvent(long now) {
+        lastDeviceEvent = now;
+    }
+
+    /**
+     * Returns true if the next pass must compare the full state, even if
+     * no change was detected since the last one. Full passes are required
+     * periodically, regardless of the comparisons done by the other passes.
+     *
+     * @return true if a full comparison is required
+     */
+    boolean fullPassRequired() {
+        return passesSinceFull >= MAX_PASSES_BETWEEN_FULL;
+    }
+
+    /**
+     * Records the completion of a pass.
+     *
+     * @param fullPass true if the pass compared the full state
+     */
+    void passDone(boolean fullPass) {
+        passesSinceFull = fullPass ? 0 : passesSinceFull + 1;
+    }
+
+    /**
+     * Returns the delay before the next pass.
+     *
+     * @param interval nominal interval in milliseconds
+     * @param driftOps number of operations produced by the last pass
+     * @param now      current time in milliseconds
+     * @return delay in milliseconds
+     */
+    long nextDelay(long interval, long driftOps, long now) {
+        final long elapsed = Math.max(1, now - lastPass);
+        final double writeRate = writes.sumThenReset() * 1000.0 / elapsed;
+        lastPass = now;
+        if (driftOps > 0 || now - lastDeviceEvent < interval) {
+            // Followers are diverging, or devices are not stable.
+            return Math.max(MIN_DELAY, interval / 4);
+        }
+        if (writeRate > HIGH_WRITE_RATE) {
+            return Math.max(MIN_DELAY, interval * 2);
+        }
+        return Math.max(MIN_DELAY, interval);
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.Sets;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import p4.v1.P4RuntimeOuterClass.DigestList;
+import p4.v1.P4RuntimeOuterClass.StreamMessageResponse;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Outbound side of a P4Runtime StreamChannel. Messages are buffered in a bounded
+ * queue and handed to the gRPC stream observer by a single sender at a time, only
+ * while the underlying call is ready to accept more messages. In this way a slow
+ * or flow-controlled client cannot delay the delivery of messages to other clients,
+ * and the stream observer is never invoked concurrently.
+ * DigestLists sent to the client are tracked until acknowledged, and are
+ * retransmitted if not acknowledged in time.
+ */
+public final class StreamChannelSender {
+
+    /**
+     * Policy applied when a message is sent while the queue is full.
+     */
+    public enum FullQueuePolicy {
+        /**
+         * Discard the message being sent.
+         */
+        DROP_NEWEST,
+        /**
+         * Discard the oldest queued message to make room for the new one.
+         */
+        DROP_OLDEST
+    }
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final StreamObserver<StreamMessageResponse> responseObserver;
+    private final ServerCallStreamObserver<StreamMessageResponse> callObserver;
+    private final BlockingDeque<QueuedMessage> queue;
+    // Coalescing keys of the messages currently in the queue.
+    private final Set<Object> queuedKeys = Sets.newConcurrentHashSet();
+    private final FullQueuePolicy fullQueuePolicy;
+    private final ReentrantLock sendLock = new ReentrantLock();
+    private final DigestListWindow digestWindow;
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong retransmittedCount = new AtomicLong();
+
+    private volatile boolean closed = false;
+    // Invoked when the stream is closed because a message could not be sent.
+    private volatile Runnable failureHandler;
+    // Role last notified to the client, null if not notified yet.
+    private Boolean primary;
+
+    /**
+     * Creates a new sender for the given response observer. Must be called before
+     * returning the request observer to gRPC, as it registers the call handlers.
+     *
+     * @param responseObserver the StreamChannel response observer
+     * @param queueSize        maximum number of queued messages
+     * @param fullQueuePolicy  policy to apply when the queue is full
+     * @param maxOutstandingDigestLists maximum number of unacknowledged DigestLists
+     */
+    StreamChannelSender(StreamObserver<StreamMessageResponse> responseObserver,
+                        int queueSize, FullQueuePolicy fullQueuePolicy,
+                        int maxOutstandingDigestLists) {
+        this.responseObserver = responseObserver;
+        this.queue = new LinkedBlockingDeque<>(queueSize);
+        this.fullQueuePolicy = fullQueuePolicy;
+        this.digestWindow = new DigestListWindow(maxOutstandingDigestLists);
+        if (responseObserver instanceof ServerCallStreamObserver) {
+            this.callObserver = (ServerCallStreamObserver<StreamMessageResponse>) responseObserver;
+            this.callObserver.setOnReadyHandler(this::drain);
+            this.callObserver.setOnCancelHandler(this::cancelled);
+        } else {
+            this.callObserver = null;
+        }
+    }
+
+    /**
+     * Sets the handler invoked when the stream is closed because a message
+     * could not be delivered, e.g., to stop using the stream. Not invoked
+     * when the stream is closed with {@link #close(Throwable)}.
+     *
+     * @param failureHandler the handler
+     */
+    void setFailureHandler(Runnable failureHandler) {
+        this.failureHandler = failureHandler;
+    }
+
+    /**
+     * Queues the given message for sending.
+     *
+     * @param message the message
+     * @return true if the message has been queued, false if it has been dropped
+     */
+    boolean send(StreamMessageResponse message) {
+        return send(message, null);
+    }
+
+    /**
+     * Queues the given message for sending, coalescing it with a queued message
+     * having the same key. If such message exists, the given one is not queued, as
+     * the queued one is expected to carry the same information to the client.
+     *
+     * @param message the message
+     * @param key     coalescing key, or null if the message should never be coalesced
+     * @return true if the message has been queued or coalesced, false if it has been dropped
+     */
+    boolean send(StreamMessageResponse message, Object key) {
+        if (closed) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        if (key != null && !queuedKeys.add(key)) {
+            coalescedCount.incrementAndGet();
+            return true;
+        }
+        final QueuedMessage queued = new QueuedMessage(message, key);
+        boolean accepted = queue.offerLast(queued);
+        if (!accepted && fullQueuePolicy == FullQueuePolicy.DROP_OLDEST) {
+            final QueuedMessage evicted = queue.pollFirst();
+            if (evicted != null) {
+                dequeued(evicted);
+                droppedCount.incrementAndGet();
+            }
+            accepted = queue.offerLast(queued);
+        }
+        if (!accepted) {
+            dequeued(queued);
+            droppedCount.incrementAndGet();
+            log.debug("StreamChannel queue full, dropping message");
+        }
+        drain();
+        return accepted;
+    }
+
+    /**
+     * Sends the given DigestList, if the client has not reached the maximum
+     * number of unacknowledged DigestLists.
+     *
+     * @param digestList the DigestList
+     * @return true if the DigestList has been sent, false if the window is full
+     * or the stream is closed
+     */
+    boolean sendDigestList(DigestList digestList) {
+        if (closed || !digestWindow.add(digestList, System.currentTimeMillis())) {
+            return false;
+        }
+        // If dropped because the queue is full, it will be retransmitted.
+        send(digestListMessage(digestList), digestList.getListId());
+        return true;
+    }
+
+    /**
+     * Returns true if the client can receive another DigestList.
+     *
+     * @return true if the stream is open and the DigestList window is not full
+     */
+    boolean canSendDigestList() {
+        return !closed && digestWindow.hasCapacity();
+    }
+
+    /**
+     * Acknowledges the DigestList with the given list_id.
+     *
+     * @param listId list_id
+     * @return true if the DigestList was unacknowledged, false otherwise
+     */
+    boolean ackDigestList(long listId) {
+        return digestWindow.ack(listId);
+    }
+
+    /**
+     * Retransmits the DigestLists not acknowledged within the given timeout.
+     * DigestLists already retransmitted maxRetransmits times are not
+     * retransmitted anymore and their list_id is added to givenUp.
+     *
+     * @param timeoutMs      retransmission timeout in milliseconds
+     * @param maxRetransmits maximum number of retransmissions for a DigestList
+     * @param givenUp        collection where to add the list_id of the
+     *                       DigestLists not retransmitted anymore
+     */
+    void retransmitDigestLists(long timeoutMs, int maxRetransmits, Collection<Long> givenUp) {
+        if (closed) {
+            return;
+        }
+        final List<DigestList> expired = digestWindow.expired(
+                System.currentTimeMillis(), timeoutMs, maxRetransmits, givenUp);
+        for (DigestList digestList : expired) {
+            log.debug("Retransmitting DigestList {}", digestList.getListId());
+            retransmittedCount.incrementAndGet();
+            // Coalesce with the previous transmission if still queued.
+            send(digestListMessage(digestList), digestList.getListId());
+        }
+    }
+
+    private static StreamMessageResponse digestListMessage(DigestList digestList) {
+        return StreamMessageResponse.newBuilder().setDigest(digestList).build();
+    }
+
+    /**
+     * Delivers queued messages to the stream observer until the queue is empty or
+     * the call is not ready. Only one thread at a time delivers messages; threads
+     * finding another thread in charge return immediately, leaving their messages
+     * to be delivered by that thread.
+     */
+    private void drain() {
+        boolean failed = false;
+        while (!closed && isReady() && !queue.isEmpty()) {
+            if (!sendLock.tryLock()) {
+                return;
+            }
+            try {
+                QueuedMessage next;
+                while (!closed && isReady() && (next = queue.pollFirst()) != null) {
+                    dequeued(next);
+                    responseObserver.onNext(next.message);
+                    sentCount.incrementAndGet();
+                }
+            } catch (RuntimeException e) {
+                log.warn("Unable to send message on StreamChannel, closing it: {}", e.getMessage());
+                failed = true;
+                closed = true;
+                queue.clear();
+                queuedKeys.clear();
+                try {
+                    responseObserver.onError(Status.UNAVAILABLE
+                                                     .withDescription("Unable to send message")
+                                                     .withCause(e)
+                                                     .asException());
+                } catch (RuntimeException ignored) {
+                    // The call is already broken.
+                }
+            } finally {
+                sendLock.unlock();
+            }
+        }
+        // Outside of the lock, the handler might send on other streams.
+        final Runnable handler = failureHandler;
+        if (failed && handler != null) {
+            handler.run();
+        }
+    }
+
+    /**
+     * Closes the stream, discarding any queued message. If error is null the
+     * stream is completed successfully, otherwise the error is sent to the client.
+     *
+     * @param error error to send to the client, or null
+     */
+    void close(Throwable error) {
+        sendLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.clear();
+            queuedKeys.clear();
+            if (error == null) {
+                responseObserver.onCompleted();
+            } else {
+                responseObserver.onError(error);
+            }
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    private void cancelled() {
+        closed = true;
+        queue.clear();
+        queuedKeys.clear();
+    }
+
+    private void dequeued(QueuedMessage queued) {
+        if (queued.key != null) {
+            queuedKeys.remove(queued.key);
+        }
+    }
+
+    private boolean isReady() {
+        return callObserver == null || callObserver.isReady();
+    }
+
+    /**
+     * Records the role of the client.
+     *
+     * @param isPrimary true if the client is the primary
+     * @return true if the role changed since the last call, and thus should
+     * be notified to the client
+     */
+    synchronized boolean setPrimary(boolean isPrimary) {
+        if (primary != null && primary == isPrimary) {
+            return false;
+        }
+        primary = isPrimary;
+        return true;
+    }
+
+    /**
+     * Returns true if the client is the primary.
+     *
+     * @return true if primary
+     */
+    public synchronized boolean isPrimary() {
+        return Boolean.TRUE.equals(primary);
+    }
+
+    /**
+     * Returns true if the stream has been closed or cancelled.
+     *
+     * @return true if closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the number of messages waiting to be sent.
+     *
+     * @return queue depth
+     */
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of messages sent to the client.
+     *
+     * @return sent messages
+     */
+    public long sentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * Returns the number of messages dropped because the queue was full or the
+     * stream was closed.
+     *
+     * @return dropped messages
+     */
+    public long droppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Returns the number of messages not queued because an equivalent one was
+     * already waiting to be sent.
+     *
+     * @return coalesced messages
+     */
+    public long coalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * Returns the number of DigestLists sent and not acknowledged yet.
+     *
+     * @return unacknowledged DigestLists
+     */
+    public int outstandingDigestLists() {
+        return digestWindow.size();
+    }
+
+    /**
+     * Returns the number of DigestLists retransmitted because not acknowledged
+     * in time.
+     *
+     * @return retransmitted DigestLists
+     */
+    public long retransmittedCount() {
+        return retransmittedCount.get();
+    }
+
+    private static final class QueuedMessage {
+        private final StreamMessageResponse message;
+        private final Object key;
+
+        private QueuedMessage(StreamMessageResponse message, Object key) {
+            this.message = message;
+            this.key = key;
+        }
+    }
+}
@@ -6,6 +6,7 @@ package org.omecproject.up4.impl;
 
 
 import com.google.common.annotations.Beta;
+import org.omecproject.dbuf.client.DbufClient;
 import org.onosproject.net.DeviceId;
 import org.onosproject.net.behaviour.upf.UpfCounter;
 import org.onosproject.net.behaviour.upf.UpfEntity;
@@ -14,6 +15,7 @@ import org.onosproject.net.behaviour.upf.UpfInterface;
 import org.onosproject.net.behaviour.upf.UpfProgrammableException;
 
 import java.util.Collection;
+import java.util.List;
 
 
 /**
@@ -116,4 +118,20 @@ public interface Up4AdminService {
      * @throws UpfProgrammableException propagate the exception from the UPF data plane.
      */
     void resetAllApplicationMeters() throws UpfProgrammableException;
+
+    /**
+     * Returns the dbuf statistics of each UE, e.g., buffering duration, drain
+     * latency and dropped packets. Used for debug purposes only.
+     *
+     * @return the dbuf statistics of the UEs
+     */
+    Collection<DbufUeStats> dbufUeStats();
+
+    /**
+     * Returns the clients of the dbuf instances, if dbuf is configured.
+     * Used for debug purposes only.
+     *
+     * @return the dbuf clients, empty if dbuf is not configured
+     */
+    List<DbufClient> dbufClients();
 }
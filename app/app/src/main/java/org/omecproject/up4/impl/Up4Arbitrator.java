@@ -0,0 +1,310 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.base.MoreObjects;
+import org.onosproject.cluster.NodeId;
+import p4.v1.P4RuntimeOuterClass;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * Arbitration of the P4Runtime clients connected to the UP4 northbound,
+ * across all the ONOS instances. The client with the highest election_id is
+ * the primary, the others are backups. The primary is stored in a
+ * cluster-wide value, so that a client connecting to another instance
+ * after a failure is arbitrated against the same state.
+ * <p>
+ * The primary record also holds an epoch, incremented every time a client
+ * with a different election_id becomes primary. A client reconnecting with
+ * the same election_id and finding the same epoch knows that no other
+ * client has been primary (and thus no other client has written) in the
+ * meantime, and can skip re-reading the state. The epoch is also
+ * incremented by writes accepted while there is no primary, and by writes
+ * not coming from the clients, e.g., from the CLI.
+ */
+final class Up4Arbitrator {
+
+    /**
+     * Result of an arbitration.
+     */
+    enum Result {
+        /**
+         * The client is the primary.
+         */
+        PRIMARY,
+        /**
+         * The client is a backup.
+         */
+        BACKUP,
+        /**
+         * The election_id is used by the primary client of another instance.
+         */
+        IN_USE
+    }
+
+    /**
+     * Storage of the primary record, e.g., a cluster-wide atomic value.
+     */
+    interface PrimaryStore {
+        /**
+         * Returns the primary record.
+         *
+         * @return the primary record, or null if no client has ever been primary
+         */
+        Primary get();
+
+        /**
+         * Updates the primary record if it is equal to the expected one.
+         *
+         * @param expect expected record, can be null
+         * @param update new record
+         * @return true if the record has been updated
+         */
+        boolean compareAndSet(Primary expect, Primary update);
+    }
+
+    // Election_id of the record of a write accepted with no primary, never
+    // used by clients.
+    private static final P4RuntimeOuterClass.Uint128 NO_ELECTION_ID =
+            P4RuntimeOuterClass.Uint128.getDefaultInstance();
+
+    private final NodeId localNode;
+    private final PrimaryStore store;
+    private final Predicate<NodeId> isNodeActive;
+
+    /**
+     * Creates a new arbitrator.
+     *
+     * @param localNode    local ONOS instance
+     * @param store        storage of the primary record
+     * @param isNodeActive returns true if the given ONOS instance is active
+     */
+    Up4Arbitrator(NodeId localNode, PrimaryStore store, Predicate<NodeId> isNodeActive) {
+        this.localNode = localNode;
+        this.store = store;
+        this.isNodeActive = isNodeActive;
+    }
+
+    /**
+     * Creates an arbitrator for a single instance, with the primary record
+     * stored in memory.
+     *
+     * @return the arbitrator
+     */
+    static Up4Arbitrator local() {
+        final AtomicReference<Primary> ref = new AtomicReference<>();
+        return new Up4Arbitrator(NodeId.nodeId("local"), new PrimaryStore() {
+            @Override
+            public Primary get() {
+                return ref.get();
+            }
+
+            @Override
+            public boolean compareAndSet(Primary expect, Primary update) {
+                return ref.compareAndSet(expect, update);
+            }
+        }, nodeId -> true);
+    }
+
+    /**
+     * Arbitrates a client of this instance. The stream of the client must
+     * have been registered before, so that the client can be promoted later.
+     *
+     * @param electionId election_id of the client
+     * @return the result of the arbitration
+     */
+    Result arbitrate(P4RuntimeOuterClass.Uint128 electionId) {
+        while (true) {
+            final Primary current = store.get();
+            if (isActive(current)) {
+                final int cmp = compare(electionId, current.electionId());
+                if (cmp < 0) {
+                    return Result.BACKUP;
+                }
+                if (cmp == 0) {
+                    return current.nodeId.equals(localNode) ? Result.PRIMARY : Result.IN_USE;
+                }
+            }
+            final long epoch = current == null ? 1 :
+                    compare(electionId, current.electionId()) == 0 ? current.epoch : current.epoch + 1;
+            if (store.compareAndSet(current, new Primary(electionId, localNode, true, epoch))) {
+                return Result.PRIMARY;
+            }
+        }
+    }
+
+    /**
+     * Releases the primary role, if held by the given client of this
+     * instance. The epoch is retained, so that the same client reconnecting
+     * later can skip the state re-read if no other client became primary.
+     *
+     * @param electionId election_id of the client
+     * @return true if the client was the primary
+     */
+    boolean release(P4RuntimeOuterClass.Uint128 electionId) {
+        while (true) {
+            final Primary current = store.get();
+            if (current == null || !current.connected || !current.nodeId.equals(localNode) ||
+                    compare(electionId, current.electionId()) != 0) {
+                return false;
+            }
+            if (store.compareAndSet(current, new Primary(electionId, localNode, false, current.epoch))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the election_id of the current primary client.
+     *
+     * @return the election_id, or null if there is no primary
+     */
+    P4RuntimeOuterClass.Uint128 primaryElectionId() {
+        final Primary current = store.get();
+        return isActive(current) ? current.electionId() : null;
+    }
+
+    /**
+     * Returns true if the client of this instance with the given election_id
+     * is the primary.
+     *
+     * @param electionId election_id of the client
+     * @return true if primary
+     */
+    boolean isPrimary(P4RuntimeOuterClass.Uint128 electionId) {
+        final Primary current = store.get();
+        return isActive(current) && current.nodeId.equals(localNode) &&
+                compare(electionId, current.electionId()) == 0;
+    }
+
+    /**
+     * Returns true if a write request with the given election_id can be
+     * served by this instance, i.e., if it comes from the primary client, or
+     * if there is no primary client. In the latter case, the epoch is
+     * incremented, once until a client becomes primary, so that a previous
+     * primary reconnecting re-reads the state.
+     *
+     * @param electionId election_id of the write request
+     * @return true if the write is allowed
+     */
+    boolean canWrite(P4RuntimeOuterClass.Uint128 electionId) {
+        while (true) {
+            final Primary current = store.get();
+            if (isActive(current)) {
+                return current.nodeId.equals(localNode) && compare(electionId, current.electionId()) == 0;
+            }
+            if (current != null && compare(NO_ELECTION_ID, current.electionId()) == 0) {
+                // Epoch already incremented by a previous write.
+                return true;
+            }
+            final long epoch = current == null ? 1 : current.epoch + 1;
+            if (store.compareAndSet(current, new Primary(NO_ELECTION_ID, localNode, false, epoch))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Increments the epoch, to be called on writes not coming from the
+     * clients, e.g., from the CLI. The primary, if any, is not changed.
+     */
+    void invalidate() {
+        while (true) {
+            final Primary current = store.get();
+            final Primary update = current == null ? new Primary(NO_ELECTION_ID, localNode, false, 1) :
+                    new Primary(current.electionId(), current.nodeId, current.connected, current.epoch + 1);
+            if (store.compareAndSet(current, update)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the current epoch, used as resync token.
+     *
+     * @return the epoch, 0 if no client has ever been primary
+     */
+    long epoch() {
+        final Primary current = store.get();
+        return current == null ? 0 : current.epoch;
+    }
+
+    private boolean isActive(Primary primary) {
+        return primary != null && primary.connected && isNodeActive.test(primary.nodeId);
+    }
+
+    /**
+     * Compares two election_ids as unsigned 128 bit integers.
+     *
+     * @param a election_id
+     * @param b election_id
+     * @return a negative integer, zero, or a positive integer as a is less
+     * than, equal to, or greater than b
+     */
+    static int compare(P4RuntimeOuterClass.Uint128 a, P4RuntimeOuterClass.Uint128 b) {
+        final int high = Long.compareUnsigned(a.getHigh(), b.getHigh());
+        return high != 0 ? high : Long.compareUnsigned(a.getLow(), b.getLow());
+    }
+
+    /**
+     * Record of the primary client, shared by all the ONOS instances.
+     */
+    static final class Primary {
+        private final long electionIdHigh;
+        private final long electionIdLow;
+        private final NodeId nodeId;
+        private final boolean connected;
+        private final long epoch;
+
+        Primary(P4RuntimeOuterClass.Uint128 electionId, NodeId nodeId, boolean connected, long epoch) {
+            this.electionIdHigh = electionId.getHigh();
+            this.electionIdLow = electionId.getLow();
+            this.nodeId = nodeId;
+            this.connected = connected;
+            this.epoch = epoch;
+        }
+
+        P4RuntimeOuterClass.Uint128 electionId() {
+            return P4RuntimeOuterClass.Uint128.newBuilder()
+                    .setHigh(electionIdHigh)
+                    .setLow(electionIdLow)
+                    .build();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Primary that = (Primary) o;
+            return electionIdHigh == that.electionIdHigh &&
+                    electionIdLow == that.electionIdLow &&
+                    connected == that.connected &&
+                    epoch == that.epoch &&
+                    Objects.equals(nodeId, that.nodeId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(electionIdHigh, electionIdLow, nodeId, connected, epoch);
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("electionId", electionIdHigh + ":" + electionIdLow)
+                    .add("nodeId", nodeId)
+                    .add("connected", connected)
+                    .add("epoch", epoch)
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.Sets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.omecproject.up4.Up4Service;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.net.behaviour.upf.UpfCounter;
+import org.onosproject.net.behaviour.upf.UpfProgrammableException;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.COUNTER_EXPORT_ADDRESS;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.COUNTER_EXPORT_ADDRESS_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.COUNTER_EXPORT_PORT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.COUNTER_EXPORT_PORT_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.COUNTER_SNAPSHOT_INTERVAL;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.COUNTER_SNAPSHOT_INTERVAL_DEFAULT;
+import static org.onlab.util.Tools.groupedThreads;
+
+/**
+ * Periodically reads the UPF counters, aggregated over all the UPF devices,
+ * and shares the resulting snapshot with all the consumers, so that
+ * monitoring does not add reads to the devices. Snapshots are taken only
+ * while there is at least one consumer. Optionally, the snapshot is exported
+ * in the Prometheus text format by an HTTP server, at the "/metrics" path.
+ */
+@Component(immediate = true, service = Up4CounterComponent.class,
+        property = {
+                COUNTER_SNAPSHOT_INTERVAL + ":Long=" + COUNTER_SNAPSHOT_INTERVAL_DEFAULT,
+                COUNTER_EXPORT_PORT + ":Integer=" + COUNTER_EXPORT_PORT_DEFAULT,
+                COUNTER_EXPORT_ADDRESS + "=" + COUNTER_EXPORT_ADDRESS_DEFAULT,
+        })
+public class Up4CounterComponent {
+
+    static final String EXPORT_PATH = "/metrics";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected Up4Service up4Service;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ComponentConfigService componentConfigService;
+
+    private final Set<Consumer<CounterSnapshot>> listeners = Sets.newCopyOnWriteArraySet();
+    private final AtomicLong snapshotSeq = new AtomicLong();
+    // Latest and previous snapshot, replaced together.
+    private volatile CounterSnapshot[] snapshots = new CounterSnapshot[2];
+
+    private ScheduledExecutorService snapshotExecutor;
+    private ScheduledFuture<?> snapshotTask;
+    private HttpServer httpServer;
+
+    /**
+     * Interval (in milliseconds) between counter snapshots.
+     */
+    private long counterSnapshotInterval = COUNTER_SNAPSHOT_INTERVAL_DEFAULT;
+
+    /**
+     * TCP port of the HTTP server exporting the counters. If 0, the counters
+     * are not exported.
+     */
+    private int counterExportPort = COUNTER_EXPORT_PORT_DEFAULT;
+
+    /**
+     * Address the HTTP server exporting the counters is bound to.
+     */
+    private String counterExportAddress = COUNTER_EXPORT_ADDRESS_DEFAULT;
+
+    @Activate
+    protected void activate() {
+        componentConfigService.registerProperties(getClass());
+        snapshotExecutor = newSingleThreadScheduledExecutor(groupedThreads(
+                "omec/up4/counters", "snapshot", log));
+        log.info("Started.");
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        componentConfigService.unregisterProperties(getClass(), false);
+        synchronized (this) {
+            stopExporter();
+            if (snapshotTask != null) {
+                snapshotTask.cancel(false);
+                snapshotTask = null;
+            }
+        }
+        snapshotExecutor.shutdown();
+        snapshotExecutor = null;
+        log.info("Stopped.");
+    }
+
+    @Modified
+    protected void modified(ComponentContext context) {
+        Dictionary<?, ?> properties = context != null ? context.getProperties() : new Properties();
+        long newInterval = counterSnapshotInterval;
+        Long interval = Tools.getLongProperty(properties, COUNTER_SNAPSHOT_INTERVAL);
+        if (interval != null) {
+            if (interval > 0) {
+                newInterval = interval;
+            } else {
+                log.warn("Invalid {} {}, must be greater than 0", COUNTER_SNAPSHOT_INTERVAL, interval);
+            }
+        }
+        int newPort = counterExportPort;
+        Integer port = Tools.getIntegerProperty(properties, COUNTER_EXPORT_PORT);
+        if (port != null) {
+            if (port >= 0 && port <= 0xFFFF) {
+                newPort = port;
+            } else {
+                log.warn("Invalid {} {}, must be between 0 and 65535", COUNTER_EXPORT_PORT, port);
+            }
+        }
+        String address = Tools.get(properties, COUNTER_EXPORT_ADDRESS);
+        String newAddress = address != null ? address : counterExportAddress;
+        synchronized (this) {
+            if (newPort != counterExportPort || !Objects.equals(newAddress, counterExportAddress)) {
+                counterExportPort = newPort;
+                counterExportAddress = newAddress;
+                stopExporter();
+                startExporter();
+            }
+            if (newInterval != counterSnapshotInterval) {
+                counterSnapshotInterval = newInterval;
+                if (snapshotTask != null) {
+                    snapshotTask.cancel(false);
+                    snapshotTask = null;
+                }
+            }
+            updateSnapshotTask();
+        }
+    }
+
+    /**
+     * Returns the latest counter snapshot.
+     *
+     * @return the latest snapshot, or null if no snapshot was taken yet
+     */
+    public CounterSnapshot latestSnapshot() {
+        return snapshots[0];
+    }
+
+    /**
+     * Adds a consumer of the counter snapshots. Snapshots are taken as long
+     * as there is at least one consumer.
+     *
+     * @param listener consumer notified with every new snapshot
+     */
+    public void addListener(Consumer<CounterSnapshot> listener) {
+        listeners.add(listener);
+        synchronized (this) {
+            updateSnapshotTask();
+        }
+    }
+
+    /**
+     * Removes a consumer of the counter snapshots.
+     *
+     * @param listener consumer previously added
+     */
+    public void removeListener(Consumer<CounterSnapshot> listener) {
+        listeners.remove(listener);
+        synchronized (this) {
+            updateSnapshotTask();
+        }
+    }
+
+    private void updateSnapshotTask() {
+        if (snapshotExecutor == null) {
+            return;
+        }
+        final boolean needed = httpServer != null || !listeners.isEmpty();
+        if (needed && snapshotTask == null) {
+            snapshotTask = snapshotExecutor.scheduleAtFixedRate(
+                    this::takeSnapshot, 0, counterSnapshotInterval, TimeUnit.MILLISECONDS);
+        } else if (!needed && snapshotTask != null) {
+            snapshotTask.cancel(false);
+            snapshotTask = null;
+        }
+    }
+
+    private void takeSnapshot() {
+        if (!up4Service.isReady()) {
+            return;
+        }
+        final Collection<UpfCounter> counters;
+        try {
+            counters = up4Service.readCounters(-1);
+        } catch (UpfProgrammableException | RuntimeException e) {
+            // Don't let the exception cancel the periodic task.
+            log.warn("Unable to read counters for the snapshot: {}", e.getMessage());
+            return;
+        }
+        final CounterSnapshot snapshot = new CounterSnapshot(
+                snapshotSeq.incrementAndGet(), System.currentTimeMillis(), counters);
+        snapshots = new CounterSnapshot[]{snapshot, snapshots[0]};
+        listeners.forEach(listener -> {
+            try {
+                listener.accept(snapshot);
+            } catch (RuntimeException e) {
+                log.error("Exception while notifying counter snapshot", e);
+            }
+        });
+    }
+
+    private void startExporter() {
+        if (counterExportPort == 0) {
+            return;
+        }
+        try {
+            httpServer = HttpServer.create(new InetSocketAddress(counterExportAddress, counterExportPort), 0);
+            httpServer.createContext(EXPORT_PATH, this::handleExport);
+            httpServer.start();
+            log.info("Exporting UP4 counters at http://{}:{}{}",
+                     counterExportAddress, counterExportPort, EXPORT_PATH);
+        } catch (IOException e) {
+            log.error("Unable to start the counter exporter on {}:{}: {}",
+                      counterExportAddress, counterExportPort, e.getMessage());
+            httpServer = null;
+        }
+    }
+
+    private void stopExporter() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+            log.info("Stopped exporting UP4 counters");
+        }
+    }
+
+    private void handleExport(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            int status = 200;
+            String body;
+            try {
+                final CounterSnapshot[] current = snapshots;
+                body = CounterExposition.parse(exchange.getRequestURI().getRawQuery())
+                        .format(current[0], current[1]);
+            } catch (IllegalArgumentException e) {
+                status = 400;
+                body = e.getMessage() + "\n";
+            }
+            final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CounterExposition.CONTENT_TYPE);
+            exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+            if (bytes.length > 0) {
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(bytes);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -4,20 +4,28 @@
  */
 package org.omecproject.up4.impl;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import io.grpc.Context;
-import org.apache.commons.lang3.tuple.Pair;
 import org.omecproject.dbuf.client.DbufClient;
+import org.omecproject.dbuf.client.DbufClientPool;
 import org.omecproject.dbuf.client.DefaultDbufClient;
 import org.omecproject.up4.Up4Event;
 import org.omecproject.up4.Up4EventListener;
 import org.omecproject.up4.Up4Service;
 import org.omecproject.up4.config.Up4Config;
 import org.omecproject.up4.config.Up4DbufConfig;
+import org.onlab.metrics.MetricsService;
 import org.onlab.packet.Ip4Address;
 import org.onlab.packet.Ip4Prefix;
+import org.onlab.util.ImmutableByteSequence;
+import org.onlab.util.Tools;
 import org.onosproject.cfg.ComponentConfigService;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.CoreService;
@@ -51,7 +59,8 @@ import org.onosproject.net.flow.FlowRuleListener;
 import org.onosproject.net.flow.FlowRuleOperations;
 import org.onosproject.net.flow.FlowRuleService;
 import org.onosproject.net.flow.FlowEntry.FlowEntryState;
-import org.onosproject.net.meter.DefaultMeter;
+import org.onosproject.net.flow.criteria.Criterion;
+import org.onosproject.net.flow.criteria.PiCriterion;
 import org.onosproject.net.meter.DefaultMeterRequest;
 import org.onosproject.net.meter.Meter;
 import org.onosproject.net.meter.MeterCellId;
@@ -61,10 +70,17 @@ import org.onosproject.net.meter.MeterRequest;
 import org.onosproject.net.meter.MeterScope;
 import org.onosproject.net.meter.MeterService;
 import org.onosproject.net.meter.MeterState;
+import org.onosproject.net.pi.runtime.PiExactFieldMatch;
+import org.onosproject.net.pi.runtime.PiFieldMatch;
 import org.onosproject.net.pi.runtime.PiMeterCellId;
 import org.onosproject.net.pi.service.PiPipeconfEvent;
 import org.onosproject.net.pi.service.PiPipeconfListener;
 import org.onosproject.net.pi.service.PiPipeconfService;
+import org.onosproject.store.serializers.KryoNamespaces;
+import org.onosproject.store.service.AtomicValue;
+import org.onosproject.store.service.AtomicValueEventListener;
+import org.onosproject.store.service.Serializer;
+import org.onosproject.store.service.StorageService;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
@@ -77,24 +93,39 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Dictionary;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
+import static java.util.concurrent.Executors.newCachedThreadPool;
 import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 import static org.omecproject.up4.impl.AppConstants.DEFAULT_SLICE_ID;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.DBUF_DRAIN_TIMEOUT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.DBUF_DRAIN_TIMEOUT_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.FOLLOWER_SYNC_BATCH_SIZE;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.FOLLOWER_SYNC_BATCH_SIZE_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.PACKET_OUT_DEVICE_SELECTOR;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.PACKET_OUT_DEVICE_SELECTOR_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.UPF_DEGRADED_READY;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.UPF_DEGRADED_READY_DEFAULT;
 import static org.omecproject.up4.impl.OsgiPropertyConstants.UPF_RECONCILE_INTERVAL;
 import static org.omecproject.up4.impl.OsgiPropertyConstants.UPF_RECONCILE_INTERVAL_DEFAULT;
+import static org.onlab.util.Tools.getIntegerProperty;
 import static org.onlab.util.Tools.getLongProperty;
 import static org.onlab.util.Tools.groupedThreads;
 import static org.onosproject.net.behaviour.upf.UpfEntityType.APPLICATION_METER;
@@ -113,6 +144,10 @@ import static org.onosproject.net.config.basics.SubjectFactories.APP_SUBJECT_FAC
 @Component(immediate = true, service = {Up4Service.class, Up4AdminService.class},
         property = {
                 UPF_RECONCILE_INTERVAL + ":Long=" + UPF_RECONCILE_INTERVAL_DEFAULT,
+                PACKET_OUT_DEVICE_SELECTOR + "=" + PACKET_OUT_DEVICE_SELECTOR_DEFAULT,
+                DBUF_DRAIN_TIMEOUT + ":Long=" + DBUF_DRAIN_TIMEOUT_DEFAULT,
+                UPF_DEGRADED_READY + ":Boolean=" + UPF_DEGRADED_READY_DEFAULT,
+                FOLLOWER_SYNC_BATCH_SIZE + ":Integer=" + FOLLOWER_SYNC_BATCH_SIZE_DEFAULT,
         })
 public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4EventListener>
         implements Up4Service, Up4AdminService {
@@ -120,6 +155,12 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
     private static final long NO_UE_LIMIT = -1;
     public static final int GTP_PORT = 2152;
     public static final byte DBUF_TUNNEL_ID = 1;
+    // GTP tunnel peer ID of the second dbuf instance, the following instances
+    // use the IDs below it. The control plane allocates IDs upwards from 2.
+    static final int DBUF_EXTRA_TUNNEL_ID_MAX = 255;
+    static final String LEADER_UPF_DEVICE_NAME = "up4-leader-upf-device";
+    // Interval (in milliseconds) between checks of a follower bootstrap sync.
+    private static final long BOOTSTRAP_SYNC_CHECK_INTERVAL = 1000;
 
     private final Logger log = LoggerFactory.getLogger(getClass());
     private final AtomicBoolean upfInitialized = new AtomicBoolean(false);
@@ -157,16 +198,65 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
     protected ComponentConfigService componentConfigService;
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected Up4Store up4Store;
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    protected MetricsService metricsService;
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected StorageService storageService;
 
-    private ExecutorService eventExecutor;
+    private ScheduledThreadPoolExecutor eventExecutor;
     private ScheduledExecutorService reconciliationExecutor;
     private Future<?> reconciliationTask;
+    // Each reconciliation pass schedules the next one. The epoch is incremented
+    // when reconciliation is stopped, or a pass is replaced by an earlier one,
+    // so that passes of a previous epoch don't run or schedule other passes.
+    // Guarded by upfInitialized, as the running state of the passes.
+    private int reconcileEpoch;
+    private boolean reconcileRunning;
+    private boolean reconcileRequested;
+    private final ReconcileScheduler reconcileScheduler = new ReconcileScheduler(System.currentTimeMillis());
+    // Version of the UPF state of each device, updated from flow rule and meter events.
+    private final Map<DeviceId, UpfStateVersion> upfStateVersions = Maps.newConcurrentMap();
+    // Generations of leader and follower when last found in sync, by follower.
+    private final Map<DeviceId, List<Object>> reconciledGenerations = Maps.newConcurrentMap();
+    // Initializes the UPF physical devices in parallel.
+    private ExecutorService deviceInitExecutor;
+    // UPF physical devices being initialized, outside of the upfInitialized lock.
+    private final Set<DeviceId> initializingDevices = Sets.newConcurrentHashSet();
 
     /**
      * Interval (in seconds) for reconciling state between UPF devices.
      **/
     private long upfReconcileInterval = UPF_RECONCILE_INTERVAL_DEFAULT;
 
+    /**
+     * Policy used to select the UPF physical device to send packet-outs.
+     **/
+    private PacketOutDeviceSelectors.Type packetOutSelectorType =
+            PacketOutDeviceSelectors.Type.valueOf(PACKET_OUT_DEVICE_SELECTOR_DEFAULT);
+    private volatile PacketOutDeviceSelector packetOutDeviceSelector =
+            PacketOutDeviceSelectors.create(packetOutSelectorType);
+
+    /**
+     * Maximum time (in milliseconds) to wait for the rules of a UE to be
+     * installed on all UPF devices before draining its buffer. If 0, the
+     * drain is started as soon as the downlink session is updated.
+     **/
+    private long dbufDrainTimeout = DBUF_DRAIN_TIMEOUT_DEFAULT;
+
+    /**
+     * If true, the UPF data plane is ready as soon as the leader UPF device
+     * is initialized. The other UPF devices join when initialized, and catch
+     * up through reconciliation. Until then, they don't forward traffic
+     * according to the UPF state, and their counters are not read.
+     **/
+    private volatile boolean upfDegradedReady = UPF_DEGRADED_READY_DEFAULT;
+
+    /**
+     * Maximum number of flow rule operations per batch, when syncing or
+     * reconciling a follower UPF device.
+     **/
+    private int followerSyncBatchSize = FOLLOWER_SYNC_BATCH_SIZE_DEFAULT;
+
     private ApplicationId appId;
     private InternalDeviceListener deviceListener;
     private InternalConfigListener netCfgListener;
@@ -175,12 +265,35 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
     private MeterListener meterListener;
 
     private Map<DeviceId, UpfProgrammable> upfProgrammables;
+    // UPF physical devices set up and available, used to send packet-outs.
+    // Updated on device events, to avoid querying the device store for each packet.
+    private volatile List<DeviceId> packetOutDevices = ImmutableList.of();
+    private final Object packetOutDevicesLock = new Object();
+    // Followers being synced from the leader, excluded from packet-outs.
+    private final Set<DeviceId> syncingDevices = Sets.newConcurrentHashSet();
     private Set<DeviceId> upfDevices;
-    private DeviceId leaderUpfDevice;
+    private volatile DeviceId leaderUpfDevice;
+    // Leader UPF device elected by any ONOS instance, shared by all of them.
+    private AtomicValue<DeviceId> sharedLeaderUpfDevice;
+    private final AtomicValueEventListener<DeviceId> sharedLeaderListener =
+            event -> eventExecutor.execute(() -> sharedLeaderChanged(event.newValue()));
     private Up4Config config;
-    private DbufClient dbufClient;
-
-    private UpfGtpTunnelPeer dbufTunnel;
+    private DbufClientPool dbufClients;
+    private DbufDrainSequencer drainSequencer;
+    private final DbufUeStatsTable dbufUeStats = new DbufUeStatsTable();
+    private final Up4Metrics metrics = new Up4Metrics("device");
+    private final Timer applyTimer = metrics.timer("applyLatency");
+    private final Timer deleteTimer = metrics.timer("deleteLatency");
+    private final Timer counterReadTimer = metrics.timer("counterReadLatency");
+    private final Timer reconcileTimer = metrics.timer("reconcileTime");
+    private final Timer dbufDrainTimer = metrics.timer("dbufDrainLatency");
+    private final Counter dbufDrainFailures = metrics.counter("dbufDrainFailures");
+    private final Counter leaderFailovers = metrics.counter("leaderFailovers");
+    private final Timer followerSyncTimer = metrics.timer("followerSyncTime");
+    private final Counter reconcileSkipped = metrics.counter("reconcileSkipped");
+
+    // One GTP tunnel peer per dbuf instance, in the same order of the pool clients.
+    private volatile List<UpfGtpTunnelPeer> dbufTunnels = ImmutableList.of();
 
     @Activate
     protected void activate() {
@@ -195,10 +308,24 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
         meterListener = new InternalMeterListener();
         upfProgrammables = Maps.newConcurrentMap();
         upfDevices = Sets.newConcurrentHashSet();
-        eventExecutor = newSingleThreadScheduledExecutor(groupedThreads(
+        // Not wrapped, to expose the queue depth.
+        eventExecutor = new ScheduledThreadPoolExecutor(1, groupedThreads(
                 "omec/up4", "event-%d", log));
         reconciliationExecutor = newSingleThreadScheduledExecutor(groupedThreads(
                 "omec/up4/reconcile", "executor", log));
+        deviceInitExecutor = newCachedThreadPool(groupedThreads(
+                "omec/up4/device-init", "init-%d", log));
+        drainSequencer = new DbufDrainSequencer(
+                this::startDbufDrain, this::availableUpfDevices, eventExecutor, dbufDrainTimeout);
+        // Allow unit tests without the storage service.
+        if (storageService != null) {
+            sharedLeaderUpfDevice = storageService.<DeviceId>atomicValueBuilder()
+                    .withName(LEADER_UPF_DEVICE_NAME)
+                    .withSerializer(Serializer.using(KryoNamespaces.API))
+                    .build()
+                    .asAtomicValue();
+            sharedLeaderUpfDevice.addListener(sharedLeaderListener);
+        }
 
         flowRuleService.addListener(flowRuleListener);
         meterService.addListener(meterListener);
@@ -212,24 +339,70 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
         deviceService.addListener(deviceListener);
         piPipeconfService.addListener(piPipeconfListener);
 
+        metrics.gauge("eventQueueDepth", () -> {
+            final ScheduledThreadPoolExecutor executor = eventExecutor;
+            return executor == null ? 0 : executor.getQueue().size();
+        });
+        metrics.gauge("dbufDrainQueueDepth", () -> dbufClients().stream()
+                .mapToInt(DbufClient::drainQueueDepth).sum());
+        metrics.gauge("followersSyncing", syncingDevices::size);
+        metrics.gauge("followersOutOfSync", this::followersOutOfSync);
+        metrics.gauge("dbufTrackedUes", () -> {
+            final DbufDrainSequencer sequencer = drainSequencer;
+            return sequencer == null ? 0 : sequencer.size();
+        });
+        metrics.register(metricsService);
+
         log.info("Started.");
     }
 
     @Modified
     protected void modified(ComponentContext context) {
         Dictionary<?, ?> properties = context != null ? context.getProperties() : new Properties();
+        String selectorType = Tools.get(properties, PACKET_OUT_DEVICE_SELECTOR);
+        if (selectorType != null) {
+            try {
+                var newSelectorType = PacketOutDeviceSelectors.Type.valueOf(selectorType.toUpperCase());
+                if (newSelectorType != packetOutSelectorType) {
+                    packetOutSelectorType = newSelectorType;
+                    packetOutDeviceSelector = PacketOutDeviceSelectors.create(newSelectorType);
+                    log.info("Using {} packet-out device selector", newSelectorType);
+                }
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid {} {}", PACKET_OUT_DEVICE_SELECTOR, selectorType);
+            }
+        }
+        Long drainTimeout = getLongProperty(properties, DBUF_DRAIN_TIMEOUT);
+        if (drainTimeout != null) {
+            if (drainTimeout >= 0) {
+                dbufDrainTimeout = drainTimeout;
+                if (drainSequencer != null) {
+                    drainSequencer.setTimeout(drainTimeout);
+                }
+            } else {
+                log.warn("Invalid {} {}, must be 0 or greater", DBUF_DRAIN_TIMEOUT, drainTimeout);
+            }
+        }
+        Boolean degradedReady = Tools.isPropertyEnabled(properties, UPF_DEGRADED_READY);
+        if (degradedReady != null && degradedReady != upfDegradedReady) {
+            upfDegradedReady = degradedReady;
+            log.info("{} UPF degraded-ready mode", degradedReady ? "Enabled" : "Disabled");
+            synchronized (upfInitialized) {
+                setUpfDataPlaneIfReady();
+            }
+        }
+        Integer batchSize = getIntegerProperty(properties, FOLLOWER_SYNC_BATCH_SIZE);
+        if (batchSize != null) {
+            if (batchSize > 0) {
+                followerSyncBatchSize = batchSize;
+            } else {
+                log.warn("Invalid {} {}, must be greater than 0", FOLLOWER_SYNC_BATCH_SIZE, batchSize);
+            }
+        }
         Long reconcileInterval = getLongProperty(properties, UPF_RECONCILE_INTERVAL);
         if (reconcileInterval != null && reconcileInterval != upfReconcileInterval) {
             upfReconcileInterval = reconcileInterval;
-            synchronized (upfInitialized) {
-                if (reconciliationTask != null) {
-                    reconciliationTask.cancel(false);
-                    if (upfInitialized.get()) {
-                        reconciliationTask = reconciliationExecutor.scheduleAtFixedRate(
-                                new ReconcileUpfDevices(), 0, upfReconcileInterval, TimeUnit.SECONDS);
-                    }
-                }
-            }
+            reconcileNow();
         }
     }
 
@@ -249,6 +422,7 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
     protected void deactivate() {
         log.info("Stopping...");
         componentConfigService.unregisterProperties(getClass(), false);
+        metrics.unregister();
         deviceService.removeListener(deviceListener);
         netCfgService.removeListener(netCfgListener);
         netCfgService.unregisterConfigFactory(up4ConfigFactory);
@@ -257,15 +431,23 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
         piPipeconfService.removeListener(piPipeconfListener);
         meterService.removeListener(meterListener);
         flowRuleService.removeListener(flowRuleListener);
+        if (sharedLeaderUpfDevice != null) {
+            sharedLeaderUpfDevice.removeListener(sharedLeaderListener);
+            sharedLeaderUpfDevice = null;
+        }
 
+        drainSequencer.clear();
         eventExecutor.shutdownNow();
         reconciliationExecutor.shutdown();
+        deviceInitExecutor.shutdownNow();
 
         reconciliationExecutor = null;
+        deviceInitExecutor = null;
         eventExecutor = null;
         leaderUpfDevice = null;
         upfProgrammables = null;
         upfDevices = null;
+        packetOutDevices = ImmutableList.of();
         log.info("Stopped.");
     }
 
@@ -274,6 +456,9 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
         return config != null;
     }
 
+    // All writes go through the leader UPF device, whatever the ONOS instance
+    // receiving them. Entities are not sharded across devices, as every device
+    // needs all the entities (see "Running in an ONOS cluster" in README.md).
     private UpfProgrammable getLeaderUpfProgrammable() {
         assertUpfIsReady();
         return upfProgrammables.get(leaderUpfDevice);
@@ -315,7 +500,10 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
             // when the P4RT client is not created before calling setUpfDevice).
             // FIXME: always do lazy setup, instead of relying on events.
             log.info("UPF data plane not initialized, try lazy setup");
-            upfDevices.forEach(this::setUpfDevice);
+            setUpfDevices(upfDevices);
+            if (!upfInitialized.get() && !deviceService.isAvailable(leaderUpfDevice)) {
+                failoverLeader(leaderUpfDevice);
+            }
             if (!upfInitialized.get()) {
                 throw new IllegalStateException("UPF data plane not initialized after lazy setup!");
             }
@@ -344,9 +532,10 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
     }
 
     private void setUpfDevice(DeviceId deviceId) {
+        final UpfProgrammable newUpfProgrammable;
         synchronized (upfInitialized) {
             UpfProgrammable upfProgrammable = upfProgrammables.get(deviceId);
-            if (upfInitialized.get()) {
+            if (upfInitialized.get() && upfProgrammable != null) {
                 log.info("UPF {} already initialized, skipping setup.", deviceId);
                 // FIXME: this is merely a hotfix for interface entries disappearing when a device becomes available
                 // Moreover, if the initialization is done at the very beginning, mastership could change. There could
@@ -355,42 +544,139 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
                 ensureInterfacesInstalled();
                 // Update PSC configuration if needed
                 applyPscEncap();
+                return;
             } else if (!upfDevices.contains(deviceId)) {
                 log.warn("UPF {} is not in the configuration!", deviceId);
+                return;
             } else if (deviceService.getDevice(deviceId) == null) {
                 log.warn("UPF {} currently does not exist in the device store, skip setup.", deviceId);
+                return;
             } else if (!isUpfProgrammable(deviceId)) {
                 log.warn("{} is not UPF physical device!", deviceId);
+                return;
             } else if (upfProgrammable != null && !upfProgrammable.data().deviceId().equals(deviceId)) {
                 log.warn("Change of the UPF while UPF data plane is available is not supported!");
-            } else if (upfProgrammable == null) {
-                log.info("Setup UPF physical device: {}", deviceId);
-                upfProgrammable = deviceService.getDevice(deviceId).as(UpfProgrammable.class);
-                if (!upfProgrammable.init()) {
-                    // error message will be printed by init()
+                return;
+            } else if (upfProgrammable != null) {
+                // Waiting for the other UPF physical devices.
+                return;
+            } else if (!initializingDevices.add(deviceId)) {
+                log.info("UPF {} initialization already in progress, skipping setup.", deviceId);
+                return;
+            }
+            log.info("Setup UPF physical device: {}", deviceId);
+            newUpfProgrammable = deviceService.getDevice(deviceId).as(UpfProgrammable.class);
+        }
+        try {
+            // Initialize outside of the lock, so that the UPF physical
+            // devices are initialized in parallel.
+            if (!newUpfProgrammable.init()) {
+                // error message will be printed by init()
+                return;
+            }
+            synchronized (upfInitialized) {
+                if (!upfDevices.contains(deviceId) || upfProgrammables.containsKey(deviceId)) {
+                    // The configuration changed while initializing.
                     return;
                 }
-                upfProgrammables.putIfAbsent(deviceId, upfProgrammable);
+                // Joining an initialized data plane, in degraded-ready mode or
+                // added to the config. Not used for packet-outs until synced.
+                final boolean joining = upfInitialized.get();
+                final boolean startSync = joining && syncingDevices.add(deviceId);
+                upfProgrammables.put(deviceId, newUpfProgrammable);
+                updatePacketOutDevices();
+                // Rules might be already installed, e.g., after a restart.
+                rebuildUpfStateVersion(deviceId);
                 log.info("UPF physical device {} setup successful!", deviceId);
+                if (!joining) {
+                    setUpfDataPlaneIfReady();
+                } else if (startSync) {
+                    // Writes are replicated to the device from now on, sync
+                    // the existing state.
+                    log.info("UPF physical device {} joined the UPF data plane, syncing it from leader", deviceId);
+                    reconciliationExecutor.execute(new BootstrapSync(deviceId));
+                }
+            }
+        } finally {
+            initializingDevices.remove(deviceId);
+        }
+    }
 
-                if (upfProgrammables.keySet().containsAll(upfDevices)) {
-                    // Currently we don't support dynamic UPF configuration.
-                    // The UPF data plane is initialized when all UPF physical
-                    // devices have been initialized properly.
-                    upfInitialized.set(true);
-
-                    // Do the initial device configuration required
-                    installUpfEntities();
-                    applyPscEncap();
-                    // Start reconcile thread only when UPF data plane is initialized
-                    reconciliationTask = reconciliationExecutor.scheduleAtFixedRate(
-                            new ReconcileUpfDevices(), 0, upfReconcileInterval, TimeUnit.SECONDS);
-                    log.info("UPF data plane setup successful!");
+    /**
+     * Sets up the given UPF physical devices in parallel. Waits for the
+     * UPF data plane to be initialized, or for all the devices to be
+     * set up if that doesn't happen before.
+     *
+     * @param deviceIds device identifiers
+     */
+    private void setUpfDevices(Collection<DeviceId> deviceIds) {
+        final ExecutorService executor = deviceInitExecutor;
+        if (deviceIds.size() < 2 || executor == null || Thread.holdsLock(upfInitialized)) {
+            // Workers would wait for the lock held by this thread.
+            deviceIds.forEach(this::setUpfDevice);
+            return;
+        }
+        final CompletableFuture<Void> all = CompletableFuture.allOf(deviceIds.stream()
+                .map(deviceId -> CompletableFuture.runAsync(() -> setUpfDevice(deviceId), executor))
+                .toArray(CompletableFuture[]::new));
+        all.whenComplete((result, error) -> {
+            if (error != null) {
+                log.error("Error while setting up UPF physical devices: {}", error.getMessage());
+            }
+            synchronized (upfInitialized) {
+                upfInitialized.notifyAll();
+            }
+        });
+        synchronized (upfInitialized) {
+            // In degraded-ready mode, the data plane can be ready before all
+            // the devices are set up: don't wait for the slowest one.
+            while (!all.isDone() && !upfInitialized.get()) {
+                try {
+                    upfInitialized.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 }
             }
         }
     }
 
+    /**
+     * Initializes the UPF data plane if the leader UPF physical device is set
+     * up, and either all the other devices are set up, or the degraded-ready
+     * mode is enabled. Must be called with the upfInitialized lock held.
+     */
+    private void setUpfDataPlaneIfReady() {
+        if (upfInitialized.get() || leaderUpfDevice == null || !upfProgrammables.containsKey(leaderUpfDevice)) {
+            return;
+        }
+        final boolean complete = upfProgrammables.keySet().containsAll(upfDevices);
+        if (!complete && !upfDegradedReady) {
+            // The UPF data plane is initialized when all UPF physical
+            // devices have been initialized properly.
+            return;
+        }
+        upfInitialized.set(true);
+        upfInitialized.notifyAll();
+
+        // Do the initial device configuration required
+        installUpfEntities();
+        applyPscEncap();
+        // Start reconcile thread only when UPF data plane is initialized
+        reconciliationTask = reconciliationExecutor.schedule(
+                new ReconcileUpfDevices(), 0, TimeUnit.MILLISECONDS);
+        // Followers might hold stale state, e.g., after an ONOS restart.
+        upfProgrammables.keySet().stream()
+                .filter(deviceId -> !deviceId.equals(leaderUpfDevice))
+                .forEach(this::startBootstrapSync);
+        if (complete) {
+            log.info("UPF data plane setup successful!");
+        } else {
+            log.warn("UPF data plane setup with leader {}, waiting for UPF physical devices {}",
+                     leaderUpfDevice, Sets.difference(upfDevices, upfProgrammables.keySet()));
+        }
+    }
+
     /**
      * Enable or disable the PSC encap feature in the data plane, based on the config.
      */
@@ -524,9 +810,9 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
     }
 
     private void deleteDbufTunnel() {
-        if (this.dbufTunnel != null) {
+        for (UpfGtpTunnelPeer dbufTunnel : this.dbufTunnels) {
             try {
-                log.debug("Remove DBUF GTP tunnel peer.");
+                log.debug("Remove DBUF GTP tunnel peer {}.", dbufTunnel.tunPeerId());
                 getLeaderUpfProgrammable().delete(dbufTunnel);
             } catch (UpfProgrammableException e) {
                 log.warn("Failed to delete DBUF GTP tunnel peer: {}", e.getMessage());
@@ -535,9 +821,19 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
     }
 
     private void installDbufTunnel() {
-        if (this.dbufTunnel != null) {
+        Collection<? extends UpfEntity> installedTunnels = List.of();
+        try {
+            installedTunnels = getLeaderUpfProgrammable().readAll(UpfEntityType.TUNNEL_PEER);
+        } catch (UpfProgrammableException e) {
+            log.warn("Failed to read GTP tunnel peers: {}", e.getMessage());
+        }
+        for (UpfGtpTunnelPeer dbufTunnel : this.dbufTunnels) {
+            if (installedTunnels.contains(dbufTunnel)) {
+                log.debug("DBUF GTP tunnel peer {} already installed.", dbufTunnel.tunPeerId());
+                continue;
+            }
             try {
-                log.debug("Install DBUF GTP tunnel peer.");
+                log.debug("Install DBUF GTP tunnel peer {}.", dbufTunnel.tunPeerId());
                 getLeaderUpfProgrammable().apply(dbufTunnel);
             } catch (UpfProgrammableException e) {
                 log.warn("Failed to insert DBUF GTP tunnel peer: {}", e.getMessage());
@@ -545,7 +841,36 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
         }
     }
 
+    /**
+     * Returns the GTP tunnel peer ID of the dbuf instance with the given
+     * index. The first instance uses {@link #DBUF_TUNNEL_ID}, the others use
+     * the IDs from the top of the range downwards, so that the IDs allocated
+     * by the control plane from 2 upwards are not affected.
+     *
+     * @param index index of the dbuf instance
+     * @return GTP tunnel peer ID
+     */
+    static byte dbufTunnelPeerId(int index) {
+        return (byte) (index == 0 ? DBUF_TUNNEL_ID : DBUF_EXTRA_TUNNEL_ID_MAX + 1 - index);
+    }
+
+    /**
+     * Returns true if the given GTP tunnel peer ID is reserved for dbuf, i.e.,
+     * if it is {@link #DBUF_TUNNEL_ID}, always reserved, or the ID of one of
+     * the other configured dbuf instances.
+     *
+     * @param tunPeerId GTP tunnel peer ID
+     * @return true if reserved for dbuf
+     */
+    private boolean isDbufTunnelPeerId(byte tunPeerId) {
+        final int id = Byte.toUnsignedInt(tunPeerId);
+        return id == DBUF_TUNNEL_ID || id > DBUF_EXTRA_TUNNEL_ID_MAX + 1 - dbufTunnels.size();
+    }
+
     public void postEvent(Up4Event event) {
+        if (event.type() == Up4Event.Type.DOWNLINK_DATA_NOTIFICATION) {
+            dbufUeStats.recordFirstBuffer(event.subject().ueAddress().toInt(), System.currentTimeMillis());
+        }
         post(event);
     }
 
@@ -570,9 +895,15 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
                                   "internal state anyway: {}", e.getMessage());
             }
             leaderUpfDevice = null;
+            if (sharedLeaderUpfDevice != null) {
+                sharedLeaderUpfDevice.set(null);
+            }
             upfProgrammables = Maps.newConcurrentMap();
             upfDevices = Sets.newConcurrentHashSet();
+            packetOutDevices = ImmutableList.of();
+            syncingDevices.clear();
             up4Store.reset();
+            drainSequencer.clear();
             upfInitialized.set(false);
         }
     }
@@ -590,23 +921,174 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
                 log.error("unsetUpfDevice(DeviceId) should be called when device is not in the store!");
                 return;
             }
-            // Stop reconcile thread when UPF is being uninitialized
-            stopReconcile();
+            failoverLeader(deviceId);
             upfProgrammables.remove(deviceId);
+            upfStateVersions.remove(deviceId);
+            syncingDevices.remove(deviceId);
+            updatePacketOutDevices();
+            if (deviceId.equals(leaderUpfDevice)) {
+                // No follower can replace the leader.
+                // Stop reconcile thread when UPF is being uninitialized
+                stopReconcile();
+                upfInitialized.set(false);
+            }
+            // A follower will join again, and be synced, when back in the store.
+        }
+    }
+
+    /**
+     * Removes a follower UPF physical device from the UPF data plane, without
+     * affecting the other devices. The device stops receiving packet-outs and
+     * replicated writes, then its UPF state is cleaned up.
+     *
+     * @param deviceId device identifier
+     */
+    private void removeUpfDevice(DeviceId deviceId) {
+        final UpfProgrammable upfProgrammable;
+        synchronized (upfInitialized) {
+            upfDevices.remove(deviceId);
+            upfProgrammable = upfProgrammables.remove(deviceId);
+            upfStateVersions.remove(deviceId);
+            syncingDevices.remove(deviceId);
+            updatePacketOutDevices();
+            // The device might be the last one the data plane was waiting for.
+            setUpfDataPlaneIfReady();
+        }
+        log.info("UPF physical device {} removed from the UPF data plane", deviceId);
+        if (upfProgrammable != null && deviceService.isAvailable(deviceId)) {
+            try {
+                // If it was the leader, the new leader has been elected already.
+                upfProgrammable.cleanUp();
+            } catch (RuntimeException e) {
+                log.warn("Unable to clean up removed UPF physical device {}: {}", deviceId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Elects the leader UPF physical device. The leader elected by another
+     * ONOS instance is used if still in the config, otherwise the first
+     * device in the config order that is set up and available, or the first
+     * device if none is. Must be called with the upfInitialized lock held.
+     *
+     * @param upfDeviceIds UPF physical devices, in the config order
+     */
+    private void electLeader(List<DeviceId> upfDeviceIds) {
+        final DeviceId shared = sharedLeaderUpfDevice == null ? null : sharedLeaderUpfDevice.get();
+        DeviceId newLeader = shared;
+        if (shared == null || !upfDeviceIds.contains(shared)) {
+            newLeader = upfDeviceIds.stream()
+                    .filter(upfProgrammables::containsKey)
+                    .filter(deviceService::isAvailable)
+                    .filter(deviceId -> !syncingDevices.contains(deviceId))
+                    .findFirst()
+                    .orElse(upfDeviceIds.isEmpty() ? null : upfDeviceIds.get(0));
+            if (sharedLeaderUpfDevice != null && !sharedLeaderUpfDevice.compareAndSet(shared, newLeader)) {
+                // Elected concurrently by another ONOS instance.
+                newLeader = sharedLeaderUpfDevice.get();
+            }
+        }
+        promoteLeader(newLeader);
+    }
+
+    /**
+     * Replaces the given leader UPF physical device with the first follower,
+     * in the config order, that is set up and available. The followers hold
+     * a replica of the leader state, kept in sync by reconciliation.
+     *
+     * @param failedLeader leader UPF physical device no longer available
+     */
+    @VisibleForTesting
+    void failoverLeader(DeviceId failedLeader) {
+        synchronized (upfInitialized) {
+            if (!failedLeader.equals(leaderUpfDevice) || config == null) {
+                return;
+            }
+            DeviceId newLeader = config.upfDeviceIds().stream()
+                    .filter(deviceId -> !deviceId.equals(failedLeader))
+                    .filter(upfProgrammables::containsKey)
+                    .filter(deviceService::isAvailable)
+                    // Not a full replica until synced.
+                    .filter(deviceId -> !syncingDevices.contains(deviceId))
+                    .findFirst()
+                    .orElse(null);
+            if (newLeader == null) {
+                log.warn("Leader UPF device {} is not available, and no follower can replace it", failedLeader);
+                return;
+            }
+            if (sharedLeaderUpfDevice != null && !sharedLeaderUpfDevice.compareAndSet(failedLeader, newLeader)) {
+                // Elected concurrently by another ONOS instance.
+                newLeader = sharedLeaderUpfDevice.get();
+                if (newLeader == null || newLeader.equals(failedLeader)) {
+                    return;
+                }
+            }
+            leaderFailovers.inc();
+            promoteLeader(newLeader);
+        }
+    }
+
+    @VisibleForTesting
+    void sharedLeaderChanged(DeviceId newLeader) {
+        synchronized (upfInitialized) {
+            if (newLeader != null && upfDevices != null && upfDevices.contains(newLeader)) {
+                promoteLeader(newLeader);
+            }
+        }
+    }
+
+    /**
+     * Makes the given UPF physical device the leader. Writes and reads are
+     * redirected to it, its rules are copied to the followers, and the
+     * previous leader becomes a follower. Must be called with the
+     * upfInitialized lock held.
+     *
+     * @param newLeader new leader UPF physical device, can be null
+     */
+    private void promoteLeader(DeviceId newLeader) {
+        if (Objects.equals(newLeader, leaderUpfDevice)) {
+            return;
+        }
+        final DeviceId oldLeader = leaderUpfDevice;
+        leaderUpfDevice = newLeader;
+        if (oldLeader == null) {
+            return;
+        }
+        log.warn("Leader UPF device changed from {} to {}", oldLeader, newLeader);
+        if (!upfInitialized.get()) {
+            setUpfDataPlaneIfReady();
+            return;
+        }
+        if (newLeader == null || !upfProgrammables.containsKey(newLeader)) {
+            // Initialized again when the new leader is set up.
+            stopReconcile();
             upfInitialized.set(false);
+            return;
         }
+        // The new leader holds the state replicated and reconciled while
+        // it was a follower.
+        installUpfEntities();
+        applyPscEncap();
     }
 
-    private void upfUpdateConfig(Up4Config config) {
+    @VisibleForTesting
+    void upfUpdateConfig(Up4Config config) {
         if (config == null) {
             unsetUpfDataPlane();
             this.config = null;
         } else if (config.isValid()) {
             List<DeviceId> upfDeviceIds = config.upfDeviceIds();
             this.config = config;
-            leaderUpfDevice = upfDeviceIds.isEmpty() ? null : upfDeviceIds.get(0);
+            synchronized (upfInitialized) {
+                if (leaderUpfDevice == null || !upfDeviceIds.contains(leaderUpfDevice)) {
+                    electLeader(upfDeviceIds);
+                }
+            }
+            // Devices can be added and removed without affecting the others.
+            Sets.difference(upfDevices, ImmutableSet.copyOf(upfDeviceIds)).immutableCopy()
+                    .forEach(this::removeUpfDevice);
             upfDevices.addAll(upfDeviceIds);
-            upfDeviceIds.forEach(this::setUpfDevice);
+            setUpfDevices(upfDeviceIds);
             updateDbufTunnel();
         } else {
             log.error("Invalid UP4 config loaded! Cannot set up UPF.");
@@ -616,16 +1098,21 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
 
     private void updateDbufTunnel() {
         deleteDbufTunnel();
-        if (dbufClient != null && configIsLoaded() && config.dbufDrainAddr() != null) {
-            this.dbufTunnel = UpfGtpTunnelPeer.builder()
-                    .withSrcAddr(config.dbufDrainAddr())
-                    .withDstAddr(dbufClient.dataplaneIp4Addr())
-                    .withSrcPort((short) GTP_PORT)
-                    .withTunnelPeerId(DBUF_TUNNEL_ID)
-                    .build();
+        if (dbufClients != null && configIsLoaded() && config.dbufDrainAddr() != null) {
+            final ImmutableList.Builder<UpfGtpTunnelPeer> tunnels = ImmutableList.builder();
+            final List<DbufClient> clients = dbufClients.clients();
+            for (int i = 0; i < clients.size(); i++) {
+                tunnels.add(UpfGtpTunnelPeer.builder()
+                                    .withSrcAddr(config.dbufDrainAddr())
+                                    .withDstAddr(clients.get(i).dataplaneIp4Addr())
+                                    .withSrcPort((short) GTP_PORT)
+                                    .withTunnelPeerId(dbufTunnelPeerId(i))
+                                    .build());
+            }
+            this.dbufTunnels = tunnels.build();
             installDbufTunnel();
         } else {
-            this.dbufTunnel = null;
+            this.dbufTunnels = ImmutableList.of();
         }
     }
 
@@ -633,20 +1120,24 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
         if (config == null) {
             teardownDbufClient();
         } else if (config.isValid()) {
-            setUpDbufClient(config.serviceAddr(), config.dataplaneAddr());
+            setUpDbufClients(config.instances());
         } else {
             log.error("Invalid DBUF config loaded! Cannot set up DBUF.");
         }
         log.info("Up4DbufConfig updated");
     }
 
-    private void setUpDbufClient(String serviceAddr, String dataplaneAddr) {
+    private void setUpDbufClients(Map<String, String> instances) {
         synchronized (this) {
-            if (dbufClient != null) {
+            if (dbufClients != null) {
                 teardownDbufClient();
             }
-            if (dbufClient == null) {
-                dbufClient = new DefaultDbufClient(serviceAddr, dataplaneAddr, this);
+            if (dbufClients == null) {
+                // One client, with its own subscription, per dbuf instance.
+                final List<DbufClient> clients = instances.entrySet().stream()
+                        .map(i -> new DefaultDbufClient(i.getKey(), i.getValue(), this))
+                        .collect(Collectors.toList());
+                dbufClients = new DbufClientPool(clients);
             }
             updateDbufTunnel();
         }
@@ -654,12 +1145,12 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
 
     private void teardownDbufClient() {
         synchronized (this) {
-            if (dbufClient != null) {
-                dbufClient.shutdown();
-                dbufClient = null;
+            if (dbufClients != null) {
+                dbufClients.shutdown();
+                dbufClients = null;
             }
             deleteDbufTunnel();
-            dbufTunnel = null;
+            dbufTunnels = ImmutableList.of();
         }
     }
 
@@ -681,6 +1172,7 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
     public void cleanUp() {
         getLeaderUpfProgrammable().cleanUp();
         up4Store.reset();
+        drainSequencer.clear();
     }
 
     private UpfSessionDownlink convertToBuffering(UpfSessionDownlink sess) {
@@ -689,8 +1181,11 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
                 .withUeAddress(sess.ueAddress())
                 .withSessionMeterIdx(sess.sessionMeterIdx());
 
-        if (dbufTunnel != null) {
-            sessBuilder.withGtpTunnelPeerId(DBUF_TUNNEL_ID);
+        final DbufClientPool pool = dbufClients;
+        final List<UpfGtpTunnelPeer> tunnels = dbufTunnels;
+        if (pool != null && tunnels.size() == pool.size()) {
+            // Send packets to the dbuf instance holding the queue of this UE.
+            sessBuilder.withGtpTunnelPeerId(tunnels.get(pool.indexOf(sess.ueAddress())).tunPeerId());
         } else {
             // When we don't have dbuf deployed, we need to drop traffic.
             sessBuilder.needsDropping(true);
@@ -700,6 +1195,7 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
 
     @Override
     public void apply(UpfEntity entity) throws UpfProgrammableException {
+        final long validateStart = WriteTracer.stageStart();
         switch (entity.type()) {
             case SESSION_DOWNLINK:
                 UpfSessionDownlink sessDl = (UpfSessionDownlink) entity;
@@ -707,6 +1203,9 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
                     // Override tunnel peer id with the DBUF
                     entity = convertToBuffering(sessDl);
                     up4Store.learnBufferingUe(sessDl.ueAddress());
+                    // Count the rules for this UE from now on, to know when the
+                    // forwarding state is complete and the buffer can be drained.
+                    drainSequencer.track(sessDl.ueAddress());
                 }
                 break;
             case TERMINATION_UPLINK:
@@ -739,54 +1238,147 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
                 break;
             case TUNNEL_PEER:
                 UpfGtpTunnelPeer tunnelPeer = (UpfGtpTunnelPeer) entity;
-                if (tunnelPeer.tunPeerId() == DBUF_TUNNEL_ID) {
+                if (isDbufTunnelPeerId(tunnelPeer.tunPeerId())) {
                     throw new UpfProgrammableException("Cannot apply the DBUF GTP Tunnel Peer");
                 }
                 break;
             default:
                 break;
         }
+        WriteTracer.stageEnd(WriteTracer.Stage.VALIDATE, validateStart);
+        reconcileScheduler.recordWrite();
+        // Identical writes are not skipped, the leader state can be changed by
+        // other instances (see "Running in an ONOS cluster" in README.md).
+        final long start = System.nanoTime();
         getLeaderUpfProgrammable().apply(entity);
+        Up4Metrics.stop(applyTimer, start);
+        WriteTracer.stageEnd(WriteTracer.Stage.LEADER_APPLY, start);
+        final Ip4Address ruleUeAddr = ueAddressOf(entity);
+        if (ruleUeAddr != null) {
+            drainSequencer.ruleApplied(ruleUeAddr);
+        }
         // Drain from DBUF if necessary
         if (entity.type().equals(SESSION_DOWNLINK)) {
             UpfSessionDownlink sess = (UpfSessionDownlink) entity;
             if (!sess.needsBuffering() && up4Store.forgetBufferingUe(sess.ueAddress())) {
-                // TODO: Should we wait for rules to be installed on all devices before
-                //   triggering drain?
-                //   When a fwd FAR is changed to buff FAR,
-                //   both session_downlink & downlink_termination rules are updated.
-                //   If the drain action starts immediately right after applying session_downlink,
-                //   the downlink_termination rule may not be updated,
-                //   thus, the TEID may wrong in such case.
-                // Run the outbound rpc in a forked context so it doesn't cancel if it was called
-                // by an inbound rpc that completes faster than the drain call
-                Ip4Address ueAddr = sess.ueAddress();
-                Context ctx = Context.current().fork();
-                ctx.run(() -> {
-                    if (dbufClient == null) {
-                        log.error("Cannot start dbuf drain for {}, dbufClient is null", ueAddr);
-                        return;
-                    }
-                    if (config == null || config.dbufDrainAddr() == null) {
-                        log.error("Cannot start dbuf drain for {}, dbufDrainAddr is null", ueAddr);
-                        return;
-                    }
-                    log.info("Started dbuf drain for {}", ueAddr);
-                    dbufClient.drain(ueAddr, config.dbufDrainAddr(), GTP_PORT)
-                            .whenComplete((result, ex) -> {
-                                if (ex != null) {
-                                    log.error("Exception while draining dbuf for {}: {}", ueAddr, ex);
-                                } else if (result) {
-                                    log.info("Dbuf drain completed for {}", ueAddr);
-                                } else {
-                                    log.warn("Unknown error while draining dbuf for {}", ueAddr);
-                                }
-                            });
-                });
+                // When a fwd FAR is changed to buff FAR, both session_downlink and
+                // downlink_termination rules are updated. Wait for all the rules of
+                // the UE to be installed on all devices before draining, otherwise
+                // packets might be forwarded with the old TEID.
+                drainSequencer.arm(sess.ueAddress());
             }
         }
     }
 
+    /**
+     * Returns the UE address of the given session or termination, i.e., the
+     * UPF entities whose rules are matched by UE address.
+     *
+     * @param entity UPF entity
+     * @return UE address, or null if the entity is not per-UE
+     */
+    private static Ip4Address ueAddressOf(UpfEntity entity) {
+        switch (entity.type()) {
+            case SESSION_DOWNLINK:
+                return ((UpfSessionDownlink) entity).ueAddress();
+            case TERMINATION_UPLINK:
+                return ((UpfTerminationUplink) entity).ueSessionId();
+            case TERMINATION_DOWNLINK:
+                return ((UpfTerminationDownlink) entity).ueSessionId();
+            default:
+                return null;
+        }
+    }
+
+    private void startDbufDrain(Ip4Address ueAddr) {
+        // Run the outbound rpc in a forked context so it doesn't cancel if it was called
+        // by an inbound rpc that completes faster than the drain call
+        Context ctx = Context.current().fork();
+        ctx.run(() -> {
+            final DbufClientPool pool = dbufClients;
+            if (pool == null) {
+                log.error("Cannot start dbuf drain for {}, dbuf is not configured", ueAddr);
+                return;
+            }
+            // Drain from the same instance used when buffering.
+            final DbufClient dbufClient = pool.clientFor(ueAddr);
+            if (config == null || config.dbufDrainAddr() == null) {
+                log.error("Cannot start dbuf drain for {}, dbufDrainAddr is null", ueAddr);
+                return;
+            }
+            log.info("Started dbuf drain for {} on {}", ueAddr, dbufClient.serviceAddr());
+            dbufUeStats.recordDrainStart(ueAddr.toInt(), System.currentTimeMillis());
+            final long start = System.nanoTime();
+            dbufClient.drain(ueAddr, config.dbufDrainAddr(), GTP_PORT)
+                    .whenComplete((result, ex) -> {
+                        if (ex != null) {
+                            dbufDrainFailures.inc();
+                            log.error("Exception while draining dbuf for {}: {}", ueAddr, ex);
+                        } else if (result) {
+                            Up4Metrics.stop(dbufDrainTimer, start);
+                            dbufUeStats.recordDrainEnd(ueAddr.toInt(), System.currentTimeMillis());
+                            log.info("Dbuf drain completed for {}", ueAddr);
+                        } else {
+                            dbufDrainFailures.inc();
+                            log.warn("Unknown error while draining dbuf for {}", ueAddr);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Returns the UPF physical devices set up and currently available.
+     *
+     * @return available UPF devices
+     */
+    private Collection<DeviceId> availableUpfDevices() {
+        final Map<DeviceId, UpfProgrammable> programmables = upfProgrammables;
+        if (programmables == null) {
+            return ImmutableList.of();
+        }
+        return programmables.keySet().stream()
+                .filter(deviceService::isAvailable)
+                .collect(Collectors.toList());
+    }
+
+    @VisibleForTesting
+    DeviceId leaderUpfDevice() {
+        return leaderUpfDevice;
+    }
+
+    @VisibleForTesting
+    List<DeviceId> packetOutDevices() {
+        return packetOutDevices;
+    }
+
+    @VisibleForTesting
+    boolean isSyncing(DeviceId deviceId) {
+        return syncingDevices.contains(deviceId);
+    }
+
+    @Override
+    public Collection<DbufUeStats> dbufUeStats() {
+        // Dropped packets are counted by the clients, per dbuf instance.
+        final Map<Ip4Address, Long> droppedPackets = Maps.newHashMap();
+        dbufClients().forEach(c -> c.droppedPackets().forEach(
+                (ueAddr, count) -> droppedPackets.merge(ueAddr, count, Long::sum)));
+        final List<DbufUeStats> stats = Lists.newArrayList();
+        dbufUeStats.forEach((ueAddr, firstBufferTime, drainStartTime, drainEndTime, firstBufferCount) -> {
+            final Ip4Address ueIp4Addr = Ip4Address.valueOf(ueAddr);
+            stats.add(new DbufUeStats(ueIp4Addr, firstBufferTime, drainStartTime, drainEndTime,
+                                      firstBufferCount, droppedPackets.getOrDefault(ueIp4Addr, 0L)));
+            droppedPackets.remove(ueIp4Addr);
+        });
+        droppedPackets.forEach((ueAddr, count) -> stats.add(new DbufUeStats(ueAddr, 0, 0, 0, 0, count)));
+        return stats;
+    }
+
+    @Override
+    public List<DbufClient> dbufClients() {
+        final DbufClientPool pool = dbufClients;
+        return pool == null ? ImmutableList.of() : pool.clients();
+    }
+
     public void adminApply(UpfEntity entity) throws UpfProgrammableException {
         getLeaderUpfProgrammable().apply(entity);
     }
@@ -806,7 +1398,7 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
                     // Map the DBUF entities back to be BUFFERING entities.
                     return entities.stream().map(e -> {
                         UpfSessionDownlink sess = (UpfSessionDownlink) e;
-                        if (sess.tunPeerId() == DBUF_TUNNEL_ID) {
+                        if (isDbufTunnelPeerId(sess.tunPeerId())) {
                             return UpfSessionDownlink.builder()
                                     .needsBuffering(true)
                                     // Towards northbound, do not specify tunnel peer id
@@ -823,7 +1415,7 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
                 case TUNNEL_PEER:
                     // Don't expose DBUF GTP tunnel peer
                     return entities.stream()
-                            .filter(e -> ((UpfGtpTunnelPeer) e).tunPeerId() != DBUF_TUNNEL_ID)
+                            .filter(e -> !isDbufTunnelPeerId(((UpfGtpTunnelPeer) e).tunPeerId()))
                             .collect(Collectors.toList());
                 default:
                     return entities;
@@ -868,6 +1460,7 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
 
     @Override
     public void delete(UpfEntity entity) throws UpfProgrammableException {
+        final long validateStart = WriteTracer.stageStart();
         switch (entity.type()) {
             case SESSION_DOWNLINK:
                 UpfSessionDownlink sess = (UpfSessionDownlink) entity;
@@ -883,14 +1476,19 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
                 break;
             case TUNNEL_PEER:
                 UpfGtpTunnelPeer tunnel = (UpfGtpTunnelPeer) entity;
-                if (tunnel.tunPeerId() == DBUF_TUNNEL_ID) {
+                if (isDbufTunnelPeerId(tunnel.tunPeerId())) {
                     throw new UpfProgrammableException("Cannot delete the DBUF GTP tunnel peer");
                 }
                 break;
             default:
                 break;
         }
+        WriteTracer.stageEnd(WriteTracer.Stage.VALIDATE, validateStart);
+        final long start = System.nanoTime();
+        reconcileScheduler.recordWrite();
         getLeaderUpfProgrammable().delete(entity);
+        Up4Metrics.stop(deleteTimer, start);
+        WriteTracer.stageEnd(WriteTracer.Stage.LEADER_APPLY, start);
         forgetBufferingUeIfRequired(entity);
     }
 
@@ -904,6 +1502,9 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
         // the drain trigger
         if (entity.type().equals(SESSION_DOWNLINK)) {
             up4Store.forgetBufferingUe(((UpfSessionDownlink) entity).ueAddress());
+            drainSequencer.cancel(((UpfSessionDownlink) entity).ueAddress());
+            // The UE is detached, stop keeping its stats.
+            dbufUeStats.remove(((UpfSessionDownlink) entity).ueAddress().toInt());
         }
     }
 
@@ -913,6 +1514,7 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
             case TERMINATION_DOWNLINK:
                 getLeaderUpfProgrammable().deleteAll(entityType);
                 up4Store.reset();
+                drainSequencer.clear();
                 break;
             case INTERFACE:
                 Collection<? extends UpfEntity> intfs =
@@ -926,7 +1528,7 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
             case TUNNEL_PEER:
                 Collection<? extends UpfEntity> tunnels =
                         getLeaderUpfProgrammable().readAll(UpfEntityType.TUNNEL_PEER).stream()
-                                .filter(t -> ((UpfGtpTunnelPeer) t).tunPeerId() != DBUF_TUNNEL_ID)
+                                .filter(t -> !isDbufTunnelPeerId(((UpfGtpTunnelPeer) t).tunPeerId()))
                                 .collect(Collectors.toList());
                 for (UpfEntity tun : tunnels) {
                     getLeaderUpfProgrammable().delete(tun);
@@ -1006,6 +1608,7 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
         // When reading counters we need to explicitly read on all UPF physical
         // devices and aggregate counter values.
         assertUpfIsReady();
+        final long start = System.nanoTime();
         // TODO: add get on builder can simply this, by removing the need for building the PdrStat every time.
         UpfCounter.Builder builder = UpfCounter.builder();
         Map<Integer, UpfCounter> mapCounterIdStats = Maps.newHashMap();
@@ -1025,6 +1628,7 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
                 });
             });
         }
+        Up4Metrics.stop(counterReadTimer, start);
         return mapCounterIdStats.values();
     }
 
@@ -1054,14 +1658,57 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
     @Override
     public void sendPacketOut(ByteBuffer data) throws UpfProgrammableException {
         assertUpfIsReady();
-        var sendDevice = upfProgrammables.keySet().stream()
-                .filter(deviceId -> deviceService.isAvailable(deviceId)).findFirst();
-        if (sendDevice.isPresent()) {
-            upfProgrammables.get(sendDevice.get()).sendPacketOut(data);
-        } else {
+        final List<DeviceId> devices = packetOutDevices;
+        if (devices.isEmpty()) {
             throw new UpfProgrammableException(
                     "Unable to send packet-out, no UPF physical device available!");
         }
+        // Spread packet-outs across the available UPF physical devices.
+        final DeviceId deviceId = devices.size() == 1
+                ? devices.get(0) : packetOutDeviceSelector.select(devices, data);
+        final UpfProgrammable upfProgrammable = upfProgrammables.get(deviceId);
+        if (upfProgrammable == null) {
+            throw new UpfProgrammableException(
+                    "Unable to send packet-out, UPF physical device " + deviceId + " has been removed!");
+        }
+        upfProgrammable.sendPacketOut(data);
+    }
+
+    /**
+     * Updates the UPF physical devices used to send packet-outs, i.e., the ones
+     * that have been set up and are available.
+     */
+    private void updatePacketOutDevices() {
+        synchronized (packetOutDevicesLock) {
+            if (upfProgrammables == null) {
+                return;
+            }
+            final List<DeviceId> devices = upfProgrammables.keySet().stream()
+                    .filter(deviceService::isAvailable)
+                    .filter(deviceId -> !syncingDevices.contains(deviceId))
+                    .sorted(Comparator.comparing(DeviceId::toString))
+                    .collect(ImmutableList.toImmutableList());
+            if (!devices.equals(packetOutDevices)) {
+                log.info("UPF physical devices available for packet-out: {}", devices);
+                packetOutDevices = devices;
+            }
+        }
+    }
+
+    /**
+     * Stops using the given UPF physical device to send packet-outs.
+     *
+     * @param deviceId device identifier
+     */
+    private void removePacketOutDevice(DeviceId deviceId) {
+        synchronized (packetOutDevicesLock) {
+            if (packetOutDevices.contains(deviceId)) {
+                packetOutDevices = packetOutDevices.stream()
+                        .filter(d -> !d.equals(deviceId))
+                        .collect(ImmutableList.toImmutableList());
+                log.info("UPF physical device {} no longer used for packet-out", deviceId);
+            }
+        }
     }
 
     private boolean isMaxUeSet() {
@@ -1072,11 +1719,82 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
         return isMaxUeSet() ? config.maxUes() : NO_UE_LIMIT;
     }
 
+    /**
+     * Runs the next reconciliation pass now, if reconciliation is running.
+     */
+    private void reconcileNow() {
+        synchronized (upfInitialized) {
+            if (reconciliationTask == null) {
+                return;
+            }
+            if (reconcileRunning) {
+                // The running pass will schedule the next one right away.
+                reconcileRequested = true;
+                return;
+            }
+            // The scheduled pass might be just starting, thus it is replaced
+            // by incrementing the epoch, regardless of the outcome of cancel.
+            reconciliationTask.cancel(false);
+            reconcileEpoch++;
+            reconciliationTask = reconciliationExecutor.schedule(
+                    new ReconcileUpfDevices(), 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private UpfStateVersion upfStateVersion(DeviceId deviceId) {
+        return upfStateVersions.computeIfAbsent(deviceId, k -> new UpfStateVersion());
+    }
+
+    /**
+     * Rebuilds the version of the UPF state of the given device from the flow
+     * rule and meter stores, to recover from missed events.
+     *
+     * @param deviceId UPF physical device
+     */
+    private void rebuildUpfStateVersion(DeviceId deviceId) {
+        final UpfProgrammable upfProg = upfProgrammables.get(deviceId);
+        if (upfProg == null) {
+            return;
+        }
+        final List<FlowRule> rules =
+                StreamSupport.stream(flowRuleService.getFlowEntries(deviceId).spliterator(), false)
+                        .filter(upfProg::fromThisUpf)
+                        .filter(r -> r.state() == FlowEntryState.PENDING_ADD || r.state() == FlowEntryState.ADDED)
+                        .collect(Collectors.toList());
+        final List<Meter> meters = meterService.getMeters(deviceId).stream()
+                .filter(upfProg::fromThisUpf)
+                .filter(m -> m.state() == MeterState.PENDING_ADD || m.state() == MeterState.ADDED)
+                .collect(Collectors.toList());
+        upfStateVersion(deviceId).reset(rules, meters);
+    }
+
+    /**
+     * Returns the number of followers with a different UPF state than the
+     * leader, in constant time per follower. Followers with pending changes
+     * are counted.
+     *
+     * @return number of followers
+     */
+    private int followersOutOfSync() {
+        final Map<DeviceId, UpfProgrammable> programmables = upfProgrammables;
+        final DeviceId leader = leaderUpfDevice;
+        if (programmables == null || leader == null || !upfInitialized.get()) {
+            return 0;
+        }
+        final UpfStateVersion leaderVersion = upfStateVersion(leader);
+        return (int) programmables.keySet().stream()
+                .filter(deviceId -> !deviceId.equals(leader))
+                .filter(deviceId -> !upfStateVersion(deviceId).inSync(leaderVersion))
+                .count();
+    }
+
     private void stopReconcile() {
         if (reconciliationTask != null) {
             reconciliationTask.cancel(true);
             reconciliationTask = null;
         }
+        reconcileEpoch++;
+        reconciledGenerations.clear();
     }
 
     /**
@@ -1086,6 +1804,13 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
     private class InternalDeviceListener implements DeviceListener {
         @Override
         public void event(DeviceEvent event) {
+            final DeviceId deviceId = event.subject().id();
+            if ((event.type() == DeviceEvent.Type.DEVICE_AVAILABILITY_CHANGED ||
+                    event.type() == DeviceEvent.Type.DEVICE_REMOVED) &&
+                    !deviceService.isAvailable(deviceId)) {
+                // Fail over immediately, without waiting for queued events.
+                removePacketOutDevice(deviceId);
+            }
             eventExecutor.execute(() -> internalEventHandler(event));
         }
 
@@ -1096,8 +1821,21 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
                     case DEVICE_ADDED:
                     case DEVICE_UPDATED:
                     case DEVICE_AVAILABILITY_CHANGED:
+                        if (!deviceService.isAvailable(deviceId)) {
+                            failoverLeader(deviceId);
+                        } else if (event.type() == DeviceEvent.Type.DEVICE_AVAILABILITY_CHANGED &&
+                                upfInitialized.get() && upfProgrammables.containsKey(deviceId) &&
+                                !deviceId.equals(leaderUpfDevice)) {
+                            // Back as a follower, e.g., a previous leader.
+                            startBootstrapSync(deviceId);
+                        }
+                        if (event.type() == DeviceEvent.Type.DEVICE_AVAILABILITY_CHANGED) {
+                            reconcileScheduler.recordDeviceEvent(System.currentTimeMillis());
+                            reconcileNow();
+                        }
                         log.debug("Event: {}, setting UPF physical device", event.type());
                         setUpfDevice(deviceId);
+                        updatePacketOutDevices();
                         break;
                     case DEVICE_REMOVED:
                     case DEVICE_SUSPENDED:
@@ -1187,10 +1925,33 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
 
         @Override
         public void event(FlowRuleEvent event) {
+            final Map<DeviceId, UpfProgrammable> programmables = upfProgrammables;
+            final UpfProgrammable upfProg = programmables == null ? null
+                    : programmables.get(event.subject().deviceId());
+            if (upfProg != null && upfProg.fromThisUpf(event.subject())) {
+                // Updated before any other event handling, e.g., reconciliation.
+                switch (event.type()) {
+                    case RULE_ADD_REQUESTED:
+                    case RULE_ADDED:
+                    case RULE_UPDATED:
+                        upfStateVersion(event.subject().deviceId()).ruleAdded(event.subject());
+                        break;
+                    case RULE_REMOVE_REQUESTED:
+                    case RULE_REMOVED:
+                        upfStateVersion(event.subject().deviceId()).ruleRemoved(event.subject());
+                        break;
+                    default:
+                        break;
+                }
+            }
             eventExecutor.execute(() -> internalEventHandler(event));
         }
 
         private void internalEventHandler(FlowRuleEvent event) {
+            if (event.type() == FlowRuleEvent.Type.RULE_ADDED) {
+                handleRuleAdded(event.subject());
+                return;
+            }
             if ((event.type() == FlowRuleEvent.Type.RULE_ADD_REQUESTED ||
                     event.type() == FlowRuleEvent.Type.RULE_REMOVE_REQUESTED) &&
                     event.subject().deviceId().equals(leaderUpfDevice)) {
@@ -1222,6 +1983,44 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
         }
     }
 
+    /**
+     * Signals the drain sequencer that a rule for a buffering UE has been
+     * installed on a device. Such rules are identified by an exact match on
+     * the UE address.
+     *
+     * @param rule the installed rule
+     */
+    private void handleRuleAdded(FlowRule rule) {
+        if (drainSequencer.size() == 0 || upfProgrammables == null) {
+            return;
+        }
+        final UpfProgrammable upfProgrammable = upfProgrammables.get(rule.deviceId());
+        if (upfProgrammable == null || !upfProgrammable.fromThisUpf(rule)) {
+            return;
+        }
+        final Criterion criterion = rule.selector().getCriterion(Criterion.Type.PROTOCOL_INDEPENDENT);
+        if (criterion == null) {
+            return;
+        }
+        for (PiFieldMatch fieldMatch : ((PiCriterion) criterion).fieldMatches()) {
+            if (!(fieldMatch instanceof PiExactFieldMatch)) {
+                continue;
+            }
+            final ImmutableByteSequence value = ((PiExactFieldMatch) fieldMatch).value().canonical();
+            if (value.size() > Ip4Address.BYTE_LENGTH) {
+                continue;
+            }
+            final byte[] octets = new byte[Ip4Address.BYTE_LENGTH];
+            final byte[] valueBytes = value.asArray();
+            System.arraycopy(valueBytes, 0, octets, octets.length - valueBytes.length, valueBytes.length);
+            final Ip4Address ueAddr = Ip4Address.valueOf(octets);
+            if (drainSequencer.isTracked(ueAddr)) {
+                drainSequencer.ruleAdded(rule.deviceId(), ueAddr);
+                return;
+            }
+        }
+    }
+
     private FlowRule copyFlowRuleForDevice(FlowRule original, DeviceId newDevice) {
         var flowRuleBuilder = DefaultFlowRule.builder()
                 .fromApp(coreService.getAppId(original.appId()))
@@ -1240,6 +2039,23 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
 
         @Override
         public void event(MeterEvent event) {
+            final Map<DeviceId, UpfProgrammable> programmables = upfProgrammables;
+            final UpfProgrammable upfProg = programmables == null ? null
+                    : programmables.get(event.subject().deviceId());
+            if (upfProg != null && upfProg.fromThisUpf(event.subject())) {
+                switch (event.type()) {
+                    case METER_ADD_REQ:
+                    case METER_ADDED:
+                        upfStateVersion(event.subject().deviceId()).meterAdded(event.subject());
+                        break;
+                    case METER_REM_REQ:
+                    case METER_REMOVED:
+                        upfStateVersion(event.subject().deviceId()).meterRemoved(event.subject());
+                        break;
+                    default:
+                        break;
+                }
+            }
             eventExecutor.execute(() -> internalEventHandler(event));
         }
 
@@ -1296,173 +2112,293 @@ public class Up4DeviceManager extends AbstractListenerManager<Up4Event, Up4Event
         return mRequestBuilder.remove();
     }
 
-    private Meter copyMeterForDevice(Meter original, DeviceId newDevice) {
-        var meterBuilder = DefaultMeter.builder()
-                .fromApp(original.appId())
-                .forDevice(newDevice)
-                .withCellId(original.meterCellId())
-                .withBands(original.bands())
-                .withUnit(original.unit());
-        return meterBuilder.build();
+    /**
+     * Computes the differences between the UPF state of the leader and of
+     * the given follower, as stored in the flow rule and meter stores.
+     *
+     * @param deviceId       follower UPF physical device
+     * @param follower       follower UpfProgrammable
+     * @param includePending if true, the follower flow rules and meters
+     *                       pending to be added are considered installed
+     * @param buckets        if not null, only the flow rules and meters in
+     *                       these buckets of the UPF state version are compared
+     * @return the differences
+     */
+    private UpfStateDiff diffUpfState(DeviceId deviceId, UpfProgrammable follower, boolean includePending,
+                                      Set<List<Object>> buckets) {
+        final UpfProgrammable leader = upfProgrammables.get(leaderUpfDevice);
+        final List<FlowRule> leaderRules =
+                StreamSupport.stream(flowRuleService.getFlowEntries(leaderUpfDevice).spliterator(), false)
+                        .filter(leader::fromThisUpf)
+                        .filter(r -> r.state() == FlowEntryState.PENDING_ADD || r.state() == FlowEntryState.ADDED)
+                        .filter(r -> buckets == null || buckets.contains(UpfStateVersion.bucket(r)))
+                        .map(r -> copyFlowRuleForDevice(r, deviceId))
+                        .collect(Collectors.toList());
+        final List<FlowRule> followerRules =
+                StreamSupport.stream(flowRuleService.getFlowEntries(deviceId).spliterator(), false)
+                        .filter(follower::fromThisUpf)
+                        .filter(r -> r.state() == FlowEntryState.ADDED ||
+                                (includePending && r.state() == FlowEntryState.PENDING_ADD))
+                        .filter(r -> buckets == null || buckets.contains(UpfStateVersion.bucket(r)))
+                        .map(r -> copyFlowRuleForDevice(r, deviceId))
+                        .collect(Collectors.toList());
+        final List<Meter> leaderMeters = meterService.getMeters(leaderUpfDevice).stream()
+                .filter(leader::fromThisUpf)
+                .filter(m -> m.state() == MeterState.PENDING_ADD || m.state() == MeterState.ADDED)
+                .filter(m -> buckets == null || buckets.contains(UpfStateVersion.bucket(m)))
+                .collect(Collectors.toList());
+        final List<Meter> followerMeters = meterService.getMeters(deviceId).stream()
+                .filter(follower::fromThisUpf)
+                .filter(m -> m.state() == MeterState.ADDED ||
+                        (includePending && m.state() == MeterState.PENDING_ADD))
+                .filter(m -> buckets == null || buckets.contains(UpfStateVersion.bucket(m)))
+                .collect(Collectors.toList());
+        return UpfStateDiff.compute(leaderRules, followerRules, leaderMeters, followerMeters);
     }
 
-    private class ReconcileUpfDevices implements Runnable {
+    /**
+     * Applies to the given follower the operations required to bring it in
+     * sync with the leader. Flow rule operations are submitted in batches of
+     * the given size, processed in parallel by the flow rule subsystem.
+     * Meters are submitted one by one, as there is no batch API.
+     *
+     * @param deviceId  follower UPF physical device
+     * @param diff      differences with the leader
+     * @param batchSize maximum number of flow rule operations per batch
+     */
+    private void applyUpfStateDiff(DeviceId deviceId, UpfStateDiff diff, int batchSize) {
+        Lists.partition(diff.unexpectedRules(), batchSize).forEach(batch -> {
+            FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+            batch.forEach(r -> {
+                log.trace("Removing {} from {}", r, deviceId);
+                ops.remove(r);
+            });
+            flowRuleService.apply(ops.build());
+        });
+        Lists.partition(diff.staleRules(), batchSize).forEach(batch -> {
+            FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+            batch.forEach(r -> {
+                log.trace("Modifying {} in {}", r, deviceId);
+                ops.modify(r);
+            });
+            flowRuleService.apply(ops.build());
+        });
+        Lists.partition(diff.missingRules(), batchSize).forEach(batch -> {
+            FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
+            batch.forEach(r -> {
+                log.trace("Adding {} to {}", r, deviceId);
+                ops.add(r);
+            });
+            flowRuleService.apply(ops.build());
+        });
+        diff.unexpectedMeters().forEach(m -> {
+            log.trace("Removing {} from {}", m, deviceId);
+            meterService.withdraw(meterToMeterRequestForDevice(m, deviceId, false), m.meterCellId());
+        });
+        diff.staleMeters().forEach(m -> {
+            log.trace("Modifying {} in {}", m, deviceId);
+            meterService.submit(meterToMeterRequestForDevice(m, deviceId, true));
+        });
+        diff.missingMeters().forEach(m -> {
+            log.trace("Adding {} to {}", m, deviceId);
+            meterService.submit(meterToMeterRequestForDevice(m, deviceId, true));
+        });
+    }
+
+    /**
+     * Starts the bootstrap sync of the given follower UPF physical device,
+     * excluding it from packet-outs until in sync with the leader.
+     *
+     * @param deviceId follower UPF physical device
+     */
+    private void startBootstrapSync(DeviceId deviceId) {
+        if (syncingDevices.add(deviceId)) {
+            updatePacketOutDevices();
+            reconciliationExecutor.execute(new BootstrapSync(deviceId));
+        }
+    }
+
+    /**
+     * Bootstrap sync of a follower UPF physical device joining the UPF data
+     * plane, or available again after an outage. The leader state is
+     * snapshotted, and the differences are pushed to the follower by the
+     * ONOS instance mastering it. The sync is repeated until the follower
+     * state is installed and matches the leader one. Until then, the
+     * follower is excluded from packet-outs by all the ONOS instances.
+     */
+    private final class BootstrapSync implements Runnable {
+
+        private final DeviceId deviceId;
+        private final long start = System.nanoTime();
+        private int lastRemaining = -1;
+
+        private BootstrapSync(DeviceId deviceId) {
+            this.deviceId = deviceId;
+        }
 
         @Override
         public void run() {
+            final UpfProgrammable follower = upfProgrammables.get(deviceId);
+            if (!upfInitialized.get() || follower == null || deviceId.equals(leaderUpfDevice) ||
+                    !deviceService.isAvailable(deviceId) || !syncingDevices.contains(deviceId)) {
+                // Sync no longer required, or restarted when available again.
+                log.info("Bootstrap sync of {} stopped", deviceId);
+                finish();
+                return;
+            }
             try {
-                checkFlowRuleStateAndReconcile();
-            } catch (Exception e) {
-                log.error("Error during flow rules reconciliation: {}", e.getMessage());
+                if (mastershipService.isLocalMaster(deviceId)) {
+                    // Pending operations are considered done, don't repeat them.
+                    final UpfStateDiff toApply = diffUpfState(deviceId, follower, true, null);
+                    if (!toApply.isEmpty()) {
+                        log.info("Syncing {} from leader {}: {} flow rule and {} meter operations",
+                                 deviceId, leaderUpfDevice, toApply.ruleOps(), toApply.meterOps());
+                        applyUpfStateDiff(deviceId, toApply, followerSyncBatchSize);
+                    }
+                }
+                final UpfStateDiff diff = diffUpfState(deviceId, follower, false, null);
+                if (diff.isEmpty()) {
+                    log.info("{} in sync with leader {} after {} ms ({} flow rules, {} meters)",
+                             deviceId, leaderUpfDevice, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                             diff.leaderRules(), diff.leaderMeters());
+                    Up4Metrics.stop(followerSyncTimer, start);
+                    finish();
+                    return;
+                }
+                final int remaining = diff.ruleOps() + diff.meterOps();
+                if (remaining != lastRemaining) {
+                    log.info("Syncing {}: {}/{} flow rules and {}/{} meters in sync", deviceId,
+                             diff.rulesInSync(), diff.leaderRules(), diff.metersInSync(), diff.leaderMeters());
+                    lastRemaining = remaining;
+                }
+            } catch (RuntimeException e) {
+                log.warn("Error during bootstrap sync of {}: {}", deviceId, e.getMessage());
             }
+            reconciliationExecutor.schedule(this, BOOTSTRAP_SYNC_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+
+        private void finish() {
+            syncingDevices.remove(deviceId);
+            updatePacketOutDevices();
+        }
+    }
+
+    private class ReconcileUpfDevices implements Runnable {
+
+        // Created under the upfInitialized lock.
+        private final int epoch = reconcileEpoch;
+
+        @Override
+        public void run() {
+            synchronized (upfInitialized) {
+                if (epoch != reconcileEpoch) {
+                    // Stopped or replaced.
+                    return;
+                }
+                reconcileRunning = true;
+                reconcileRequested = false;
+            }
+            final long start = System.nanoTime();
+            if (upfInitialized.get()) {
+                // In degraded-ready mode, retry the setup of the UPF physical
+                // devices not set up yet, e.g., because init() failed.
+                upfDevices.stream()
+                        .filter(deviceId -> !upfProgrammables.containsKey(deviceId))
+                        .filter(deviceService::isAvailable)
+                        .forEach(Up4DeviceManager.this::setUpfDevice);
+            }
+            long driftOps = 0;
             try {
-                checkMeterStateAndReconcile();
+                driftOps = checkUpfStateAndReconcile();
             } catch (Exception e) {
-                log.error("Error during meters reconciliation: {}", e.getMessage());
+                log.error("Error during reconciliation: {}", e.getMessage());
+            }
+            Up4Metrics.stop(reconcileTimer, start);
+            final long nextDelay = reconcileScheduler.nextDelay(
+                    TimeUnit.SECONDS.toMillis(upfReconcileInterval), driftOps, System.currentTimeMillis());
+            synchronized (upfInitialized) {
+                reconcileRunning = false;
+                final long delay = reconcileRequested ? 0 : nextDelay;
+                reconcileRequested = false;
+                // Not rescheduled if stopped meanwhile.
+                if (reconciliationTask != null && epoch == reconcileEpoch && upfInitialized.get()) {
+                    log.debug("Next reconciliation pass in {} ms", delay);
+                    reconciliationTask = reconciliationExecutor.schedule(
+                            new ReconcileUpfDevices(), delay, TimeUnit.MILLISECONDS);
+                }
             }
         }
 
-        private void checkFlowRuleStateAndReconcile() throws UpfProgrammableException {
-            log.debug("Running flow rules reconciliation task...");
+        /**
+         * Reconciles the followers mastered by this instance, skipping the
+         * ones whose state, and the leader one, didn't change since they
+         * were last found in sync by a full comparison. The leader state
+         * version is rebuilt from the stores at every pass, as this instance
+         * might not receive the events of the leader. When the state version
+         * of a follower differs from the leader one, only the buckets that
+         * differ are compared first, and the follower is compared again in
+         * full by the next pass.
+         *
+         * @return number of operations applied to the followers
+         */
+        private long checkUpfStateAndReconcile() {
+            log.debug("Running reconciliation task...");
             assertUpfIsReady(); // Use assertUpfIsReady to generate exception and log it on the caller
 
+            final boolean fullPass = reconcileScheduler.fullPassRequired();
+            rebuildUpfStateVersion(leaderUpfDevice);
+            final UpfStateVersion leaderVersion = upfStateVersion(leaderUpfDevice);
+            long driftOps = 0;
             for (var entry : upfProgrammables.entrySet()) {
                 var deviceId = entry.getKey();
-                var upfProg = entry.getValue();
-                if (deviceId.equals(leaderUpfDevice)) {
+                if (deviceId.equals(leaderUpfDevice) || syncingDevices.contains(deviceId)) {
+                    // Followers being synced are reconciled by the bootstrap sync.
                     continue;
                 }
                 if (!mastershipService.isLocalMaster(deviceId)) {
                     continue;
                 }
-
-                Set<FlowRule> leaderRules =
-                    StreamSupport.stream(flowRuleService.getFlowEntries(leaderUpfDevice).spliterator(), false)
-                        .filter(r -> getLeaderUpfProgrammable().fromThisUpf(r))
-                        .filter(r -> r.state() == FlowEntryState.PENDING_ADD || r.state() == FlowEntryState.ADDED)
-                        .collect(Collectors.toSet());
-
-                // Replace the follower's device id with leader's id,
-                // so that we can re-use the exact match function to compare the state
-                Set<FlowRule> followerRules =
-                    StreamSupport.stream(flowRuleService.getFlowEntries(deviceId).spliterator(), false)
-                        .filter(r -> upfProg.fromThisUpf(r))
-                        .filter(r -> r.state() == FlowEntryState.PENDING_ADD || r.state() == FlowEntryState.ADDED)
-                        .map(r -> copyFlowRuleForDevice(r, leaderUpfDevice))
-                        .collect(Collectors.toSet());
-
+                if (fullPass) {
+                    rebuildUpfStateVersion(deviceId);
+                }
+                final UpfStateVersion followerVersion = upfStateVersion(deviceId);
+                // Read before comparing, so that changes made meanwhile are
+                // detected by the next pass.
+                final List<Object> generations = Arrays.asList(
+                        leaderUpfDevice, leaderVersion.generation(), followerVersion.generation());
+                if (!fullPass && generations.equals(reconciledGenerations.get(deviceId))) {
+                    log.debug("{} unchanged since last in sync with leader, skipping", deviceId);
+                    reconcileSkipped.inc();
+                    continue;
+                }
+                // A matching state version doesn't prove that the follower is
+                // in sync, e.g., if events were missed. A different one
+                // narrows down the comparison to the buckets that differ.
+                Set<List<Object>> buckets = fullPass || followerVersion.inSync(leaderVersion) ? null
+                        : leaderVersion.mismatchedBuckets(followerVersion);
                 // Collect the difference between leader and followers
                 // There are 3 situations
                 // Remove unexpected: Rule is in the follower but not in the leader
                 // Update stale: Rule is both on follower and leader but treatments are different
                 // Add missing: Rule is in the leader but not in the follower
-                FlowRuleOperations.Builder ops = FlowRuleOperations.builder();
-
-                Set<FlowRule> unexpectedRules =
-                    followerRules.stream()
-                        .filter(fr -> leaderRules.stream().noneMatch(lr -> lr.equals(fr)))
-                        .collect(Collectors.toSet());
-                followerRules.removeAll(unexpectedRules);
-                ops.newStage();
-                unexpectedRules.forEach(r -> {
-                    FlowRule flowRule = copyFlowRuleForDevice(r, deviceId);
-                    log.trace("Removing {} from {}", flowRule, deviceId);
-                    ops.remove(flowRule);
-                });
-
-                Set<FlowRule> staleRules =
-                    leaderRules.stream()
-                        .filter(lr -> followerRules.stream().noneMatch(fr -> fr.exactMatch(lr)))
-                        .filter(lr -> followerRules.stream().anyMatch(fr -> fr.equals(lr)))
-                        .collect(Collectors.toSet());
-                leaderRules.removeAll(staleRules);
-                ops.newStage();
-                staleRules.forEach(r -> {
-                    FlowRule flowRule = copyFlowRuleForDevice(r, deviceId);
-                    log.trace("Modifying {} in {}", flowRule, deviceId);
-                    ops.modify(flowRule);
-                });
-
-                Set<FlowRule> missingRules =
-                    leaderRules.stream()
-                        .filter(lr -> followerRules.stream().noneMatch(fr -> fr.equals(lr)))
-                        .collect(Collectors.toSet());
-                ops.newStage();
-                missingRules.forEach(r -> {
-                    FlowRule flowRule = copyFlowRuleForDevice(r, deviceId);
-                    log.trace("Adding {} to {}", flowRule, deviceId);
-                    ops.add(flowRule);
-                });
-
-                flowRuleService.apply(ops.build());
-            }
-        }
-
-        private void checkMeterStateAndReconcile() {
-            log.debug("Running meters reconciliation task...");
-            assertUpfIsReady(); // Use assertUpfIsReady to generate exception and log it on the caller
-
-            for (var entry : upfProgrammables.entrySet()) {
-                var deviceId = entry.getKey();
-                var upfProg = entry.getValue();
-                if (deviceId.equals(leaderUpfDevice)) {
-                    continue;
+                UpfStateDiff diff = diffUpfState(deviceId, entry.getValue(), true, buckets);
+                if (diff.isEmpty() && buckets != null) {
+                    // The state versions are wrong, not the follower.
+                    buckets = null;
+                    diff = diffUpfState(deviceId, entry.getValue(), true, null);
                 }
-                if (!mastershipService.isLocalMaster(deviceId)) {
-                    continue;
+                if (diff.isEmpty() && buckets == null) {
+                    reconciledGenerations.put(deviceId, generations);
+                } else {
+                    reconciledGenerations.remove(deviceId);
+                    log.debug("Reconciling {}: {} flow rule and {} meter operations",
+                              deviceId, diff.ruleOps(), diff.meterOps());
+                    applyUpfStateDiff(deviceId, diff, followerSyncBatchSize);
+                    driftOps += diff.ruleOps() + diff.meterOps();
                 }
-                Set<Meter> leaderMeters =
-                        meterService.getMeters(leaderUpfDevice).stream()
-                                .filter(getLeaderUpfProgrammable()::fromThisUpf)
-                                .filter(m -> m.state() == MeterState.PENDING_ADD || m.state() == MeterState.ADDED)
-                                .collect(Collectors.toSet());
-                Set<Meter> followerMeters =
-                        meterService.getMeters(deviceId).stream()
-                                .filter(upfProg::fromThisUpf)
-                                .filter(m -> m.state() == MeterState.PENDING_ADD || m.state() == MeterState.ADDED)
-                                .map(m -> copyMeterForDevice(m, leaderUpfDevice))
-                                .collect(Collectors.toSet());
-
-                // Remove unexpected: Meter is in the follower but not in the leader
-                // Update stale: Meter is both on follower and leader but bands are different
-                // Add missing: Meter is in the leader but not in the follower
-
-                Set<Meter> unexpectedMeters = followerMeters.stream()
-                        .filter(fr -> leaderMeters.stream().noneMatch(lr -> lr.equals(fr)))
-                        .collect(Collectors.toSet());
-                followerMeters.removeAll(unexpectedMeters);
-
-                Set<Meter> staleMeters = leaderMeters.stream()
-                        .filter(lr -> followerMeters.stream().noneMatch(fr -> fr.equals(lr)
-                                && fr.bands().size() == lr.bands().size() &&
-                                fr.bands().containsAll(lr.bands())))
-                        .filter(lr -> followerMeters.stream().anyMatch(fr -> fr.equals(lr)))
-                        .collect(Collectors.toSet());
-                leaderMeters.removeAll(staleMeters);
-
-                Set<Meter> missingMeters = leaderMeters.stream()
-                        .filter(lr -> followerMeters.stream().noneMatch(fr -> fr.equals(lr)))
-                        .collect(Collectors.toSet());
-
-                unexpectedMeters.stream()
-                        .map(m -> Pair.of(meterToMeterRequestForDevice(m, deviceId, false), m.meterCellId()))
-                        .forEach(m -> {
-                            log.trace("Removing {} from {}", m, deviceId);
-                            meterService.withdraw(m.getLeft(), m.getRight());
-                        });
-                staleMeters.stream()
-                        .map(m -> meterToMeterRequestForDevice(m, deviceId, true))
-                        .forEach(m -> {
-                            log.trace("Modifying {} in {}", m, deviceId);
-                            meterService.submit(m);
-                        });
-                missingMeters.stream()
-                        .map(m -> meterToMeterRequestForDevice(m, deviceId, true))
-                        .forEach(m -> {
-                            log.trace("Adding {} to {}", m, deviceId);
-                            meterService.submit(m);
-                        });
             }
+            reconcileScheduler.passDone(fullPass);
+            return driftOps;
         }
     }
 }
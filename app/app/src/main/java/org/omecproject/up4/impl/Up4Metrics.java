@@ -0,0 +1,134 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.onlab.metrics.MetricsComponent;
+import org.onlab.metrics.MetricsFeature;
+import org.onlab.metrics.MetricsService;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of a UP4 feature. Metrics are always updated, and are registered
+ * with the ONOS MetricsService, if available, under the "up4" component and
+ * the given feature, e.g., "up4.north.writeLatency".
+ */
+final class Up4Metrics {
+
+    static final String COMPONENT_NAME = "up4";
+
+    private final String featureName;
+    private final Map<String, Metric> metrics = Maps.newConcurrentMap();
+
+    private MetricsService metricsService;
+    private MetricsComponent component;
+    private MetricsFeature feature;
+
+    /**
+     * Creates a new set of metrics for the given feature.
+     *
+     * @param featureName feature name
+     */
+    Up4Metrics(String featureName) {
+        this.featureName = featureName;
+    }
+
+    /**
+     * Returns the timer with the given name, creating it if needed.
+     *
+     * @param name metric name
+     * @return timer
+     */
+    Timer timer(String name) {
+        return (Timer) metrics.computeIfAbsent(name, k -> new Timer());
+    }
+
+    /**
+     * Returns the meter with the given name, creating it if needed.
+     *
+     * @param name metric name
+     * @return meter
+     */
+    Meter meter(String name) {
+        return (Meter) metrics.computeIfAbsent(name, k -> new Meter());
+    }
+
+    /**
+     * Returns the counter with the given name, creating it if needed.
+     *
+     * @param name metric name
+     * @return counter
+     */
+    Counter counter(String name) {
+        return (Counter) metrics.computeIfAbsent(name, k -> new Counter());
+    }
+
+    /**
+     * Adds a gauge with the given name.
+     *
+     * @param name  metric name
+     * @param gauge gauge
+     * @param <T>   gauge value type
+     */
+    <T> void gauge(String name, Gauge<T> gauge) {
+        metrics.put(name, gauge);
+    }
+
+    /**
+     * Registers all the metrics created so far with the given service. Does
+     * nothing if the service is null.
+     *
+     * @param service metrics service, can be null
+     */
+    synchronized void register(MetricsService service) {
+        if (service == null || metricsService != null) {
+            return;
+        }
+        metricsService = service;
+        component = service.registerComponent(COMPONENT_NAME);
+        feature = component.registerFeature(featureName);
+        metrics.forEach((name, metric) -> service.registerMetric(component, feature, name, metric));
+    }
+
+    /**
+     * Removes the metrics from the service they are registered with, if any.
+     */
+    synchronized void unregister() {
+        if (metricsService == null) {
+            return;
+        }
+        metrics.keySet().forEach(name -> metricsService.removeMetric(component, feature, name));
+        metricsService = null;
+        component = null;
+        feature = null;
+    }
+
+    /**
+     * Returns the metrics, by name.
+     *
+     * @return metrics
+     */
+    Map<String, Metric> metrics() {
+        return ImmutableMap.copyOf(metrics);
+    }
+
+    /**
+     * Updates the given timer with the time elapsed since the given start.
+     *
+     * @param timer      timer
+     * @param startNanos start time, as returned by {@link System#nanoTime()}
+     */
+    static void stop(Timer timer, long startNanos) {
+        timer.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
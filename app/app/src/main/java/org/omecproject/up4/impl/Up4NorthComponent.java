@@ -4,10 +4,16 @@
  */
 package org.omecproject.up4.impl;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
-import com.google.protobuf.ByteString;
+import com.google.protobuf.Any;
 import com.google.protobuf.TextFormat;
+import com.google.protobuf.UInt64Value;
 import com.google.rpc.Code;
 import com.google.rpc.Status;
 import io.grpc.Server;
@@ -19,9 +25,16 @@ import org.omecproject.up4.Up4Event;
 import org.omecproject.up4.Up4EventListener;
 import org.omecproject.up4.Up4Service;
 import org.omecproject.up4.Up4Translator;
+import org.onlab.metrics.MetricsService;
 import org.onlab.util.HexString;
 import org.onlab.util.ImmutableByteSequence;
 import org.onlab.util.SharedExecutors;
+import org.onlab.util.SharedScheduledExecutors;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.cluster.ClusterEvent;
+import org.onosproject.cluster.ClusterEventListener;
+import org.onosproject.cluster.ClusterService;
 import org.onosproject.net.behaviour.upf.UpfCounter;
 import org.onosproject.net.behaviour.upf.UpfEntity;
 import org.onosproject.net.behaviour.upf.UpfEntityType;
@@ -42,15 +55,21 @@ import org.onosproject.p4runtime.ctl.utils.P4InfoBrowser;
 import org.onosproject.p4runtime.ctl.utils.PipeconfHelper;
 import org.onosproject.p4runtime.model.P4InfoParser;
 import org.onosproject.p4runtime.model.P4InfoParserException;
+import org.onosproject.store.serializers.KryoNamespaces;
+import org.onosproject.store.service.AtomicValue;
+import org.onosproject.store.service.AtomicValueEventListener;
+import org.onosproject.store.service.Serializer;
+import org.onosproject.store.service.StorageService;
+import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import p4.config.v1.P4InfoOuterClass;
-import p4.v1.P4DataOuterClass;
 import p4.v1.P4RuntimeGrpc;
 import p4.v1.P4RuntimeOuterClass;
 
@@ -59,17 +78,52 @@ import java.net.URL;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Dictionary;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import static io.grpc.Status.INVALID_ARGUMENT;
 import static io.grpc.Status.PERMISSION_DENIED;
 import static io.grpc.Status.UNIMPLEMENTED;
 import static java.lang.String.format;
 import static org.omecproject.up4.impl.AppConstants.PIPECONF_ID;
+import static org.omecproject.up4.impl.AppConstants.READ_ONLY_ROLE_ID;
 import static org.omecproject.up4.impl.ExtraP4InfoConstants.DDN_DIGEST_ID;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.COUNTER_PUSH_ENABLED;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.COUNTER_PUSH_ENABLED_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.COUNTER_PUSH_MIN_BYTES;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.COUNTER_PUSH_MIN_BYTES_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.COUNTER_PUSH_MIN_PACKETS;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.COUNTER_PUSH_MIN_PACKETS_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.DDN_ACK_TIMEOUT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.DDN_ACK_TIMEOUT_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.DDN_MAX_LIST_SIZE;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.DDN_MAX_LIST_SIZE_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.DDN_MAX_OUTSTANDING_LISTS;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.DDN_MAX_OUTSTANDING_LISTS_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.DDN_MAX_RETRANSMITS;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.DDN_MAX_RETRANSMITS_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.DDN_MAX_TIMEOUT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.DDN_MAX_TIMEOUT_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.DDN_RETRANSMIT_TIMEOUT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.DDN_RETRANSMIT_TIMEOUT_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.READ_ONLY_SERVER_PORT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.READ_ONLY_SERVER_PORT_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.STREAM_QUEUE_FULL_POLICY;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.STREAM_QUEUE_FULL_POLICY_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.STREAM_QUEUE_SIZE;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.STREAM_QUEUE_SIZE_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.WRITE_TRACE_SAMPLE_RATE;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.WRITE_TRACE_SAMPLE_RATE_DEFAULT;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.WRITE_TRACE_SLOW_THRESHOLD;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.WRITE_TRACE_SLOW_THRESHOLD_DEFAULT;
 import static org.omecproject.up4.impl.Up4P4InfoConstants.POST_QOS_PIPE_POST_QOS_COUNTER;
 import static org.omecproject.up4.impl.Up4P4InfoConstants.PRE_QOS_PIPE_APP_METER;
 import static org.omecproject.up4.impl.Up4P4InfoConstants.PRE_QOS_PIPE_PRE_QOS_COUNTER;
@@ -86,30 +140,178 @@ import static org.onosproject.net.pi.model.PiPipeconf.ExtensionType.P4_INFO_TEXT
          restart the grpc server on the new port.
  */
 
-@Component(immediate = true, service = Up4NorthComponent.class)
+@Component(immediate = true, service = Up4NorthComponent.class,
+        property = {
+                STREAM_QUEUE_SIZE + ":Integer=" + STREAM_QUEUE_SIZE_DEFAULT,
+                STREAM_QUEUE_FULL_POLICY + "=" + STREAM_QUEUE_FULL_POLICY_DEFAULT,
+                DDN_MAX_LIST_SIZE + ":Integer=" + DDN_MAX_LIST_SIZE_DEFAULT,
+                DDN_MAX_TIMEOUT + ":Long=" + DDN_MAX_TIMEOUT_DEFAULT,
+                DDN_ACK_TIMEOUT + ":Long=" + DDN_ACK_TIMEOUT_DEFAULT,
+                DDN_MAX_OUTSTANDING_LISTS + ":Integer=" + DDN_MAX_OUTSTANDING_LISTS_DEFAULT,
+                DDN_RETRANSMIT_TIMEOUT + ":Long=" + DDN_RETRANSMIT_TIMEOUT_DEFAULT,
+                DDN_MAX_RETRANSMITS + ":Integer=" + DDN_MAX_RETRANSMITS_DEFAULT,
+                WRITE_TRACE_SAMPLE_RATE + ":Integer=" + WRITE_TRACE_SAMPLE_RATE_DEFAULT,
+                WRITE_TRACE_SLOW_THRESHOLD + ":Long=" + WRITE_TRACE_SLOW_THRESHOLD_DEFAULT,
+                COUNTER_PUSH_ENABLED + ":Boolean=" + COUNTER_PUSH_ENABLED_DEFAULT,
+                COUNTER_PUSH_MIN_PACKETS + ":Long=" + COUNTER_PUSH_MIN_PACKETS_DEFAULT,
+                COUNTER_PUSH_MIN_BYTES + ":Long=" + COUNTER_PUSH_MIN_BYTES_DEFAULT,
+                READ_ONLY_SERVER_PORT + ":Integer=" + READ_ONLY_SERVER_PORT_DEFAULT,
+        })
 public class Up4NorthComponent {
     private static final ImmutableByteSequence ZERO_SEQ = ImmutableByteSequence.ofZeros(4);
     private static final int DEFAULT_DEVICE_ID = 1;
+    private static final String ARBITRATION_PRIMARY_NAME = "up4-arbitration-primary";
+    private static final int WRITE_TRACE_CAPACITY = 128;
+    // Maximum number of counter entities in a pushed message.
+    private static final int COUNTER_PUSH_MAX_ENTITIES = 1024;
 
     @Reference(cardinality = ReferenceCardinality.MANDATORY)
     protected Up4Service up4Service;
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ComponentConfigService componentConfigService;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL)
+    protected MetricsService metricsService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected Up4CounterComponent up4CounterComponent;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected ClusterService clusterService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY)
+    protected StorageService storageService;
+
     protected final Up4Translator up4Translator = new Up4TranslatorImpl();
-    protected final Up4NorthService up4NorthService = new Up4NorthService();
+    protected final Up4NorthService up4NorthService = new Up4NorthService(false);
+    protected final Up4NorthService up4ReadOnlyService = new Up4NorthService(true);
     private final Logger log = LoggerFactory.getLogger(getClass());
     private final Up4EventListener up4EventListener = new InternalUp4EventListener();
     // Stores open P4Runtime StreamChannel(s)
-    private final ConcurrentMap<P4RuntimeOuterClass.Uint128,
-            StreamObserver<P4RuntimeOuterClass.StreamMessageResponse>> streams =
+    private final ConcurrentMap<P4RuntimeOuterClass.Uint128, StreamChannelSender> streams =
             Maps.newConcurrentMap();
-    private final AtomicInteger ddnDigestListId = new AtomicInteger(0);
+    // StreamChannel(s) of the read-only clients, not subject to arbitration, to their election_id
+    private final ConcurrentMap<StreamChannelSender, P4RuntimeOuterClass.Uint128> readOnlyStreams =
+            Maps.newConcurrentMap();
+    // Packs DDNs in DigestLists and suppresses duplicate DDNs for the same UE
+    private final DdnDigestAggregator ddnAggregator = new DdnDigestAggregator(
+            this::sendDdnDigestList, this::canSendDdnDigestList,
+            SharedScheduledExecutors.getSingleThreadExecutor(),
+            DDN_MAX_LIST_SIZE_DEFAULT, DDN_MAX_TIMEOUT_DEFAULT, DDN_ACK_TIMEOUT_DEFAULT);
+    private final Up4Metrics metrics = new Up4Metrics("north");
+    private final Timer writeTimer = metrics.timer("writeLatency");
+    private final Timer readTimer = metrics.timer("readLatency");
+    private final Timer translationTimer = metrics.timer("translationTime");
+    private final Counter writeErrors = metrics.counter("writeErrors");
+    private final Meter ddnMeter = metrics.meter("ddnRate");
+    private final Counter counterPushCells = metrics.counter("counterPushCells");
+    private final Counter counterPushResends = metrics.counter("counterPushResends");
+    private final WriteTracer writeTracer = new WriteTracer(
+            WRITE_TRACE_CAPACITY, WRITE_TRACE_SAMPLE_RATE_DEFAULT, WRITE_TRACE_SLOW_THRESHOLD_DEFAULT);
+    // Counter values pushed to each client.
+    private final Map<StreamChannelSender, CounterPushTracker> counterPushTrackers = Maps.newConcurrentMap();
+    private final Consumer<CounterSnapshot> counterSnapshotListener = this::pushCounters;
+    // Keeps the counter snapshots going while the read-only server is running.
+    private final Consumer<CounterSnapshot> readOnlySnapshotListener = snapshot -> { };
+    private final AtomicValueEventListener<Up4Arbitrator.Primary> primaryListener =
+            event -> SharedExecutors.getPoolThreadExecutor().execute(this::refreshArbitration);
+    private final ClusterEventListener clusterListener = new InternalClusterListener();
+    // Replaced with a cluster-wide arbitrator on activation.
+    private volatile Up4Arbitrator arbitrator = Up4Arbitrator.local();
+    private AtomicValue<Up4Arbitrator.Primary> primaryValue;
+
+    /**
+     * Maximum number of messages queued for each StreamChannel client.
+     */
+    private int streamQueueSize = STREAM_QUEUE_SIZE_DEFAULT;
+
+    /**
+     * Policy applied when a StreamChannel queue is full.
+     */
+    private StreamChannelSender.FullQueuePolicy streamQueueFullPolicy =
+            StreamChannelSender.FullQueuePolicy.valueOf(STREAM_QUEUE_FULL_POLICY_DEFAULT);
+
+    /**
+     * Maximum number of UE addresses in a DDN DigestList.
+     */
+    private int ddnMaxListSize = DDN_MAX_LIST_SIZE_DEFAULT;
+
+    /**
+     * Maximum time (in milliseconds) a DDN waits before being sent to clients.
+     * If 0, DDNs are sent as soon as generated.
+     */
+    private long ddnMaxTimeout = DDN_MAX_TIMEOUT_DEFAULT;
+
+    /**
+     * Time (in milliseconds) after which a DDN for a UE can be sent again if
+     * the previous one has not been acknowledged. If 0, DDNs are never suppressed.
+     * Never shorter than the time the DigestList is retransmitted for, see
+     * {@link #ddnSuppressionTimeout()}.
+     */
+    private long ddnAckTimeout = DDN_ACK_TIMEOUT_DEFAULT;
+
+    /**
+     * Maximum number of DDN DigestLists sent to a client and not yet acknowledged.
+     * New DigestLists are held back while all clients reached this limit.
+     */
+    private int ddnMaxOutstandingLists = DDN_MAX_OUTSTANDING_LISTS_DEFAULT;
+
+    /**
+     * Time (in milliseconds) after which a DDN DigestList not acknowledged by a
+     * client is sent again to that client.
+     */
+    private long ddnRetransmitTimeout = DDN_RETRANSMIT_TIMEOUT_DEFAULT;
+
+    /**
+     * Maximum number of times a DDN DigestList is sent again to a client.
+     */
+    private int ddnMaxRetransmits = DDN_MAX_RETRANSMITS_DEFAULT;
+
+    /**
+     * Trace one every writeTraceSampleRate write requests. If 0, tracing is disabled.
+     */
+    private int writeTraceSampleRate = WRITE_TRACE_SAMPLE_RATE_DEFAULT;
+
+    /**
+     * Minimum duration (in milliseconds) of the traced write requests kept for inspection.
+     */
+    private long writeTraceSlowThreshold = WRITE_TRACE_SLOW_THRESHOLD_DEFAULT;
+
+    /**
+     * If true, the counter cells that changed are pushed to the clients over
+     * the StreamChannel every time a new counter snapshot is taken.
+     */
+    private volatile boolean counterPushEnabled = COUNTER_PUSH_ENABLED_DEFAULT;
+
+    /**
+     * Minimum increase in packets, since the last push, for a counter cell to be pushed.
+     */
+    private volatile long counterPushMinPackets = COUNTER_PUSH_MIN_PACKETS_DEFAULT;
+
+    /**
+     * Minimum increase in bytes, since the last push, for a counter cell to be pushed.
+     */
+    private volatile long counterPushMinBytes = COUNTER_PUSH_MIN_BYTES_DEFAULT;
+
+    /**
+     * TCP port of the P4Runtime server for read-only clients, whose reads are
+     * served from the counter snapshots. If 0, the server is not started.
+     */
+    private int readOnlyServerPort = READ_ONLY_SERVER_PORT_DEFAULT;
+
+    private ScheduledFuture<?> ddnRetransmitTask;
 
     protected P4InfoOuterClass.P4Info p4Info;
     protected PiPipeconf pipeconf;
     private Server server;
+    private Server readOnlyServer;
     private long pipeconfCookie = 0xbeefbeef;
 
     public Up4NorthComponent() {
+        metrics.gauge("streamChannels", streams::size);
+        metrics.gauge("streamQueueDepth", () -> streams.values().stream()
+                .mapToInt(StreamChannelSender::queueDepth).sum());
     }
 
     protected static PiPipeconf buildPipeconf() throws P4InfoParserException {
@@ -125,6 +327,7 @@ public class Up4NorthComponent {
     @Activate
     protected void activate() {
         log.info("Starting...");
+        componentConfigService.registerProperties(getClass());
         // Load p4info.
         try {
             pipeconf = buildPipeconf();
@@ -144,21 +347,357 @@ public class Up4NorthComponent {
             log.error("Unable to start gRPC server", e);
             throw new IllegalStateException("Unable to start gRPC server", e);
         }
+        // Arbitrate clients across the cluster.
+        primaryValue = storageService.<Up4Arbitrator.Primary>atomicValueBuilder()
+                .withName(ARBITRATION_PRIMARY_NAME)
+                .withSerializer(Serializer.using(KryoNamespaces.API, Up4Arbitrator.Primary.class))
+                .build()
+                .asAtomicValue();
+        arbitrator = new Up4Arbitrator(clusterService.getLocalNode().id(), new Up4Arbitrator.PrimaryStore() {
+            @Override
+            public Up4Arbitrator.Primary get() {
+                return primaryValue.get();
+            }
+
+            @Override
+            public boolean compareAndSet(Up4Arbitrator.Primary expect, Up4Arbitrator.Primary update) {
+                return primaryValue.compareAndSet(expect, update);
+            }
+        }, nodeId -> clusterService.getState(nodeId).isActive());
+        primaryValue.addListener(primaryListener);
+        clusterService.addListener(clusterListener);
         // Listen for events.
         up4Service.addListener(up4EventListener);
+        ddnAggregator.configure(ddnMaxListSize, ddnMaxTimeout, ddnSuppressionTimeout());
+        scheduleDdnRetransmit();
+        metrics.register(metricsService);
         log.info("Started.");
     }
 
     @Deactivate
     protected void deactivate() {
         log.info("Shutting down...");
+        componentConfigService.unregisterProperties(getClass(), false);
         up4Service.removeListener(up4EventListener);
         if (server != null) {
             server.shutdown();
         }
+        synchronized (this) {
+            stopReadOnlyServer();
+        }
+        clusterService.removeListener(clusterListener);
+        if (primaryValue != null) {
+            primaryValue.removeListener(primaryListener);
+            // Let the clients of other instances take over.
+            streams.keySet().forEach(arbitrator::release);
+            primaryValue = null;
+        }
+        synchronized (this) {
+            if (ddnRetransmitTask != null) {
+                ddnRetransmitTask.cancel(false);
+                ddnRetransmitTask = null;
+            }
+        }
+        ddnAggregator.clear();
+        setCounterPushEnabled(false);
+        metrics.unregister();
         log.info("Stopped.");
     }
 
+    @Modified
+    protected void modified(ComponentContext context) {
+        Dictionary<?, ?> properties = context != null ? context.getProperties() : new Properties();
+        Integer queueSize = Tools.getIntegerProperty(properties, STREAM_QUEUE_SIZE);
+        if (queueSize != null) {
+            if (queueSize > 0) {
+                streamQueueSize = queueSize;
+            } else {
+                log.warn("Invalid {} {}, must be greater than 0", STREAM_QUEUE_SIZE, queueSize);
+            }
+        }
+        String fullQueuePolicy = Tools.get(properties, STREAM_QUEUE_FULL_POLICY);
+        if (fullQueuePolicy != null) {
+            try {
+                streamQueueFullPolicy = StreamChannelSender.FullQueuePolicy.valueOf(fullQueuePolicy.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid {} {}", STREAM_QUEUE_FULL_POLICY, fullQueuePolicy);
+            }
+        }
+        Integer maxListSize = Tools.getIntegerProperty(properties, DDN_MAX_LIST_SIZE);
+        if (maxListSize != null) {
+            if (maxListSize > 0) {
+                ddnMaxListSize = maxListSize;
+            } else {
+                log.warn("Invalid {} {}, must be greater than 0", DDN_MAX_LIST_SIZE, maxListSize);
+            }
+        }
+        Long maxTimeout = Tools.getLongProperty(properties, DDN_MAX_TIMEOUT);
+        if (maxTimeout != null) {
+            if (maxTimeout >= 0) {
+                ddnMaxTimeout = maxTimeout;
+            } else {
+                log.warn("Invalid {} {}, must be 0 or greater", DDN_MAX_TIMEOUT, maxTimeout);
+            }
+        }
+        Long ackTimeout = Tools.getLongProperty(properties, DDN_ACK_TIMEOUT);
+        if (ackTimeout != null) {
+            if (ackTimeout >= 0) {
+                ddnAckTimeout = ackTimeout;
+            } else {
+                log.warn("Invalid {} {}, must be 0 or greater", DDN_ACK_TIMEOUT, ackTimeout);
+            }
+        }
+        Integer maxOutstandingLists = Tools.getIntegerProperty(properties, DDN_MAX_OUTSTANDING_LISTS);
+        if (maxOutstandingLists != null) {
+            if (maxOutstandingLists > 0) {
+                // Applies to new StreamChannels.
+                ddnMaxOutstandingLists = maxOutstandingLists;
+            } else {
+                log.warn("Invalid {} {}, must be greater than 0", DDN_MAX_OUTSTANDING_LISTS, maxOutstandingLists);
+            }
+        }
+        Integer maxRetransmits = Tools.getIntegerProperty(properties, DDN_MAX_RETRANSMITS);
+        if (maxRetransmits != null) {
+            if (maxRetransmits >= 0) {
+                ddnMaxRetransmits = maxRetransmits;
+            } else {
+                log.warn("Invalid {} {}, must be 0 or greater", DDN_MAX_RETRANSMITS, maxRetransmits);
+            }
+        }
+        Integer traceSampleRate = Tools.getIntegerProperty(properties, WRITE_TRACE_SAMPLE_RATE);
+        if (traceSampleRate != null) {
+            if (traceSampleRate >= 0) {
+                writeTraceSampleRate = traceSampleRate;
+            } else {
+                log.warn("Invalid {} {}, must be 0 or greater", WRITE_TRACE_SAMPLE_RATE, traceSampleRate);
+            }
+        }
+        Long traceSlowThreshold = Tools.getLongProperty(properties, WRITE_TRACE_SLOW_THRESHOLD);
+        if (traceSlowThreshold != null) {
+            if (traceSlowThreshold >= 0) {
+                writeTraceSlowThreshold = traceSlowThreshold;
+            } else {
+                log.warn("Invalid {} {}, must be 0 or greater", WRITE_TRACE_SLOW_THRESHOLD, traceSlowThreshold);
+            }
+        }
+        writeTracer.configure(writeTraceSampleRate, writeTraceSlowThreshold);
+        Long pushMinPackets = Tools.getLongProperty(properties, COUNTER_PUSH_MIN_PACKETS);
+        if (pushMinPackets != null) {
+            if (pushMinPackets >= 0) {
+                counterPushMinPackets = pushMinPackets;
+            } else {
+                log.warn("Invalid {} {}, must be 0 or greater", COUNTER_PUSH_MIN_PACKETS, pushMinPackets);
+            }
+        }
+        Long pushMinBytes = Tools.getLongProperty(properties, COUNTER_PUSH_MIN_BYTES);
+        if (pushMinBytes != null) {
+            if (pushMinBytes >= 0) {
+                counterPushMinBytes = pushMinBytes;
+            } else {
+                log.warn("Invalid {} {}, must be 0 or greater", COUNTER_PUSH_MIN_BYTES, pushMinBytes);
+            }
+        }
+        Boolean pushEnabled = Tools.isPropertyEnabled(properties, COUNTER_PUSH_ENABLED);
+        if (pushEnabled != null) {
+            setCounterPushEnabled(pushEnabled);
+        }
+        Integer roServerPort = Tools.getIntegerProperty(properties, READ_ONLY_SERVER_PORT);
+        if (roServerPort != null && roServerPort != readOnlyServerPort) {
+            if (roServerPort >= 0 && roServerPort <= 0xFFFF) {
+                synchronized (this) {
+                    readOnlyServerPort = roServerPort;
+                    stopReadOnlyServer();
+                    startReadOnlyServer();
+                }
+            } else {
+                log.warn("Invalid {} {}, must be between 0 and 65535", READ_ONLY_SERVER_PORT, roServerPort);
+            }
+        }
+        Long retransmitTimeout = Tools.getLongProperty(properties, DDN_RETRANSMIT_TIMEOUT);
+        if (retransmitTimeout != null && retransmitTimeout != ddnRetransmitTimeout) {
+            if (retransmitTimeout > 0) {
+                ddnRetransmitTimeout = retransmitTimeout;
+                synchronized (this) {
+                    if (ddnRetransmitTask != null) {
+                        ddnRetransmitTask.cancel(false);
+                        scheduleDdnRetransmit();
+                    }
+                }
+            } else {
+                log.warn("Invalid {} {}, must be greater than 0", DDN_RETRANSMIT_TIMEOUT, retransmitTimeout);
+            }
+        }
+        ddnAggregator.configure(ddnMaxListSize, ddnMaxTimeout, ddnSuppressionTimeout());
+    }
+
+    /**
+     * Returns the time after which an unacknowledged DDN for a UE can be sent
+     * again. The DigestList is retransmitted to the primary client until
+     * acknowledged, or given up after ddnMaxRetransmits retransmissions, each
+     * at most 1.5 ddnRetransmitTimeout after the previous one (see
+     * {@link #scheduleDdnRetransmit()}). Suppressing DDNs for less than that
+     * would send the same UE in a new list while the previous one is still
+     * being retransmitted. Giving up releases the UE earlier.
+     *
+     * @return suppression timeout in milliseconds, 0 if DDNs are never suppressed
+     */
+    private long ddnSuppressionTimeout() {
+        if (ddnAckTimeout == 0) {
+            return 0;
+        }
+        final long retransmitPeriod = ddnRetransmitTimeout + ddnRetransmitTimeout / 2;
+        return Math.max(ddnAckTimeout, (ddnMaxRetransmits + 1) * retransmitPeriod);
+    }
+
+    private void startReadOnlyServer() {
+        if (readOnlyServerPort == 0) {
+            return;
+        }
+        try {
+            readOnlyServer = NettyServerBuilder.forPort(readOnlyServerPort)
+                    .addService(up4ReadOnlyService)
+                    .build()
+                    .start();
+            up4CounterComponent.addListener(readOnlySnapshotListener);
+            log.info("UP4 read-only gRPC server started on port {}", readOnlyServerPort);
+        } catch (IOException e) {
+            log.error("Unable to start read-only gRPC server on port {}: {}", readOnlyServerPort, e.getMessage());
+            readOnlyServer = null;
+        }
+    }
+
+    private void stopReadOnlyServer() {
+        if (readOnlyServer != null) {
+            readOnlyServer.shutdown();
+            readOnlyServer = null;
+            up4CounterComponent.removeListener(readOnlySnapshotListener);
+            log.info("UP4 read-only gRPC server stopped");
+        }
+    }
+
+    private void removeStream(P4RuntimeOuterClass.Uint128 electionId, StreamChannelSender sender) {
+        counterPushTrackers.remove(sender);
+        readOnlyStreams.remove(sender);
+        if (streams.remove(electionId, sender) && arbitrator.release(electionId)) {
+            log.info("Primary client with election_id {} disconnected", TextFormat.shortDebugString(electionId));
+        }
+        refreshArbitration();
+    }
+
+    /**
+     * Changes the resync token given to the primary client, so that clients
+     * re-read the state after reconnecting. To be called on writes to the
+     * UPF data plane not coming from the clients, e.g., from the CLI.
+     */
+    public void invalidateResyncToken() {
+        arbitrator.invalidate();
+    }
+
+    /**
+     * Promotes the local client with the highest election_id, if higher than
+     * the one of the current primary or if there is no primary, and notifies
+     * the clients whose role changed.
+     */
+    private synchronized void refreshArbitration() {
+        try {
+            streams.keySet().stream().max(Up4Arbitrator::compare).ifPresent(arbitrator::arbitrate);
+            final P4RuntimeOuterClass.Uint128 primary = arbitrator.primaryElectionId();
+            final long epoch = arbitrator.epoch();
+            streams.forEach((electionId, sender) -> {
+                final boolean isPrimary = arbitrator.isPrimary(electionId);
+                if (sender.setPrimary(isPrimary)) {
+                    sender.send(arbitrationResponse(electionId, primary, isPrimary, epoch));
+                }
+            });
+        } catch (Exception e) {
+            log.error("Error while refreshing the arbitration of clients", e);
+        }
+    }
+
+    /**
+     * Builds the arbitration update sent to a client. The primary receives an
+     * OK status, carrying the resync token as detail. If the token is equal
+     * to the one received in the previous arbitration as primary, no other
+     * client has been primary since then, and the client can skip
+     * re-reading the state. Backups receive ALREADY_EXISTS, or NOT_FOUND if
+     * there is no primary, with the election_id of the primary.
+     */
+    private P4RuntimeOuterClass.StreamMessageResponse arbitrationResponse(
+            P4RuntimeOuterClass.Uint128 electionId, P4RuntimeOuterClass.Uint128 primary,
+            boolean isPrimary, long epoch) {
+        final Status.Builder status = Status.newBuilder();
+        if (isPrimary) {
+            status.setCode(Code.OK.getNumber())
+                    .addDetails(Any.pack(UInt64Value.of(epoch)));
+        } else if (primary != null) {
+            status.setCode(Code.ALREADY_EXISTS.getNumber())
+                    .setMessage("A primary client is connected");
+        } else {
+            status.setCode(Code.NOT_FOUND.getNumber())
+                    .setMessage("No primary client is connected");
+        }
+        return P4RuntimeOuterClass.StreamMessageResponse.newBuilder()
+                .setArbitration(P4RuntimeOuterClass.MasterArbitrationUpdate.newBuilder()
+                                        .setDeviceId(DEFAULT_DEVICE_ID)
+                                        .setRole(P4RuntimeOuterClass.Role.getDefaultInstance())
+                                        .setElectionId(primary != null ? primary : electionId)
+                                        .setStatus(status)
+                                        .build())
+                .build();
+    }
+
+    private synchronized void setCounterPushEnabled(boolean enabled) {
+        if (enabled == counterPushEnabled) {
+            return;
+        }
+        counterPushEnabled = enabled;
+        if (enabled) {
+            up4CounterComponent.addListener(counterSnapshotListener);
+            log.info("Pushing counters to StreamChannel clients");
+        } else {
+            up4CounterComponent.removeListener(counterSnapshotListener);
+            counterPushTrackers.clear();
+            log.info("Stopped pushing counters to StreamChannel clients");
+        }
+    }
+
+    private synchronized void scheduleDdnRetransmit() {
+        // Check twice per timeout, so that lists are retransmitted at most
+        // 1.5 timeouts after the previous transmission.
+        final long period = Math.max(ddnRetransmitTimeout / 2, 1);
+        ddnRetransmitTask = SharedScheduledExecutors.getSingleThreadExecutor().scheduleAtFixedRate(
+                this::retransmitDdnDigestLists, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the senders of the currently open StreamChannel(s), by election_id.
+     * Used for debug purposes only.
+     *
+     * @return map of election_id to StreamChannel sender
+     */
+    public Map<P4RuntimeOuterClass.Uint128, StreamChannelSender> streamChannels() {
+        return ImmutableMap.copyOf(streams);
+    }
+
+    /**
+     * Returns the senders of the currently open read-only StreamChannel(s).
+     * Used for debug purposes only.
+     *
+     * @return read-only StreamChannel senders
+     */
+    public Set<StreamChannelSender> readOnlyStreamChannels() {
+        return ImmutableSet.copyOf(readOnlyStreams.keySet());
+    }
+
+    /**
+     * Returns the tracer of the write requests. Used for debug purposes only.
+     *
+     * @return write tracer
+     */
+    public WriteTracer writeTracer() {
+        return writeTracer;
+    }
+
     /**
      * Translate the given logical pipeline table entry to a Up4Service entry deletion call.
      *
@@ -168,7 +707,11 @@ public class Up4NorthComponent {
     private void translateEntryAndDelete(PiTableEntry entry) throws StatusException {
         log.debug("Translating UP4 deletion request to fabric entry deletion.");
         try {
-            up4Service.delete(up4Translator.up4TableEntryToUpfEntity(entry));
+            final long start = System.nanoTime();
+            final UpfEntity upfEntity = up4Translator.up4TableEntryToUpfEntity(entry);
+            Up4Metrics.stop(translationTimer, start);
+            WriteTracer.stageEnd(WriteTracer.Stage.TRANSLATE, start);
+            up4Service.delete(upfEntity);
         } catch (Up4Translator.Up4TranslationException e) {
             log.warn("Failed to translate UP4 entry in deletion request: {}", e.getMessage());
             throw INVALID_ARGUMENT
@@ -201,10 +744,18 @@ public class Up4NorthComponent {
                                 .withDescription("Action profile entries not supported by UP4.")
                                 .asException();
                     }
-                    up4Service.apply(up4Translator.up4TableEntryToUpfEntity(tableEntry));
+                    final long start = System.nanoTime();
+                    final UpfEntity upfEntity = up4Translator.up4TableEntryToUpfEntity(tableEntry);
+                    Up4Metrics.stop(translationTimer, start);
+                    WriteTracer.stageEnd(WriteTracer.Stage.TRANSLATE, start);
+                    up4Service.apply(upfEntity);
                     break;
                 case METER_CELL_CONFIG:
-                    up4Service.apply(up4Translator.up4MeterEntryToUpfEntity((PiMeterCellConfig) entry));
+                    final long meterStart = System.nanoTime();
+                    final UpfEntity upfMeter = up4Translator.up4MeterEntryToUpfEntity((PiMeterCellConfig) entry);
+                    Up4Metrics.stop(translationTimer, meterStart);
+                    WriteTracer.stageEnd(WriteTracer.Stage.TRANSLATE, meterStart);
+                    up4Service.apply(upfMeter);
                     break;
                 default:
                     throw UNIMPLEMENTED
@@ -399,12 +950,21 @@ public class Up4NorthComponent {
      * Read the all p4 counter cell requested by the message, and translate them to p4runtime
      * entities for crafting a p4runtime read response.
      *
-     * @param message a p4runtime CounterEntry message from a read request
+     * @param message      a p4runtime CounterEntry message from a read request
+     * @param fromSnapshot if true, the counters are read from the latest counter
+     *                     snapshot, instead of from the UPF devices
      * @return the requested counter cells' contents, as a list of p4runtime entities
      * @throws StatusException if the counter index is out of range
      */
-    private List<P4RuntimeOuterClass.Entity> readCountersAndTranslate(P4RuntimeOuterClass.CounterEntry message)
+    private List<P4RuntimeOuterClass.Entity> readCountersAndTranslate(P4RuntimeOuterClass.CounterEntry message,
+                                                                      boolean fromSnapshot)
             throws StatusException {
+        final CounterSnapshot snapshot = fromSnapshot ? up4CounterComponent.latestSnapshot() : null;
+        if (fromSnapshot && snapshot == null) {
+            throw io.grpc.Status.UNAVAILABLE
+                    .withDescription("Counter snapshot not yet available.")
+                    .asException();
+        }
         ArrayList<PiCounterCell> responseCells = new ArrayList<>();
         Integer index = null;
         // FYI a counter read message with no index corresponds to a wildcard read of all indices
@@ -435,12 +995,21 @@ public class Up4NorthComponent {
         if (counterName != null && index != null) {
             // A single counter cell was requested
             UpfCounter ctrValues;
-            try {
-                ctrValues = up4Service.readCounter(index);
-            } catch (UpfProgrammableException e) {
-                throw INVALID_ARGUMENT
-                        .withDescription(e.getMessage())
-                        .asException();
+            if (snapshot != null) {
+                ctrValues = snapshot.counters().get(index);
+                if (ctrValues == null) {
+                    throw INVALID_ARGUMENT
+                            .withDescription("Counter index " + index + " not in the counter snapshot.")
+                            .asException();
+                }
+            } else {
+                try {
+                    ctrValues = up4Service.readCounter(index);
+                } catch (UpfProgrammableException e) {
+                    throw INVALID_ARGUMENT
+                            .withDescription(e.getMessage())
+                            .asException();
+                }
             }
             long pkts;
             long bytes;
@@ -461,10 +1030,14 @@ public class Up4NorthComponent {
             // All cells were requested, either for a specific counter or all counters
             // FIXME: only read the counter that was requested, instead of both ingress and egress unconditionally
             Collection<UpfCounter> allStats;
-            try {
-                allStats = up4Service.readCounters(-1);
-            } catch (UpfProgrammableException e) {
-                throw io.grpc.Status.UNKNOWN.withDescription(e.getMessage()).asException();
+            if (snapshot != null) {
+                allStats = snapshot.counters().values();
+            } else {
+                try {
+                    allStats = up4Service.readCounters(-1);
+                } catch (UpfProgrammableException e) {
+                    throw io.grpc.Status.UNKNOWN.withDescription(e.getMessage()).asException();
+                }
             }
             for (UpfCounter stat : allStats) {
                 if (piCounterId == null || piCounterId.equals(PRE_QOS_PIPE_PRE_QOS_COUNTER)) {
@@ -504,12 +1077,18 @@ public class Up4NorthComponent {
      */
     public class Up4NorthService extends P4RuntimeGrpc.P4RuntimeImplBase {
 
+        // If true, all clients are read-only and counters are read from the snapshots.
+        private final boolean readOnly;
+
+        Up4NorthService(boolean readOnly) {
+            this.readOnly = readOnly;
+        }
+
         /**
          * A streamChannel represents a P4Runtime session. This session should persist for the
-         * lifetime of a connected controller. The streamChannel is used for master/slave
-         * arbitration. Currently this implementation does not track a master, and blindly tells
-         * every controller that they are the master as soon as they send an arbitration request. We
-         * also do not yet handle anything except arbitration requests.
+         * lifetime of a connected controller. The streamChannel is used for primary/backup
+         * arbitration, packet-outs and DDN digests. Clients arbitrating with the read-only role,
+         * or connected to the read-only server, are not subject to arbitration.
          *
          * @param responseObserver The thing that is fed responses to arbitration requests.
          * @return A thing that will be fed arbitration requests.
@@ -517,10 +1096,15 @@ public class Up4NorthComponent {
         @Override
         public StreamObserver<P4RuntimeOuterClass.StreamMessageRequest> streamChannel(
                 StreamObserver<P4RuntimeOuterClass.StreamMessageResponse> responseObserver) {
-            return new StreamObserver<>() {
+            // All messages towards the client must go through the sender.
+            final StreamChannelSender sender = new StreamChannelSender(
+                    responseObserver, streamQueueSize, streamQueueFullPolicy, ddnMaxOutstandingLists);
+            final var requestObserver = new StreamObserver<P4RuntimeOuterClass.StreamMessageRequest>() {
                 // On instance of this class is created for each stream.
                 // A stream without electionId is invalid.
-                private P4RuntimeOuterClass.Uint128 electionId;
+                private volatile P4RuntimeOuterClass.Uint128 electionId;
+                // Read-only streams are not subject to arbitration.
+                private boolean readOnlyStream;
 
                 @Override
                 public void onNext(P4RuntimeOuterClass.StreamMessageRequest request) {
@@ -539,6 +1123,10 @@ public class Up4NorthComponent {
                             handlePacketOut(request.getPacket());
                             return;
                         case DIGEST_ACK:
+                            if (!readOnlyStream) {
+                                handleDigestAck(sender, request.getDigestAck());
+                            }
+                            return;
                         case OTHER:
                         case UPDATE_NOT_SET:
                         default:
@@ -564,7 +1152,7 @@ public class Up4NorthComponent {
                         log.error("StreamChannel error", t);
                     }
                     if (electionId != null) {
-                        streams.remove(electionId);
+                        removeStream(electionId, sender);
                     }
                 }
 
@@ -572,9 +1160,9 @@ public class Up4NorthComponent {
                 public void onCompleted() {
                     log.info("StreamChannel closed");
                     if (electionId != null) {
-                        streams.remove(electionId);
+                        removeStream(electionId, sender);
                     }
-                    responseObserver.onCompleted();
+                    sender.close(null);
                 }
 
                 private void handleArbitration(P4RuntimeOuterClass.MasterArbitrationUpdate request) {
@@ -583,67 +1171,89 @@ public class Up4NorthComponent {
                                                     .withDescription("Invalid device_id"));
                         return;
                     }
-                    if (!P4RuntimeOuterClass.Role.getDefaultInstance().equals(request.getRole())) {
+                    if (request.getRole().hasConfig()) {
                         handleErrorResponse(UNIMPLEMENTED
                                                     .withDescription("Role config not supported"));
                         return;
                     }
+                    final long roleId = request.getRole().getId();
+                    if (roleId != 0 && roleId != READ_ONLY_ROLE_ID) {
+                        handleErrorResponse(UNIMPLEMENTED
+                                                    .withDescription("Role " + roleId + " not supported"));
+                        return;
+                    }
                     if (P4RuntimeOuterClass.Uint128.getDefaultInstance()
                             .equals(request.getElectionId())) {
                         handleErrorResponse(INVALID_ARGUMENT
                                                     .withDescription("Missing election_id"));
                         return;
                     }
-                    streams.compute(request.getElectionId(), (requestedElectionId, storedResponseObserver) -> {
-                        if (storedResponseObserver == null) {
-                            // All good.
-                            this.electionId = requestedElectionId;
-                            log.info("Blindly telling requester with election_id {} they are the primary controller",
-                                     TextFormat.shortDebugString(this.electionId));
-                            // FIXME: implement election_id handling
-                            responseObserver.onNext(
-                                    P4RuntimeOuterClass.StreamMessageResponse.newBuilder()
-                                            .setArbitration(
-                                                    P4RuntimeOuterClass.MasterArbitrationUpdate.newBuilder()
-                                                            .setDeviceId(request.getDeviceId())
-                                                            .setRole(request.getRole())
-                                                            .setElectionId(this.electionId)
-                                                            .setStatus(
-                                                                    Status.newBuilder()
-                                                                            .setCode(Code.OK.getNumber())
-                                                                            .build()
-                                                            ).build()
-                                            ).build());
-                            // Store in map.
-                            return responseObserver;
-                        } else if (responseObserver != storedResponseObserver) {
-                            handleErrorResponse(
-                                    INVALID_ARGUMENT.withDescription("Election_id already in use by another client"));
-                            // Map value unchanged.
-                            return storedResponseObserver;
-                        } else {
-                            // Client is sending a second arbitration request for the same or a new
-                            // election_id. Not supported.
-                            handleErrorResponse(
-                                    UNIMPLEMENTED.withDescription("Update of master arbitration not supported"));
-                            // Remove from map.
-                            return null;
-                        }
-                    });
+                    if (electionId != null) {
+                        // Client is sending a second arbitration request for the same or a new
+                        // election_id. Not supported.
+                        handleErrorResponse(
+                                UNIMPLEMENTED.withDescription("Update of master arbitration not supported"));
+                        return;
+                    }
+                    if (readOnly || roleId == READ_ONLY_ROLE_ID) {
+                        // Read-only clients don't compete with the primary, all of them are accepted.
+                        this.electionId = request.getElectionId();
+                        this.readOnlyStream = true;
+                        readOnlyStreams.put(sender, electionId);
+                        startCounterPush(sender);
+                        log.info("Read-only client with election_id {} connected",
+                                 TextFormat.shortDebugString(electionId));
+                        sender.send(P4RuntimeOuterClass.StreamMessageResponse.newBuilder()
+                                            .setArbitration(P4RuntimeOuterClass.MasterArbitrationUpdate.newBuilder()
+                                                                    .setDeviceId(request.getDeviceId())
+                                                                    .setRole(request.getRole())
+                                                                    .setElectionId(electionId)
+                                                                    .setStatus(Status.newBuilder()
+                                                                                       .setCode(Code.OK.getNumber())
+                                                                                       .build())
+                                                                    .build())
+                                            .build());
+                        return;
+                    }
+                    if (streams.putIfAbsent(request.getElectionId(), sender) != null) {
+                        handleErrorResponse(
+                                INVALID_ARGUMENT.withDescription("Election_id already in use by another client"));
+                        return;
+                    }
+                    this.electionId = request.getElectionId();
+                    final Up4Arbitrator.Result result = arbitrator.arbitrate(electionId);
+                    if (result == Up4Arbitrator.Result.IN_USE) {
+                        handleErrorResponse(
+                                INVALID_ARGUMENT.withDescription("Election_id already in use by another client"));
+                        return;
+                    }
+                    log.info("Client with election_id {} is {}", TextFormat.shortDebugString(electionId),
+                             result == Up4Arbitrator.Result.PRIMARY ? "the primary" : "a backup");
+                    startCounterPush(sender);
+                    // Notifies the new client, and the previous primary, if any.
+                    refreshArbitration();
                 }
 
                 private void handlePacketOut(P4RuntimeOuterClass.PacketOut request) {
                     try {
                         errorIfSwitchNotReady();
+                        if (readOnlyStream || !arbitrator.isPrimary(electionId)) {
+                            log.warn("Dropping packet-out from backup or read-only client with election_id {}",
+                                     TextFormat.shortDebugString(electionId));
+                            return;
+                        }
                         if (request.getPayload().isEmpty()) {
                             log.error("Received packet-out with empty payload");
                             return;
                         }
-                        final byte[] frame = request.getPayload().toByteArray();
+                        // UpfProgrammable implementations can access the backing array
+                        // (e.g., to parse the frame), so a read-only view of the payload
+                        // can't be used. This is the only copy of the frame.
+                        final ByteBuffer frame = ByteBuffer.wrap(request.getPayload().toByteArray());
                         if (log.isDebugEnabled()) {
-                            log.debug("Sending packet-out: {}", HexString.toHexString(frame, " "));
+                            log.debug("Sending packet-out: {}", HexString.toHexString(frame.array(), " "));
                         }
-                        up4Service.sendPacketOut(ByteBuffer.wrap(frame));
+                        up4Service.sendPacketOut(frame);
                     } catch (StatusException e) {
                         // Drop exception to avoid closing the stream.
                         log.error("Unable to send packet-out: {}", e.getMessage());
@@ -654,21 +1264,23 @@ public class Up4NorthComponent {
 
                 private void handleErrorResponse(io.grpc.Status status) {
                     log.warn("Closing StreamChannel with client: {}", status.toString());
-                    responseObserver.onError(status.asException());
-                    // Remove stream from map.
+                    sender.close(status.asException());
+                    // Remove stream from map, unless it's another stream with the same election_id.
                     if (electionId != null) {
-                        streams.computeIfPresent(electionId, (storedElectionId, storedResponseObserver) -> {
-                            if (responseObserver == storedResponseObserver) {
-                                // Remove.
-                                return null;
-                            } else {
-                                // This is another stream with same election_id. Do not remove.
-                                return storedResponseObserver;
-                            }
-                        });
+                        removeStream(electionId, sender);
+                    }
+                }
+
+                private void handleSendFailure() {
+                    // The sender closed the stream, a primary must not hold
+                    // back DDNs until the transport notices.
+                    if (electionId != null) {
+                        removeStream(electionId, sender);
                     }
                 }
             };
+            sender.setFailureHandler(requestObserver::handleSendFailure);
+            return requestObserver;
         }
 
         /**
@@ -751,6 +1363,31 @@ public class Up4NorthComponent {
             }
         }
 
+        private void errorIfNotPrimary(P4RuntimeOuterClass.WriteRequest request) throws StatusException {
+            if (readOnly || request.getRoleId() == READ_ONLY_ROLE_ID) {
+                log.warn("Write request received from read-only client");
+                throw PERMISSION_DENIED
+                        .withDescription("Write from read-only client.")
+                        .asException();
+            }
+            final P4RuntimeOuterClass.Uint128 electionId = request.getElectionId();
+            if (readOnlyStreams.containsValue(electionId) && !streams.containsKey(electionId)) {
+                // Role_id not set by a read-only client, not to be accepted when there is no primary.
+                log.warn("Write request received from read-only client with election_id {}",
+                         TextFormat.shortDebugString(electionId));
+                throw PERMISSION_DENIED
+                        .withDescription("Write from read-only client.")
+                        .asException();
+            }
+            if (!arbitrator.canWrite(electionId)) {
+                log.warn("Write request received from non-primary client with election_id {}",
+                         TextFormat.shortDebugString(electionId));
+                throw PERMISSION_DENIED
+                        .withDescription("Write from non-primary client.")
+                        .asException();
+            }
+        }
+
         private void doWrite(P4RuntimeOuterClass.WriteRequest request,
                              StreamObserver<P4RuntimeOuterClass.WriteResponse> responseObserver)
                 throws StatusException {
@@ -766,8 +1403,10 @@ public class Up4NorthComponent {
                         break;
                     case METER_ENTRY:
                         PiEntity piMeterEntity;
+                        final long meterDecodeStart = WriteTracer.stageStart();
                         try {
                             piMeterEntity = Codecs.CODECS.entity().decode(requestEntity, null, pipeconf);
+                            WriteTracer.stageEnd(WriteTracer.Stage.DECODE, meterDecodeStart);
                         } catch (CodecException e) {
                             log.warn("Unable to decode p4runtime entity update message", e);
                             throw INVALID_ARGUMENT.withDescription(e.getMessage()).asException();
@@ -785,8 +1424,10 @@ public class Up4NorthComponent {
                         break;
                     case TABLE_ENTRY:
                         PiEntity piTableEntity;
+                        final long tableDecodeStart = WriteTracer.stageStart();
                         try {
                             piTableEntity = Codecs.CODECS.entity().decode(requestEntity, null, pipeconf);
+                            WriteTracer.stageEnd(WriteTracer.Stage.DECODE, tableDecodeStart);
                         } catch (CodecException e) {
                             log.warn("Unable to decode p4runtime entity update message", e);
                             throw INVALID_ARGUMENT.withDescription(e.getMessage()).asException();
@@ -831,12 +1472,21 @@ public class Up4NorthComponent {
         public void write(P4RuntimeOuterClass.WriteRequest request,
                           StreamObserver<P4RuntimeOuterClass.WriteResponse> responseObserver) {
             log.debug("Received write request.");
+            final long start = System.nanoTime();
+            final WriteTracer.Trace trace = writeTracer.begin(request.getUpdatesCount());
+            boolean success = false;
             try {
                 errorIfSwitchNotReady();
+                errorIfNotPrimary(request);
                 doWrite(request, responseObserver);
+                success = true;
             } catch (StatusException e) {
+                writeErrors.inc();
                 responseObserver.onError(e);
+            } finally {
+                writeTracer.end(trace, success);
             }
+            Up4Metrics.stop(writeTimer, start);
             log.debug("Done with write request.");
         }
 
@@ -848,7 +1498,8 @@ public class Up4NorthComponent {
                     case COUNTER_ENTRY:
                         responseObserver.onNext(
                                 P4RuntimeOuterClass.ReadResponse.newBuilder()
-                                        .addAllEntities(readCountersAndTranslate(requestEntity.getCounterEntry()))
+                                        .addAllEntities(readCountersAndTranslate(
+                                                requestEntity.getCounterEntry(), readOnly))
                                         .build());
                         break;
                     case METER_ENTRY:
@@ -884,39 +1535,204 @@ public class Up4NorthComponent {
         public void read(P4RuntimeOuterClass.ReadRequest request,
                          StreamObserver<P4RuntimeOuterClass.ReadResponse> responseObserver) {
             log.debug("Received read request.");
+            final long start = System.nanoTime();
             try {
                 errorIfSwitchNotReady();
                 doRead(request, responseObserver);
             } catch (StatusException e) {
                 responseObserver.onError(e);
             }
+            Up4Metrics.stop(readTimer, start);
             log.debug("Done with read request.");
         }
     }
 
-    private void handleDdn(Up4Event event) {
+    @VisibleForTesting
+    void handleDdn(Up4Event event) {
         if (event.subject().ueAddress() == null) {
             log.error("Received {} but UE address is missing, bug?", event.type());
             return;
         }
-        var digestList = P4RuntimeOuterClass.DigestList.newBuilder()
-                .setDigestId(DDN_DIGEST_ID)
-                .setListId(ddnDigestListId.incrementAndGet())
-                .addData(P4DataOuterClass.P4Data.newBuilder()
-                                 .setBitstring(ByteString.copyFrom(event.subject().ueAddress().toOctets()))
-                                 .build())
-                .build();
-        var msg = P4RuntimeOuterClass.StreamMessageResponse.newBuilder()
-                .setDigest(digestList).build();
-        if (streams.isEmpty()) {
-            log.warn("There are no clients connected, dropping {} for UE address {}",
+        ddnMeter.mark();
+        if (primaryStream() == null) {
+            log.warn("There is no primary client connected, dropping {} for UE address {}",
                      event.type(), event.subject().ueAddress());
-        } else {
-            streams.forEach((electionId, responseObserver) -> {
-                log.debug("Sending DDN digest to client with election_id {}: {}",
-                          TextFormat.shortDebugString(electionId), TextFormat.shortDebugString(msg));
-                responseObserver.onNext(msg);
-            });
+            return;
+        }
+        // DDNs are sent in batches, a UE is notified again only after the
+        // previous notification has been acknowledged, or the ack timeout expired.
+        if (!ddnAggregator.add(event.subject().ueAddress())) {
+            log.debug("Suppressing {} for UE address {}, previous one not yet acknowledged",
+                      event.type(), event.subject().ueAddress());
+        }
+    }
+
+    private boolean sendDdnDigestList(P4RuntimeOuterClass.DigestList digestList) {
+        // Only the primary client handles DDNs, backups would never ack them.
+        final StreamChannelSender primary = primaryStream();
+        if (primary == null) {
+            log.warn("There is no primary client connected, dropping DDN digest list {} with {} UE addresses",
+                     digestList.getListId(), digestList.getDataCount());
+            return false;
+        }
+        log.debug("Sending DDN digest list to the primary client: {}", TextFormat.shortDebugString(digestList));
+        if (!primary.sendDigestList(digestList)) {
+            log.warn("Too many unacknowledged DDN digest lists for the primary client, " +
+                             "not sending digest list {} with {} UE addresses",
+                     digestList.getListId(), digestList.getDataCount());
+            return false;
+        }
+        return true;
+    }
+
+    private boolean canSendDdnDigestList() {
+        // With no primary, DigestLists are still built and then dropped,
+        // instead of piling up UE addresses.
+        final StreamChannelSender primary = primaryStream();
+        return primary == null || primary.canSendDigestList();
+    }
+
+    /**
+     * Returns the stream of the primary client, if connected to this instance.
+     *
+     * @return the stream of the primary client, or null
+     */
+    private StreamChannelSender primaryStream() {
+        final P4RuntimeOuterClass.Uint128 primaryElectionId = arbitrator.primaryElectionId();
+        if (primaryElectionId == null || !arbitrator.isPrimary(primaryElectionId)) {
+            return null;
+        }
+        return streams.get(primaryElectionId);
+    }
+
+    /**
+     * Starts tracking the counters pushed to the given client, which just
+     * completed the arbitration. Cells are pushed only when they change
+     * from the latest snapshot.
+     *
+     * @param sender the client stream
+     */
+    private void startCounterPush(StreamChannelSender sender) {
+        final CounterSnapshot snapshot = counterPushEnabled ? up4CounterComponent.latestSnapshot() : null;
+        counterPushTrackers.put(sender, new CounterPushTracker(snapshot, sender.droppedCount()));
+    }
+
+    /**
+     * Pushes to each client the counter cells that changed since they were
+     * last pushed to it, or since it connected, as CounterEntry entities
+     * carrying the current packets and bytes of the cell. Entities are wrapped
+     * in ReadResponse messages, sent as the "other" field of
+     * StreamMessageResponse. Clients are expected to read the counters when
+     * connecting, and then to replace the values with the pushed ones, so
+     * that pushes overlapping with the read are not counted twice. If a
+     * message to a client is dropped, e.g., because its queue is full, all
+     * the cells are pushed again to that client.
+     *
+     * @param snapshot the latest counter snapshot
+     */
+    @VisibleForTesting
+    void pushCounters(CounterSnapshot snapshot) {
+        if (pipeconf == null) {
+            return;
+        }
+        streams.values().forEach(sender -> pushCounters(sender, snapshot));
+        readOnlyStreams.keySet().forEach(sender -> pushCounters(sender, snapshot));
+    }
+
+    private void pushCounters(StreamChannelSender sender, CounterSnapshot snapshot) {
+        if (sender.isClosed()) {
+            return;
+        }
+        // Trackers are added on arbitration, unless push was disabled meanwhile.
+        final CounterPushTracker tracker = counterPushTrackers.computeIfAbsent(
+                sender, k -> new CounterPushTracker(null, sender.droppedCount()));
+        final long dropped = sender.droppedCount();
+        final List<UpfCounter> counters = tracker.update(
+                snapshot, counterPushMinPackets, counterPushMinBytes, dropped);
+        if (counters.isEmpty()) {
+            return;
+        }
+        P4RuntimeOuterClass.ReadResponse.Builder builder = P4RuntimeOuterClass.ReadResponse.newBuilder();
+        boolean sent = true;
+        for (UpfCounter counter : counters) {
+            try {
+                builder.addEntities(Codecs.CODECS.entity().encode(new PiCounterCell(
+                        PiCounterCellId.ofIndirect(PRE_QOS_PIPE_PRE_QOS_COUNTER, counter.getCellId()),
+                        counter.getIngressPkts(), counter.getIngressBytes()), null, pipeconf));
+                builder.addEntities(Codecs.CODECS.entity().encode(new PiCounterCell(
+                        PiCounterCellId.ofIndirect(POST_QOS_PIPE_POST_QOS_COUNTER, counter.getCellId()),
+                        counter.getEgressPkts(), counter.getEgressBytes()), null, pipeconf));
+            } catch (CodecException e) {
+                log.error("Unable to encode counter for cell {}: {}", counter.getCellId(), e.getMessage());
+            }
+            if (builder.getEntitiesCount() >= COUNTER_PUSH_MAX_ENTITIES) {
+                sent &= sendCounters(sender, builder.build());
+                builder = P4RuntimeOuterClass.ReadResponse.newBuilder();
+            }
+        }
+        if (builder.getEntitiesCount() > 0) {
+            sent &= sendCounters(sender, builder.build());
+        }
+        if (!sent) {
+            // Pushed again with all the other cells.
+            log.warn("Unable to push counters to client, queue full");
+            tracker.clear();
+            counterPushResends.inc();
+        }
+        counterPushCells.inc(counters.size());
+    }
+
+    private boolean sendCounters(StreamChannelSender sender, P4RuntimeOuterClass.ReadResponse counters) {
+        log.debug("Pushing {} counters", counters.getEntitiesCount());
+        return sender.send(P4RuntimeOuterClass.StreamMessageResponse.newBuilder()
+                                   .setOther(Any.pack(counters))
+                                   .build());
+    }
+
+    private void handleDigestAck(StreamChannelSender sender, P4RuntimeOuterClass.DigestListAck ack) {
+        if (ack.getDigestId() != DDN_DIGEST_ID) {
+            log.warn("Received DigestListAck for unknown digest_id {}, ignoring", ack.getDigestId());
+            return;
+        }
+        if (!sender.ackDigestList(ack.getListId())) {
+            // Not sent on this stream, e.g., a backup acking a list of the
+            // primary, or already given up: the UEs are still suppressed.
+            log.debug("Received DigestListAck for unknown or expired list_id {}, ignoring", ack.getListId());
+            return;
+        }
+        ddnAggregator.ack(ack.getListId());
+        // The client might have room for pending DDNs now.
+        ddnAggregator.flush();
+    }
+
+    private void retransmitDdnDigestLists() {
+        try {
+            final List<Long> givenUp = new ArrayList<>();
+            // Lists are sent to the primary only, but a previous primary
+            // might still have some in its window.
+            streams.values().forEach(sender -> sender.retransmitDigestLists(
+                    ddnRetransmitTimeout, ddnMaxRetransmits, givenUp));
+            for (long listId : givenUp) {
+                log.warn("DDN digest list {} not acknowledged after {} retransmissions, giving up",
+                         listId, ddnMaxRetransmits);
+                // Allow new DDNs for the UEs in the list.
+                ddnAggregator.release(listId);
+            }
+            // Windows might have room now, or all clients disconnected.
+            ddnAggregator.flush();
+        } catch (Exception e) {
+            log.error("Error while retransmitting DDN digest lists", e);
+        }
+    }
+
+    private class InternalClusterListener implements ClusterEventListener {
+        @Override
+        public void event(ClusterEvent event) {
+            // The primary might have been connected to the failed instance.
+            if (event.type() == ClusterEvent.Type.INSTANCE_DEACTIVATED ||
+                    event.type() == ClusterEvent.Type.INSTANCE_REMOVED) {
+                SharedExecutors.getPoolThreadExecutor().execute(Up4NorthComponent.this::refreshArbitration);
+            }
         }
     }
 
@@ -0,0 +1,224 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.meter.Meter;
+import org.onosproject.net.meter.MeterCellId;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Differences between the UPF state of the leader UPF device and the state
+ * of a follower, i.e., the operations required to bring the follower in
+ * sync with the leader. Flow rules are compared by match (equals) and by
+ * treatment (exactMatch), meters by cell ID and by bands.
+ */
+final class UpfStateDiff {
+
+    private final List<FlowRule> unexpectedRules;
+    private final List<FlowRule> staleRules;
+    private final List<FlowRule> missingRules;
+    private final List<Meter> unexpectedMeters;
+    private final List<Meter> staleMeters;
+    private final List<Meter> missingMeters;
+    private final int leaderRules;
+    private final int leaderMeters;
+
+    private UpfStateDiff(List<FlowRule> unexpectedRules, List<FlowRule> staleRules, List<FlowRule> missingRules,
+                         List<Meter> unexpectedMeters, List<Meter> staleMeters, List<Meter> missingMeters,
+                         int leaderRules, int leaderMeters) {
+        this.unexpectedRules = unexpectedRules;
+        this.staleRules = staleRules;
+        this.missingRules = missingRules;
+        this.unexpectedMeters = unexpectedMeters;
+        this.staleMeters = staleMeters;
+        this.missingMeters = missingMeters;
+        this.leaderRules = leaderRules;
+        this.leaderMeters = leaderMeters;
+    }
+
+    /**
+     * Computes the differences between the given leader and follower state.
+     * Flow rules must be already translated for the same device, e.g., the
+     * follower.
+     *
+     * @param leaderRules    flow rules of the leader
+     * @param followerRules  flow rules of the follower
+     * @param leaderMeters   meters of the leader
+     * @param followerMeters meters of the follower
+     * @return the differences
+     */
+    static UpfStateDiff compute(Collection<FlowRule> leaderRules, Collection<FlowRule> followerRules,
+                                Collection<Meter> leaderMeters, Collection<Meter> followerMeters) {
+        // Flow rules are equal if they have the same match.
+        final Map<FlowRule, FlowRule> leaderRuleMap = Maps.newHashMapWithExpectedSize(leaderRules.size());
+        leaderRules.forEach(r -> leaderRuleMap.putIfAbsent(r, r));
+        final Map<FlowRule, FlowRule> followerRuleMap = Maps.newHashMapWithExpectedSize(followerRules.size());
+        followerRules.forEach(r -> followerRuleMap.putIfAbsent(r, r));
+        final ImmutableList.Builder<FlowRule> unexpectedRules = ImmutableList.builder();
+        final ImmutableList.Builder<FlowRule> staleRules = ImmutableList.builder();
+        final ImmutableList.Builder<FlowRule> missingRules = ImmutableList.builder();
+        followerRuleMap.keySet().stream()
+                .filter(r -> !leaderRuleMap.containsKey(r))
+                .forEach(unexpectedRules::add);
+        for (FlowRule leaderRule : leaderRuleMap.values()) {
+            final FlowRule followerRule = followerRuleMap.get(leaderRule);
+            if (followerRule == null) {
+                missingRules.add(leaderRule);
+            } else if (!followerRule.exactMatch(leaderRule)) {
+                staleRules.add(leaderRule);
+            }
+        }
+
+        final Map<MeterCellId, Meter> leaderMeterMap = Maps.newHashMapWithExpectedSize(leaderMeters.size());
+        leaderMeters.forEach(m -> leaderMeterMap.putIfAbsent(m.meterCellId(), m));
+        final Map<MeterCellId, Meter> followerMeterMap = Maps.newHashMapWithExpectedSize(followerMeters.size());
+        followerMeters.forEach(m -> followerMeterMap.putIfAbsent(m.meterCellId(), m));
+        final ImmutableList.Builder<Meter> unexpectedMeters = ImmutableList.builder();
+        final ImmutableList.Builder<Meter> staleMeters = ImmutableList.builder();
+        final ImmutableList.Builder<Meter> missingMeters = ImmutableList.builder();
+        followerMeterMap.forEach((cellId, m) -> {
+            if (!leaderMeterMap.containsKey(cellId)) {
+                unexpectedMeters.add(m);
+            }
+        });
+        for (Meter leaderMeter : leaderMeterMap.values()) {
+            final Meter followerMeter = followerMeterMap.get(leaderMeter.meterCellId());
+            if (followerMeter == null) {
+                missingMeters.add(leaderMeter);
+            } else if (followerMeter.bands().size() != leaderMeter.bands().size() ||
+                    !followerMeter.bands().containsAll(leaderMeter.bands())) {
+                staleMeters.add(leaderMeter);
+            }
+        }
+        return new UpfStateDiff(unexpectedRules.build(), staleRules.build(), missingRules.build(),
+                                unexpectedMeters.build(), staleMeters.build(), missingMeters.build(),
+                                leaderRuleMap.size(), leaderMeterMap.size());
+    }
+
+    /**
+     * Returns the follower flow rules not in the leader, to be removed.
+     *
+     * @return flow rules of the follower
+     */
+    List<FlowRule> unexpectedRules() {
+        return unexpectedRules;
+    }
+
+    /**
+     * Returns the leader flow rules with a different treatment in the
+     * follower, to be modified.
+     *
+     * @return flow rules of the leader
+     */
+    List<FlowRule> staleRules() {
+        return staleRules;
+    }
+
+    /**
+     * Returns the leader flow rules not in the follower, to be added.
+     *
+     * @return flow rules of the leader
+     */
+    List<FlowRule> missingRules() {
+        return missingRules;
+    }
+
+    /**
+     * Returns the follower meters not in the leader, to be removed.
+     *
+     * @return meters of the follower
+     */
+    List<Meter> unexpectedMeters() {
+        return unexpectedMeters;
+    }
+
+    /**
+     * Returns the leader meters with different bands in the follower, to be
+     * modified.
+     *
+     * @return meters of the leader
+     */
+    List<Meter> staleMeters() {
+        return staleMeters;
+    }
+
+    /**
+     * Returns the leader meters not in the follower, to be added.
+     *
+     * @return meters of the leader
+     */
+    List<Meter> missingMeters() {
+        return missingMeters;
+    }
+
+    /**
+     * Returns the number of flow rule operations required.
+     *
+     * @return number of operations
+     */
+    int ruleOps() {
+        return unexpectedRules.size() + staleRules.size() + missingRules.size();
+    }
+
+    /**
+     * Returns the number of meter operations required.
+     *
+     * @return number of operations
+     */
+    int meterOps() {
+        return unexpectedMeters.size() + staleMeters.size() + missingMeters.size();
+    }
+
+    /**
+     * Returns true if the follower is in sync with the leader.
+     *
+     * @return true if no operation is required
+     */
+    boolean isEmpty() {
+        return ruleOps() == 0 && meterOps() == 0;
+    }
+
+    /**
+     * Returns the number of leader flow rules in sync in the follower.
+     *
+     * @return number of flow rules
+     */
+    int rulesInSync() {
+        return leaderRules - staleRules.size() - missingRules.size();
+    }
+
+    /**
+     * Returns the number of leader flow rules.
+     *
+     * @return number of flow rules
+     */
+    int leaderRules() {
+        return leaderRules;
+    }
+
+    /**
+     * Returns the number of leader meters in sync in the follower.
+     *
+     * @return number of meters
+     */
+    int metersInSync() {
+        return leaderMeters - staleMeters.size() - missingMeters.size();
+    }
+
+    /**
+     * Returns the number of leader meters.
+     *
+     * @return number of meters
+     */
+    int leaderMeters() {
+        return leaderMeters;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.meter.Meter;
+import org.onosproject.net.meter.MeterCellId;
+import org.onosproject.net.pi.runtime.PiMeterCellId;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Version of the UPF state of a UPF physical device, i.e., of the UP4 flow
+ * rules and meters, maintained incrementally from flow rule and meter events.
+ * <p>
+ * The version is made of a generation, incremented on every change of the
+ * state, and of a content hash, the sum of the hashes of the flow rules and
+ * meters. Hashes don't depend on the device, so two devices with the same
+ * state have the same content hash, regardless of the order in which the
+ * state has been written. Flow rules and meters are also grouped in buckets,
+ * by table or meter and by a few bits of their match, each with its own
+ * content hash: when the content hashes of two devices differ, comparing the
+ * buckets narrows down where the states differ.
+ * <p>
+ * Events can be missed, e.g., while the device is being set up, thus the
+ * version should be rebuilt from the flow rule and meter stores from time
+ * to time.
+ */
+final class UpfStateVersion {
+
+    /**
+     * Number of buckets per table or meter.
+     */
+    static final int BUCKETS_PER_TABLE = 16;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    // Key of the flow rule or meter in the device, to its bucket and hash.
+    private final Map<Object, Element> elements = Maps.newHashMap();
+    // Sum of the element hashes, and number of elements, by bucket.
+    private final Map<List<Object>, Long> bucketHashes = Maps.newHashMap();
+    private final Map<List<Object>, Integer> bucketSizes = Maps.newHashMap();
+    private long generation;
+    private long hash;
+
+    /**
+     * Records that the given flow rule has been added or modified.
+     *
+     * @param rule flow rule
+     */
+    synchronized void ruleAdded(FlowRule rule) {
+        put(rule.id(), new Element(bucket(rule), ruleHash(rule)));
+    }
+
+    /**
+     * Records that the given flow rule has been removed.
+     *
+     * @param rule flow rule
+     */
+    synchronized void ruleRemoved(FlowRule rule) {
+        remove(rule.id());
+    }
+
+    /**
+     * Records that the given meter has been added or modified.
+     *
+     * @param meter meter
+     */
+    synchronized void meterAdded(Meter meter) {
+        put(meter.meterCellId(), new Element(bucket(meter), meterHash(meter)));
+    }
+
+    /**
+     * Records that the given meter has been removed.
+     *
+     * @param meter meter
+     */
+    synchronized void meterRemoved(Meter meter) {
+        remove(meter.meterCellId());
+    }
+
+    /**
+     * Replaces the state with the given flow rules and meters, e.g., as read
+     * from the stores. The generation is incremented only if the content
+     * changed.
+     *
+     * @param rules  flow rules
+     * @param meters meters
+     */
+    synchronized void reset(Collection<FlowRule> rules, Collection<Meter> meters) {
+        final long oldHash = hash;
+        final int oldSize = elements.size();
+        elements.clear();
+        bucketHashes.clear();
+        bucketSizes.clear();
+        hash = 0;
+        rules.forEach(r -> add(r.id(), new Element(bucket(r), ruleHash(r))));
+        meters.forEach(m -> add(m.meterCellId(), new Element(bucket(m), meterHash(m))));
+        if (hash != oldHash || elements.size() != oldSize) {
+            generation++;
+        }
+    }
+
+    /**
+     * Returns the generation, incremented on every change of the state.
+     *
+     * @return generation
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Returns the content hash.
+     *
+     * @return content hash
+     */
+    synchronized long hash() {
+        return hash;
+    }
+
+    /**
+     * Returns the number of flow rules and meters.
+     *
+     * @return number of flow rules and meters
+     */
+    synchronized int size() {
+        return elements.size();
+    }
+
+    /**
+     * Returns true if the given version has the same content as this one.
+     * Runs in constant time.
+     *
+     * @param other version of another device
+     * @return true if the content is the same
+     */
+    boolean inSync(UpfStateVersion other) {
+        // Not holding both locks at once.
+        final long thisHash;
+        final int thisSize;
+        synchronized (this) {
+            thisHash = hash;
+            thisSize = elements.size();
+        }
+        synchronized (other) {
+            return other.hash == thisHash && other.elements.size() == thisSize;
+        }
+    }
+
+    /**
+     * Returns the buckets with a different content in the given version.
+     *
+     * @param other version of another device
+     * @return buckets, as returned by {@link #bucket(FlowRule)} and
+     * {@link #bucket(Meter)}
+     */
+    Set<List<Object>> mismatchedBuckets(UpfStateVersion other) {
+        final Map<List<Object>, List<Number>> thisBuckets = buckets();
+        final Map<List<Object>, List<Number>> otherBuckets = other.buckets();
+        final Set<List<Object>> mismatched = Sets.newHashSet();
+        for (List<Object> bucket : Sets.union(thisBuckets.keySet(), otherBuckets.keySet())) {
+            if (!Objects.equals(thisBuckets.get(bucket), otherBuckets.get(bucket))) {
+                mismatched.add(bucket);
+            }
+        }
+        return mismatched;
+    }
+
+    /**
+     * Returns the bucket of the given flow rule.
+     *
+     * @param rule flow rule
+     * @return bucket
+     */
+    static List<Object> bucket(FlowRule rule) {
+        final int matchHash = Objects.hash(rule.priority(), rule.selector());
+        return Arrays.asList(rule.table(), Math.floorMod(matchHash, BUCKETS_PER_TABLE));
+    }
+
+    /**
+     * Returns the bucket of the given meter.
+     *
+     * @param meter meter
+     * @return bucket
+     */
+    static List<Object> bucket(Meter meter) {
+        final MeterCellId cellId = meter.meterCellId();
+        final Object meterId = cellId instanceof PiMeterCellId ? ((PiMeterCellId) cellId).meterId() : cellId.type();
+        return Arrays.asList(meterId, Math.floorMod(cellId.hashCode(), BUCKETS_PER_TABLE));
+    }
+
+    private synchronized Map<List<Object>, List<Number>> buckets() {
+        final ImmutableMap.Builder<List<Object>, List<Number>> buckets = ImmutableMap.builder();
+        bucketHashes.forEach((bucket, bucketHash) -> buckets.put(
+                bucket, Arrays.asList(bucketHash, bucketSizes.get(bucket))));
+        return buckets.build();
+    }
+
+    private void put(Object key, Element element) {
+        final Element old = elements.get(key);
+        if (element.equals(old)) {
+            return;
+        }
+        if (old != null) {
+            subtract(key, old);
+        }
+        add(key, element);
+        generation++;
+    }
+
+    private void remove(Object key) {
+        final Element old = elements.get(key);
+        if (old != null) {
+            subtract(key, old);
+            generation++;
+        }
+    }
+
+    private void add(Object key, Element element) {
+        elements.put(key, element);
+        bucketHashes.merge(element.bucket, element.hash, Long::sum);
+        bucketSizes.merge(element.bucket, 1, Integer::sum);
+        hash += element.hash;
+    }
+
+    private void subtract(Object key, Element element) {
+        elements.remove(key);
+        bucketHashes.merge(element.bucket, -element.hash, Long::sum);
+        if (bucketSizes.merge(element.bucket, -1, Integer::sum) == 0) {
+            bucketHashes.remove(element.bucket);
+            bucketSizes.remove(element.bucket);
+        }
+        hash -= element.hash;
+    }
+
+    private static long ruleHash(FlowRule rule) {
+        // Same fields copied to the followers.
+        return HASH_FUNCTION.newHasher()
+                .putInt(rule.table().hashCode())
+                .putInt(rule.priority())
+                .putInt(rule.selector().hashCode())
+                .putInt(rule.treatment().hashCode())
+                .putBoolean(rule.isPermanent())
+                .hash().asLong();
+    }
+
+    private static long meterHash(Meter meter) {
+        // Bands in any order.
+        return HASH_FUNCTION.newHasher()
+                .putInt(meter.meterCellId().hashCode())
+                .putInt(Sets.newHashSet(meter.bands()).hashCode())
+                .hash().asLong();
+    }
+
+    private static final class Element {
+        private final List<Object> bucket;
+        private final long hash;
+
+        private Element(List<Object> bucket, long hash) {
+            this.bucket = bucket;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Element that = (Element) o;
+            return hash == that.hash && bucket.equals(that.bucket);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(bucket, hash);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.Lists;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Sampled tracer of the P4Runtime write path. One every N write requests is
+ * traced, accumulating the time spent in each stage of the processing. The
+ * trace of the request being processed is bound to the current thread, so
+ * stages can be recorded by components down the call chain (e.g., the
+ * Up4DeviceManager) without passing the trace around. Traces slower than a
+ * threshold are kept in a lock-free ring buffer. When sampling is disabled,
+ * no object is allocated.
+ */
+public final class WriteTracer {
+
+    /**
+     * Stages of the write path.
+     */
+    public enum Stage {
+        /**
+         * Decoding of the P4Runtime entities.
+         */
+        DECODE,
+        /**
+         * Translation of the UP4 entities to UPF entities.
+         */
+        TRANSLATE,
+        /**
+         * Validation and conversion of the UPF entities in Up4DeviceManager.
+         */
+        VALIDATE,
+        /**
+         * Apply or delete on the leader UPF device.
+         */
+        LEADER_APPLY
+    }
+
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong slowCount = new AtomicLong();
+    private final AtomicReferenceArray<Trace> slowTraces;
+    private volatile int sampleRate;
+    private volatile long slowThresholdNanos;
+
+    /**
+     * Creates a new tracer.
+     *
+     * @param capacity        number of slow traces kept
+     * @param sampleRate      trace one every sampleRate requests, 0 to disable
+     * @param slowThresholdMs minimum duration (in milliseconds) of the traces kept
+     */
+    WriteTracer(int capacity, int sampleRate, long slowThresholdMs) {
+        this.slowTraces = new AtomicReferenceArray<>(capacity);
+        configure(sampleRate, slowThresholdMs);
+    }
+
+    /**
+     * Changes the sampling configuration.
+     *
+     * @param newSampleRate      trace one every newSampleRate requests, 0 to disable
+     * @param newSlowThresholdMs minimum duration (in milliseconds) of the traces kept
+     */
+    void configure(int newSampleRate, long newSlowThresholdMs) {
+        this.sampleRate = newSampleRate;
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(newSlowThresholdMs);
+    }
+
+    /**
+     * Starts tracing a write request, if sampled, binding the trace to the
+     * current thread.
+     *
+     * @param updates number of updates in the request
+     * @return the trace, or null if the request is not sampled
+     */
+    Trace begin(int updates) {
+        final int rate = sampleRate;
+        if (rate <= 0) {
+            return null;
+        }
+        final long n = requests.incrementAndGet();
+        if (n % rate != 0) {
+            return null;
+        }
+        final Trace trace = new Trace(n, updates);
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    /**
+     * Completes the given trace, unbinding it from the current thread. The
+     * trace is kept if slower than the threshold.
+     *
+     * @param trace   trace returned by {@link #begin(int)}, can be null
+     * @param success true if the request completed successfully
+     */
+    void end(Trace trace, boolean success) {
+        if (trace == null) {
+            return;
+        }
+        CURRENT.remove();
+        trace.totalNanos = System.nanoTime() - trace.startNanos;
+        trace.success = success;
+        if (trace.totalNanos >= slowThresholdNanos) {
+            final long slot = slowCount.getAndIncrement() % slowTraces.length();
+            slowTraces.set((int) slot, trace);
+        }
+    }
+
+    /**
+     * Returns the start time of a stage, to be passed to
+     * {@link #stageEnd(Stage, long)}. Cheap when no trace is bound to the
+     * current thread.
+     *
+     * @return start time in nanoseconds, or 0 if not tracing
+     */
+    static long stageStart() {
+        return CURRENT.get() == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Records the time spent in the given stage by the request traced on the
+     * current thread, if any.
+     *
+     * @param stage      stage
+     * @param startNanos start time, as returned by {@link #stageStart()} or
+     *                   {@link System#nanoTime()}
+     */
+    static void stageEnd(Stage stage, long startNanos) {
+        final Trace trace = CURRENT.get();
+        if (trace != null && startNanos != 0) {
+            trace.stageNanos[stage.ordinal()] += System.nanoTime() - startNanos;
+        }
+    }
+
+    /**
+     * Returns the slow traces kept, the most recent first.
+     *
+     * @return slow traces
+     */
+    public List<Trace> slowTraces() {
+        final List<Trace> traces = Lists.newArrayList();
+        for (int i = 0; i < slowTraces.length(); i++) {
+            final Trace trace = slowTraces.get(i);
+            if (trace != null) {
+                traces.add(trace);
+            }
+        }
+        traces.sort(Comparator.comparingLong(Trace::requestId).reversed());
+        return traces;
+    }
+
+    /**
+     * Returns the number of traces slower than the threshold, including the
+     * ones no longer kept.
+     *
+     * @return number of slow traces
+     */
+    public long slowCount() {
+        return slowCount.get();
+    }
+
+    /**
+     * Trace of a write request.
+     */
+    public static final class Trace {
+        private final long requestId;
+        private final long startTimeMillis = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private final int updates;
+        // Only accessed by the thread processing the request, published by
+        // the ring buffer.
+        private final long[] stageNanos = new long[Stage.values().length];
+        private long totalNanos;
+        private boolean success;
+
+        private Trace(long requestId, int updates) {
+            this.requestId = requestId;
+            this.updates = updates;
+        }
+
+        /**
+         * Returns the sequence number of the request.
+         *
+         * @return request sequence number
+         */
+        public long requestId() {
+            return requestId;
+        }
+
+        /**
+         * Returns the time the request was received.
+         *
+         * @return time in milliseconds since the epoch
+         */
+        public long startTimeMillis() {
+            return startTimeMillis;
+        }
+
+        /**
+         * Returns the number of updates in the request.
+         *
+         * @return number of updates
+         */
+        public int updates() {
+            return updates;
+        }
+
+        /**
+         * Returns true if the request completed successfully.
+         *
+         * @return true if successful
+         */
+        public boolean success() {
+            return success;
+        }
+
+        /**
+         * Returns the total processing time of the request.
+         *
+         * @return time in nanoseconds
+         */
+        public long totalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * Returns the time spent in the given stage, summed over all updates.
+         *
+         * @param stage stage
+         * @return time in nanoseconds
+         */
+        public long stageNanos(Stage stage) {
+            return stageNanos[stage.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder()
+                    .append("request=").append(requestId)
+                    .append(", updates=").append(updates)
+                    .append(", success=").append(success)
+                    .append(String.format(", total=%.3fms", totalNanos / 1e6));
+            long other = totalNanos;
+            for (Stage stage : Stage.values()) {
+                sb.append(String.format(", %s=%.3fms", stage.name().toLowerCase(),
+                                        stageNanos[stage.ordinal()] / 1e6));
+                other -= stageNanos[stage.ordinal()];
+            }
+            return sb.append(String.format(", other=%.3fms", other / 1e6)).toString();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.dbuf.client;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.onlab.packet.Ip4Address;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Tests for DbufClientPool.
+ */
+public class DbufClientPoolTest {
+
+    private static final int NUM_UES = 10000;
+    private static final Ip4Address FIRST_UE = Ip4Address.valueOf("17.0.0.1");
+
+    private static Ip4Address ue(int i) {
+        return Ip4Address.valueOf(FIRST_UE.toInt() + i);
+    }
+
+    @Test
+    public void testSingleInstance() {
+        var pool = new DbufClientPool(List.of(new MockDbufClient("dbuf-0:10000")));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(0, pool.indexOf(ue(i)));
+        }
+    }
+
+    @Test
+    public void testDistribution() {
+        var pool = new DbufClientPool(List.of(new MockDbufClient("dbuf-0:10000"),
+                                              new MockDbufClient("dbuf-1:10000"),
+                                              new MockDbufClient("dbuf-2:10000")));
+        int[] counts = new int[pool.size()];
+        for (int i = 0; i < NUM_UES; i++) {
+            counts[pool.indexOf(ue(i))]++;
+        }
+        for (int count : counts) {
+            // Roughly a third each.
+            Assert.assertTrue("Unbalanced distribution: " + count, count > NUM_UES / 5);
+        }
+    }
+
+    @Test
+    public void testOnlyRemovedInstanceUesAreRemapped() {
+        var client0 = new MockDbufClient("dbuf-0:10000");
+        var client1 = new MockDbufClient("dbuf-1:10000");
+        var client2 = new MockDbufClient("dbuf-2:10000");
+        var pool = new DbufClientPool(List.of(client0, client1, client2));
+        // Different order, one instance less.
+        var newPool = new DbufClientPool(List.of(client2, client0));
+        for (int i = 0; i < NUM_UES; i++) {
+            var client = pool.clientFor(ue(i));
+            if (client != client1) {
+                Assert.assertSame(client, newPool.clientFor(ue(i)));
+            }
+        }
+    }
+
+    private static final class MockDbufClient implements DbufClient {
+        private final String serviceAddr;
+
+        private MockDbufClient(String serviceAddr) {
+            this.serviceAddr = serviceAddr;
+        }
+
+        @Override
+        public String serviceAddr() {
+            return serviceAddr;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public Ip4Address dataplaneIp4Addr() {
+            return null;
+        }
+
+        @Override
+        public int dataplaneUdpPort() {
+            return 0;
+        }
+
+        @Override
+        public CompletableFuture<Boolean> drain(Ip4Address ueAddr, Ip4Address dstAddr, int udpPort) {
+            return CompletableFuture.completedFuture(true);
+        }
+
+        @Override
+        public int drainQueueDepth() {
+            return 0;
+        }
+
+        @Override
+        public int drainsInFlight() {
+            return 0;
+        }
+
+        @Override
+        public Map<Ip4Address, Long> droppedPackets() {
+            return Map.of();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.dbuf.client;
+
+import com.google.common.collect.Lists;
+import io.grpc.Status;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.Ip4Address;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tests for DbufDrainScheduler.
+ */
+public class DbufDrainSchedulerTest {
+
+    private static final Ip4Address UE_1 = Ip4Address.valueOf("17.0.0.1");
+    private static final Ip4Address UE_2 = Ip4Address.valueOf("17.0.0.2");
+    private static final Ip4Address UE_3 = Ip4Address.valueOf("17.0.0.3");
+    private static final Ip4Address DST_ADDR = Ip4Address.valueOf("2.2.2.2");
+    private static final Ip4Address NEW_DST_ADDR = Ip4Address.valueOf("2.2.2.3");
+    private static final int UDP_PORT = 2152;
+
+    private final List<Ip4Address> drainedUes = Lists.newCopyOnWriteArrayList();
+    private final List<Ip4Address> drainedDsts = Lists.newCopyOnWriteArrayList();
+    private final List<CompletableFuture<Status>> rpcs = Lists.newCopyOnWriteArrayList();
+    private ScheduledExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private DbufDrainScheduler scheduler(int maxInFlight, int maxRetries) {
+        return new DbufDrainScheduler((ueAddr, dstAddr, udpPort) -> {
+            drainedUes.add(ueAddr);
+            drainedDsts.add(dstAddr);
+            var rpc = new CompletableFuture<Status>();
+            rpcs.add(rpc);
+            return rpc;
+        }, executor, maxInFlight, maxRetries, 10, 100);
+    }
+
+    @Test
+    public void testMaxInFlight() throws ExecutionException, InterruptedException {
+        var scheduler = scheduler(2, 0);
+        var future1 = scheduler.submit(UE_1, DST_ADDR, UDP_PORT);
+        var future2 = scheduler.submit(UE_2, DST_ADDR, UDP_PORT);
+        var future3 = scheduler.submit(UE_3, DST_ADDR, UDP_PORT);
+        Assert.assertEquals(List.of(UE_1, UE_2), drainedUes);
+        Assert.assertEquals(2, scheduler.inFlight());
+        Assert.assertEquals(1, scheduler.queueDepth());
+
+        rpcs.get(0).complete(Status.OK);
+        Assert.assertTrue(future1.get());
+        Assert.assertEquals(List.of(UE_1, UE_2, UE_3), drainedUes);
+        Assert.assertEquals(0, scheduler.queueDepth());
+
+        rpcs.get(1).complete(Status.INVALID_ARGUMENT);
+        rpcs.get(2).complete(Status.OK);
+        Assert.assertFalse(future2.get());
+        Assert.assertTrue(future3.get());
+        Assert.assertEquals(0, scheduler.inFlight());
+    }
+
+    @Test
+    public void testMergeQueued() throws ExecutionException, InterruptedException {
+        var scheduler = scheduler(1, 0);
+        scheduler.submit(UE_1, DST_ADDR, UDP_PORT);
+        var future2 = scheduler.submit(UE_2, DST_ADDR, UDP_PORT);
+        var future2Merged = scheduler.submit(UE_2, NEW_DST_ADDR, UDP_PORT);
+        Assert.assertEquals(1, scheduler.queueDepth());
+
+        rpcs.get(0).complete(Status.OK);
+        Assert.assertEquals(List.of(UE_1, UE_2), drainedUes);
+        // Latest tunnel destination is used.
+        Assert.assertEquals(NEW_DST_ADDR, drainedDsts.get(1));
+        rpcs.get(1).complete(Status.OK);
+        Assert.assertTrue(future2.get());
+        Assert.assertTrue(future2Merged.get());
+    }
+
+    @Test
+    public void testRetryTransientFailure()
+            throws ExecutionException, InterruptedException, TimeoutException {
+        var scheduler = scheduler(1, 2);
+        var future = scheduler.submit(UE_1, DST_ADDR, UDP_PORT);
+        rpcs.get(0).complete(Status.UNAVAILABLE);
+        Assert.assertFalse(future.isDone());
+        // Wait for the retry.
+        Thread.sleep(200);
+        Assert.assertEquals(List.of(UE_1, UE_1), drainedUes);
+        rpcs.get(1).complete(Status.DEADLINE_EXCEEDED);
+        Thread.sleep(200);
+        Assert.assertEquals(3, drainedUes.size());
+        // No more retries.
+        rpcs.get(2).complete(Status.UNAVAILABLE);
+        Assert.assertFalse(future.get(1, TimeUnit.SECONDS));
+        Assert.assertEquals(3, drainedUes.size());
+    }
+
+    @Test
+    public void testShutdown() throws ExecutionException, InterruptedException {
+        var scheduler = scheduler(1, 0);
+        scheduler.submit(UE_1, DST_ADDR, UDP_PORT);
+        var future2 = scheduler.submit(UE_2, DST_ADDR, UDP_PORT);
+        scheduler.shutdown();
+        Assert.assertFalse(future2.get());
+        Assert.assertFalse(scheduler.submit(UE_3, DST_ADDR, UDP_PORT).get());
+    }
+}
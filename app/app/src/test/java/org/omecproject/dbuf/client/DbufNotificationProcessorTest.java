@@ -0,0 +1,78 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.dbuf.client;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+import org.omecproject.dbuf.grpc.Dbuf;
+
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Tests for DbufNotificationProcessor.
+ */
+public class DbufNotificationProcessorTest {
+
+    private static final Dbuf.Notification READY = Dbuf.Notification.newBuilder()
+            .setReady(Dbuf.Notification.Ready.getDefaultInstance())
+            .build();
+
+    private final List<List<Dbuf.Notification>> batches = Lists.newArrayList();
+    // Tasks submitted to the executor, run manually by the tests.
+    private final Queue<Runnable> tasks = Lists.newLinkedList();
+
+    private DbufNotificationProcessor processor(int capacity, int batchSize) {
+        return new DbufNotificationProcessor(
+                batch -> batches.add(List.copyOf(batch)), tasks::add, capacity, batchSize);
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.poll().run();
+        }
+    }
+
+    @Test
+    public void testBatching() {
+        var processor = processor(10, 4);
+        for (int i = 0; i < 6; i++) {
+            Assert.assertTrue(processor.offer(READY));
+        }
+        // Only one task is submitted for many notifications.
+        Assert.assertEquals(1, tasks.size());
+        Assert.assertEquals(6, processor.queueDepth());
+        runTasks();
+        Assert.assertEquals(2, batches.size());
+        Assert.assertEquals(4, batches.get(0).size());
+        Assert.assertEquals(2, batches.get(1).size());
+        Assert.assertEquals(0, processor.queueDepth());
+    }
+
+    @Test
+    public void testDiscardWhenFull() {
+        var processor = processor(2, 4);
+        Assert.assertTrue(processor.offer(READY));
+        Assert.assertTrue(processor.offer(READY));
+        Assert.assertFalse(processor.offer(READY));
+        Assert.assertEquals(1, processor.discardedCount());
+        runTasks();
+        Assert.assertEquals(1, batches.size());
+        Assert.assertEquals(2, batches.get(0).size());
+        // Space available again.
+        Assert.assertTrue(processor.offer(READY));
+    }
+
+    @Test
+    public void testShutdown() {
+        var processor = processor(10, 4);
+        processor.offer(READY);
+        processor.shutdown();
+        Assert.assertFalse(processor.offer(READY));
+        runTasks();
+        Assert.assertTrue(batches.isEmpty());
+    }
+}
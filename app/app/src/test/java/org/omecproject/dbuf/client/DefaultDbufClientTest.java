@@ -26,6 +26,7 @@ import java.util.concurrent.ExecutionException;
 
 import static org.mockito.AdditionalAnswers.delegatesTo;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 
 /**
@@ -132,6 +133,21 @@ public class DefaultDbufClientTest {
         Assert.assertFalse(future.get());
     }
 
+    @Test
+    public void testResubscribeOnStreamError() throws InterruptedException {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<StreamObserver<Dbuf.Notification>> observerCaptor =
+                ArgumentCaptor.forClass(StreamObserver.class);
+        verify(serviceImpl).subscribe(ArgumentMatchers.any(), observerCaptor.capture());
+        // Server fails the Subscribe RPC, e.g., because dbuf is restarting.
+        observerCaptor.getValue().onError(new StatusRuntimeException(Status.UNAVAILABLE));
+        // The RPC is restarted after the first, short, backoff.
+        verify(serviceImpl, timeout(1000).times(2)).subscribe(ArgumentMatchers.any(), ArgumentMatchers.any());
+        // Wait for the Ready notification.
+        Thread.sleep(100);
+        Assert.assertTrue(client.isReady());
+    }
+
     @Test
     public void testDataplaneIp4Addr() {
         Assert.assertEquals(DBUF_DATAPLANE_IP4_ADDR, client.dataplaneIp4Addr());
@@ -0,0 +1,87 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.onosproject.net.behaviour.upf.UpfCounter;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+public class CounterExpositionTest {
+
+    private static final CounterSnapshot PREVIOUS = new CounterSnapshot(1, 1000, ImmutableList.of(
+            counter(1, 10, 1000), counter(2, 20, 2000), counter(3, 30, 3000)));
+    private static final CounterSnapshot LATEST = new CounterSnapshot(2, 2000, ImmutableList.of(
+            counter(1, 10, 1000), counter(2, 22, 2200), counter(3, 5, 500), counter(4, 100, 10000)));
+
+    private static UpfCounter counter(int cellId, long pkts, long bytes) {
+        return UpfCounter.builder()
+                .withCellId(cellId)
+                .setIngress(pkts, bytes)
+                .setEgress(pkts / 2, bytes / 2)
+                .build();
+    }
+
+    @Test
+    public void testDelta() {
+        List<UpfCounter> deltas = LATEST.deltaSince(PREVIOUS, 0, 0);
+        // Cell 1 did not change, cell 3 was reset, cell 4 is new.
+        assertThat(deltas.size(), equalTo(3));
+        assertThat(deltas.get(0).getCellId(), equalTo(2));
+        assertThat(deltas.get(0).getIngressPkts(), equalTo(2L));
+        assertThat(deltas.get(0).getIngressBytes(), equalTo(200L));
+        assertThat(deltas.get(0).getEgressPkts(), equalTo(1L));
+        assertThat(deltas.get(1).getCellId(), equalTo(3));
+        assertThat(deltas.get(1).getIngressPkts(), equalTo(5L));
+        assertThat(deltas.get(2).getCellId(), equalTo(4));
+        assertThat(deltas.get(2).getIngressBytes(), equalTo(10000L));
+
+        // Only cell 4 increased by at least 50 packets or 5000 bytes.
+        deltas = LATEST.deltaSince(PREVIOUS, 50, 5000);
+        assertThat(deltas.size(), equalTo(1));
+        assertThat(deltas.get(0).getCellId(), equalTo(4));
+
+        assertThat(LATEST.deltaSince(null, 0, 0).size(), equalTo(4));
+    }
+
+    @Test
+    public void testFormat() {
+        String text = CounterExposition.parse(null).format(LATEST, PREVIOUS);
+        assertThat(text, containsString("# TYPE up4_counter_ingress_packets_total counter\n"));
+        assertThat(text, containsString("up4_counter_ingress_packets_total{cell=\"1\"} 10\n"));
+        assertThat(text, containsString("up4_counter_egress_bytes_total{cell=\"4\"} 5000\n"));
+        assertThat(text, containsString("up4_counter_snapshot_timestamp_seconds 2.0\n"));
+
+        assertThat(CounterExposition.parse(null).format(null, null), equalTo(""));
+    }
+
+    @Test
+    public void testFilterAndDelta() {
+        String text = CounterExposition.parse("cell=1,2&direction=ingress&delta=true").format(LATEST, PREVIOUS);
+        assertThat(text, containsString("# TYPE up4_counter_ingress_packets_delta gauge\n"));
+        assertThat(text, containsString("up4_counter_ingress_packets_delta{cell=\"2\"} 2\n"));
+        // Unchanged cell.
+        assertThat(text, not(containsString("cell=\"1\"")));
+        // Filtered out.
+        assertThat(text, not(containsString("cell=\"4\"")));
+        assertThat(text, not(containsString("egress")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCell() {
+        CounterExposition.parse("cell=foo");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownParameter() {
+        CounterExposition.parse("ue=10.0.0.1");
+    }
+}
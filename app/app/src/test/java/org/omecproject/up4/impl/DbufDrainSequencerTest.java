@@ -0,0 +1,102 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.Ip4Address;
+import org.onosproject.net.DeviceId;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class DbufDrainSequencerTest {
+
+    private static final Ip4Address UE_ADDR = Ip4Address.valueOf("17.0.0.1");
+    private static final DeviceId LEADER = DeviceId.deviceId("device:leader");
+    private static final DeviceId FOLLOWER = DeviceId.deviceId("device:follower");
+    private static final long LONG_TIMEOUT = 60000;
+
+    private final List<Ip4Address> drained = Lists.newCopyOnWriteArrayList();
+    private ScheduledExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private DbufDrainSequencer sequencer(long timeout) {
+        return new DbufDrainSequencer(drained::add, () -> ImmutableList.of(LEADER, FOLLOWER),
+                                      executor, timeout);
+    }
+
+    @Test
+    public void testDrainWhenRulesInstalled() {
+        var sequencer = sequencer(LONG_TIMEOUT);
+        sequencer.track(UE_ADDR);
+        // Buffering session, then forwarding termination and session.
+        sequencer.ruleApplied(UE_ADDR);
+        sequencer.ruleApplied(UE_ADDR);
+        sequencer.ruleApplied(UE_ADDR);
+        sequencer.arm(UE_ADDR);
+        assertThat(drained.size(), equalTo(0));
+
+        for (int i = 0; i < 3; i++) {
+            sequencer.ruleAdded(LEADER, UE_ADDR);
+        }
+        sequencer.ruleAdded(FOLLOWER, UE_ADDR);
+        sequencer.ruleAdded(FOLLOWER, UE_ADDR);
+        assertThat(drained.size(), equalTo(0));
+        sequencer.ruleAdded(FOLLOWER, UE_ADDR);
+        assertThat(drained, equalTo(List.of(UE_ADDR)));
+        assertThat(sequencer.isTracked(UE_ADDR), equalTo(false));
+
+        // Further confirmations are ignored.
+        sequencer.ruleAdded(FOLLOWER, UE_ADDR);
+        assertThat(drained.size(), equalTo(1));
+    }
+
+    @Test
+    public void testDrainOnTimeout() throws InterruptedException {
+        var sequencer = sequencer(50);
+        sequencer.track(UE_ADDR);
+        sequencer.ruleApplied(UE_ADDR);
+        sequencer.arm(UE_ADDR);
+        sequencer.ruleAdded(LEADER, UE_ADDR);
+        assertThat(drained.size(), equalTo(0));
+        Thread.sleep(300);
+        assertThat(drained, equalTo(List.of(UE_ADDR)));
+    }
+
+    @Test
+    public void testDrainImmediatelyIfNotTracked() {
+        var sequencer = sequencer(LONG_TIMEOUT);
+        sequencer.arm(UE_ADDR);
+        assertThat(drained, equalTo(List.of(UE_ADDR)));
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        var sequencer = sequencer(50);
+        sequencer.track(UE_ADDR);
+        sequencer.ruleApplied(UE_ADDR);
+        sequencer.arm(UE_ADDR);
+        sequencer.cancel(UE_ADDR);
+        Thread.sleep(300);
+        assertThat(drained.size(), equalTo(0));
+    }
+}
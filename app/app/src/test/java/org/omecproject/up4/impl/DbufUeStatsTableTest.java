@@ -0,0 +1,62 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class DbufUeStatsTableTest {
+
+    private static final int FIRST_UE = 0x11000001;
+    private static final int NUM_UES = 1000;
+
+    private static Map<Integer, long[]> dump(DbufUeStatsTable table) {
+        final Map<Integer, long[]> entries = Maps.newHashMap();
+        table.forEach((ueAddr, firstBufferTime, drainStartTime, drainEndTime, firstBufferCount) ->
+                entries.put(ueAddr, new long[]{firstBufferTime, drainStartTime, drainEndTime, firstBufferCount}));
+        return entries;
+    }
+
+    @Test
+    public void testRecord() {
+        var table = new DbufUeStatsTable();
+        table.recordFirstBuffer(FIRST_UE, 10);
+        table.recordFirstBuffer(FIRST_UE, 20);
+        table.recordDrainStart(FIRST_UE, 30);
+        table.recordDrainEnd(FIRST_UE, 35);
+        assertThat(table.size(), equalTo(1));
+        assertThat(dump(table).get(FIRST_UE), equalTo(new long[]{20, 30, 35, 2}));
+    }
+
+    @Test
+    public void testGrowAndRemove() {
+        var table = new DbufUeStatsTable();
+        for (int i = 0; i < NUM_UES; i++) {
+            table.recordFirstBuffer(FIRST_UE + i, i);
+        }
+        assertThat(table.size(), equalTo(NUM_UES));
+        // Remove every other UE, the others must still be found.
+        for (int i = 0; i < NUM_UES; i += 2) {
+            assertThat(table.remove(FIRST_UE + i), equalTo(true));
+        }
+        assertThat(table.remove(FIRST_UE), equalTo(false));
+        assertThat(table.size(), equalTo(NUM_UES / 2));
+        var entries = dump(table);
+        for (int i = 1; i < NUM_UES; i += 2) {
+            assertThat(entries.get(FIRST_UE + i), equalTo(new long[]{i, 0, 0, 1}));
+        }
+        // Re-added UEs start from empty stats.
+        table.recordDrainStart(FIRST_UE, 5);
+        assertThat(dump(table).get(FIRST_UE), equalTo(new long[]{0, 5, 0, 0}));
+
+        table.clear();
+        assertThat(table.size(), equalTo(0));
+    }
+}
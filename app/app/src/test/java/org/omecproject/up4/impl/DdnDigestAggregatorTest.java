@@ -0,0 +1,131 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onlab.packet.Ip4Address;
+import p4.v1.P4RuntimeOuterClass;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.omecproject.up4.impl.ExtraP4InfoConstants.DDN_DIGEST_ID;
+
+public class DdnDigestAggregatorTest {
+
+    private static final Ip4Address UE_1 = Ip4Address.valueOf("17.0.0.1");
+    private static final Ip4Address UE_2 = Ip4Address.valueOf("17.0.0.2");
+    private static final Ip4Address UE_3 = Ip4Address.valueOf("17.0.0.3");
+    private static final long LONG_TIMEOUT = 60000;
+
+    private final List<P4RuntimeOuterClass.DigestList> sentLists = Lists.newCopyOnWriteArrayList();
+    private ScheduledExecutorService executor;
+    private volatile boolean senderReady = true;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private DdnDigestAggregator aggregator(int maxListSize, long maxTimeout, long ackTimeout) {
+        return new DdnDigestAggregator(sentLists::add, () -> senderReady, executor,
+                                       maxListSize, maxTimeout, ackTimeout);
+    }
+
+    private static Ip4Address ueAddr(P4RuntimeOuterClass.DigestList digestList, int idx) {
+        return Ip4Address.valueOf(digestList.getData(idx).getBitstring().toByteArray());
+    }
+
+    @Test
+    public void testFlushOnMaxListSize() {
+        var aggregator = aggregator(2, LONG_TIMEOUT, LONG_TIMEOUT);
+        assertThat(aggregator.add(UE_1), equalTo(true));
+        assertThat(sentLists.size(), equalTo(0));
+        assertThat(aggregator.add(UE_2), equalTo(true));
+        assertThat(sentLists.size(), equalTo(1));
+        var digestList = sentLists.get(0);
+        assertThat(digestList.getDigestId(), equalTo(DDN_DIGEST_ID));
+        assertThat(digestList.getDataCount(), equalTo(2));
+        assertThat(ueAddr(digestList, 0), equalTo(UE_1));
+        assertThat(ueAddr(digestList, 1), equalTo(UE_2));
+        assertThat(aggregator.pendingCount(), equalTo(0));
+    }
+
+    @Test
+    public void testFlushOnMaxTimeout() throws InterruptedException {
+        var aggregator = aggregator(10, 50, LONG_TIMEOUT);
+        aggregator.add(UE_1);
+        aggregator.add(UE_2);
+        assertThat(sentLists.size(), equalTo(0));
+        Thread.sleep(500);
+        assertThat(sentLists.size(), equalTo(1));
+        assertThat(sentLists.get(0).getDataCount(), equalTo(2));
+    }
+
+    @Test
+    public void testSuppressUntilAck() {
+        var aggregator = aggregator(1, 0, LONG_TIMEOUT);
+        assertThat(aggregator.add(UE_1), equalTo(true));
+        assertThat(aggregator.add(UE_1), equalTo(false));
+        assertThat(aggregator.add(UE_2), equalTo(true));
+        assertThat(sentLists.size(), equalTo(2));
+        assertThat(aggregator.outstandingCount(), equalTo(2));
+
+        assertThat(aggregator.ack(sentLists.get(0).getListId()), equalTo(true));
+        assertThat(aggregator.ack(sentLists.get(0).getListId()), equalTo(false));
+        assertThat(aggregator.add(UE_1), equalTo(true));
+        assertThat(aggregator.add(UE_2), equalTo(false));
+        assertThat(sentLists.size(), equalTo(3));
+    }
+
+    @Test
+    public void testSuppressUntilAckTimeout() throws InterruptedException {
+        var aggregator = aggregator(1, 0, 50);
+        assertThat(aggregator.add(UE_1), equalTo(true));
+        assertThat(aggregator.add(UE_1), equalTo(false));
+        Thread.sleep(100);
+        assertThat(aggregator.add(UE_1), equalTo(true));
+        assertThat(sentLists.size(), equalTo(2));
+    }
+
+    @Test
+    public void testNoSuppressionIfNotSent() {
+        var aggregator = new DdnDigestAggregator(digestList -> false, () -> true, executor, 1, 0, LONG_TIMEOUT);
+        assertThat(aggregator.add(UE_3), equalTo(true));
+        assertThat(aggregator.add(UE_3), equalTo(true));
+        assertThat(aggregator.outstandingCount(), equalTo(0));
+    }
+
+    @Test
+    public void testHoldWhileSenderNotReady() {
+        var aggregator = aggregator(2, 0, LONG_TIMEOUT);
+        senderReady = false;
+        assertThat(aggregator.add(UE_1), equalTo(true));
+        assertThat(aggregator.add(UE_2), equalTo(true));
+        assertThat(aggregator.add(UE_3), equalTo(true));
+        assertThat(aggregator.add(UE_1), equalTo(false));
+        assertThat(sentLists.size(), equalTo(0));
+        assertThat(aggregator.pendingCount(), equalTo(3));
+
+        senderReady = true;
+        aggregator.flush();
+        // Lists are still limited by max list size.
+        assertThat(sentLists.size(), equalTo(2));
+        assertThat(sentLists.get(0).getDataCount(), equalTo(2));
+        assertThat(sentLists.get(1).getDataCount(), equalTo(1));
+        assertThat(ueAddr(sentLists.get(1), 0), equalTo(UE_3));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import p4.v1.P4RuntimeOuterClass;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.omecproject.up4.impl.ExtraP4InfoConstants.DDN_DIGEST_ID;
+
+public class DigestListWindowTest {
+
+    private static final long TIMEOUT = 1000;
+
+    private static P4RuntimeOuterClass.DigestList digestList(long listId) {
+        return P4RuntimeOuterClass.DigestList.newBuilder()
+                .setDigestId(DDN_DIGEST_ID)
+                .setListId(listId)
+                .build();
+    }
+
+    @Test
+    public void testCapacity() {
+        var window = new DigestListWindow(2);
+        assertThat(window.add(digestList(1), 0), equalTo(true));
+        assertThat(window.hasCapacity(), equalTo(true));
+        assertThat(window.add(digestList(2), 0), equalTo(true));
+        assertThat(window.hasCapacity(), equalTo(false));
+        assertThat(window.add(digestList(3), 0), equalTo(false));
+        assertThat(window.size(), equalTo(2));
+
+        assertThat(window.ack(1), equalTo(true));
+        // Already acknowledged, or never sent.
+        assertThat(window.ack(1), equalTo(false));
+        assertThat(window.ack(3), equalTo(false));
+        assertThat(window.hasCapacity(), equalTo(true));
+        assertThat(window.add(digestList(3), 0), equalTo(true));
+        assertThat(window.size(), equalTo(2));
+    }
+
+    @Test
+    public void testRetransmitOrder() {
+        var window = new DigestListWindow(4);
+        final List<Long> givenUp = Lists.newArrayList();
+        window.add(digestList(1), 0);
+        window.add(digestList(2), 100);
+        assertThat(window.expired(TIMEOUT - 1, TIMEOUT, 3, givenUp).isEmpty(), equalTo(true));
+        assertThat(window.expired(TIMEOUT, TIMEOUT, 3, givenUp), equalTo(ImmutableList.of(digestList(1))));
+        // List 1 has been moved after list 2, which expires first now.
+        assertThat(window.expired(TIMEOUT + 100, TIMEOUT, 3, givenUp), equalTo(ImmutableList.of(digestList(2))));
+        assertThat(window.expired(2 * TIMEOUT - 1, TIMEOUT, 3, givenUp).isEmpty(), equalTo(true));
+        assertThat(window.expired(2 * TIMEOUT + 100, TIMEOUT, 3, givenUp),
+                   equalTo(ImmutableList.of(digestList(1), digestList(2))));
+        assertThat(givenUp.isEmpty(), equalTo(true));
+        assertThat(window.size(), equalTo(2));
+
+        // Acknowledged lists are not retransmitted.
+        window.ack(1);
+        assertThat(window.expired(4 * TIMEOUT, TIMEOUT, 3, givenUp), equalTo(ImmutableList.of(digestList(2))));
+    }
+
+    @Test
+    public void testGiveUp() {
+        var window = new DigestListWindow(1);
+        final List<Long> givenUp = Lists.newArrayList();
+        window.add(digestList(1), 0);
+        assertThat(window.expired(TIMEOUT, TIMEOUT, 2, givenUp), equalTo(ImmutableList.of(digestList(1))));
+        assertThat(window.expired(2 * TIMEOUT, TIMEOUT, 2, givenUp), equalTo(ImmutableList.of(digestList(1))));
+        assertThat(givenUp.isEmpty(), equalTo(true));
+        // Retransmitted twice, removed from the window.
+        assertThat(window.expired(3 * TIMEOUT, TIMEOUT, 2, givenUp).isEmpty(), equalTo(true));
+        assertThat(givenUp, equalTo(ImmutableList.of(1L)));
+        assertThat(window.size(), equalTo(0));
+        assertThat(window.hasCapacity(), equalTo(true));
+        assertThat(window.ack(1), equalTo(false));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.onlab.packet.Data;
+import org.onlab.packet.Ethernet;
+import org.onlab.packet.IPv4;
+import org.onlab.packet.Ip4Address;
+import org.onlab.packet.MacAddress;
+import org.onlab.packet.UDP;
+import org.onosproject.net.DeviceId;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+public class PacketOutDeviceSelectorsTest {
+
+    private static final Ip4Address N3_ADDR = Ip4Address.valueOf("192.168.0.1");
+    private static final Ip4Address ENB_ADDR = Ip4Address.valueOf("192.168.0.2");
+    private static final Ip4Address UE_ADDR = Ip4Address.valueOf("17.0.0.1");
+    private static final Ip4Address PDN_ADDR = Ip4Address.valueOf("10.0.0.1");
+    private static final int TEID = 0x12345678;
+    private static final byte GTPU_TYPE_GPDU = (byte) 0xff;
+    private static final byte GTPU_TYPE_END_MARKER = (byte) 0xfe;
+
+    private static final List<DeviceId> DEVICES = ImmutableList.of(
+            DeviceId.deviceId("device:leaf1"),
+            DeviceId.deviceId("device:leaf2"),
+            DeviceId.deviceId("device:leaf3"));
+
+    private static IPv4 ipv4(Ip4Address src, Ip4Address dst, byte proto) {
+        var ipv4 = new IPv4();
+        ipv4.setSourceAddress(src.toInt());
+        ipv4.setDestinationAddress(dst.toInt());
+        ipv4.setProtocol(proto);
+        ipv4.setTtl((byte) 64);
+        return ipv4;
+    }
+
+    private static byte[] frame(IPv4 ipv4, short vlanId) {
+        var eth = new Ethernet();
+        eth.setSourceMACAddress(MacAddress.valueOf("00:00:00:00:00:01"));
+        eth.setDestinationMACAddress(MacAddress.valueOf("00:00:00:00:00:02"));
+        eth.setEtherType(Ethernet.TYPE_IPV4);
+        eth.setVlanID(vlanId);
+        eth.setPayload(ipv4);
+        return eth.serialize();
+    }
+
+    private static byte[] gtpuFrame(byte type, byte[] innerPacket) {
+        int innerLen = innerPacket == null ? 0 : innerPacket.length;
+        var gtpu = ByteBuffer.allocate(8 + innerLen)
+                .put((byte) 0x30)
+                .put(type)
+                .putShort((short) innerLen)
+                .putInt(TEID);
+        if (innerPacket != null) {
+            gtpu.put(innerPacket);
+        }
+        var udp = new UDP();
+        udp.setSourcePort(2152);
+        udp.setDestinationPort(2152);
+        udp.setPayload(new Data(gtpu.array()));
+        var outer = ipv4(N3_ADDR, ENB_ADDR, IPv4.PROTOCOL_UDP);
+        outer.setPayload(udp);
+        return frame(outer, Ethernet.VLAN_UNTAGGED);
+    }
+
+    @Test
+    public void testUeKeyIpv4() {
+        var frame = frame(ipv4(PDN_ADDR, UE_ADDR, IPv4.PROTOCOL_ICMP), Ethernet.VLAN_UNTAGGED);
+        assertThat(PacketOutDeviceSelectors.ueKey(ByteBuffer.wrap(frame)), equalTo(UE_ADDR.toInt()));
+    }
+
+    @Test
+    public void testUeKeyVlanTagged() {
+        var frame = frame(ipv4(PDN_ADDR, UE_ADDR, IPv4.PROTOCOL_ICMP), (short) 100);
+        assertThat(PacketOutDeviceSelectors.ueKey(ByteBuffer.wrap(frame)), equalTo(UE_ADDR.toInt()));
+    }
+
+    @Test
+    public void testUeKeyGtpu() {
+        var inner = ipv4(PDN_ADDR, UE_ADDR, IPv4.PROTOCOL_ICMP).serialize();
+        var frame = gtpuFrame(GTPU_TYPE_GPDU, inner);
+        assertThat(PacketOutDeviceSelectors.ueKey(ByteBuffer.wrap(frame)), equalTo(UE_ADDR.toInt()));
+    }
+
+    @Test
+    public void testUeKeyEndMarker() {
+        var frame = gtpuFrame(GTPU_TYPE_END_MARKER, null);
+        assertThat(PacketOutDeviceSelectors.ueKey(ByteBuffer.wrap(frame)), equalTo(TEID));
+    }
+
+    @Test
+    public void testUeKeyNotIpv4() {
+        var frame = new byte[64];
+        assertThat(PacketOutDeviceSelectors.ueKey(ByteBuffer.wrap(frame)), nullValue());
+        assertThat(PacketOutDeviceSelectors.ueKey(ByteBuffer.wrap(new byte[4])), nullValue());
+    }
+
+    @Test
+    public void testUeHashIsStable() {
+        var selector = PacketOutDeviceSelectors.create(PacketOutDeviceSelectors.Type.UE_HASH);
+        var frame = ByteBuffer.wrap(frame(ipv4(PDN_ADDR, UE_ADDR, IPv4.PROTOCOL_ICMP), Ethernet.VLAN_UNTAGGED));
+        var selected = selector.select(DEVICES, frame);
+        for (int i = 0; i < 10; i++) {
+            assertThat(selector.select(DEVICES, frame), equalTo(selected));
+        }
+        assertThat(frame.position(), equalTo(0));
+    }
+
+    @Test
+    public void testRoundRobin() {
+        var selector = PacketOutDeviceSelectors.create(PacketOutDeviceSelectors.Type.ROUND_ROBIN);
+        var frame = ByteBuffer.wrap(new byte[64]);
+        var first = selector.select(DEVICES, frame);
+        var second = selector.select(DEVICES, frame);
+        var third = selector.select(DEVICES, frame);
+        assertThat(second, not(equalTo(first)));
+        assertThat(third, not(equalTo(first)));
+        assertThat(third, not(equalTo(second)));
+        assertThat(selector.select(DEVICES, frame), equalTo(first));
+    }
+
+    @Test
+    public void testLeastRecentlyUsed() {
+        var selector = PacketOutDeviceSelectors.create(PacketOutDeviceSelectors.Type.LEAST_RECENTLY_USED);
+        var frame = ByteBuffer.wrap(new byte[64]);
+        var twoDevices = DEVICES.subList(0, 2);
+        assertThat(selector.select(twoDevices, frame), equalTo(DEVICES.get(0)));
+        assertThat(selector.select(twoDevices, frame), equalTo(DEVICES.get(1)));
+        // Never used device is selected first.
+        assertThat(selector.select(DEVICES, frame), equalTo(DEVICES.get(2)));
+        assertThat(selector.select(DEVICES, frame), equalTo(DEVICES.get(0)));
+    }
+}
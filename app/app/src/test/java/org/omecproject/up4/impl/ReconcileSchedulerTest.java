@@ -0,0 +1,61 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class ReconcileSchedulerTest {
+
+    private static final long INTERVAL = 30000;
+
+    @Test
+    public void testNominalInterval() {
+        var scheduler = new ReconcileScheduler(0);
+        assertThat(scheduler.nextDelay(INTERVAL, 0, INTERVAL), equalTo(INTERVAL));
+        assertThat(scheduler.nextDelay(10, 0, 2 * INTERVAL), equalTo(ReconcileScheduler.MIN_DELAY));
+    }
+
+    @Test
+    public void testDrift() {
+        var scheduler = new ReconcileScheduler(0);
+        assertThat(scheduler.nextDelay(INTERVAL, 5, INTERVAL), equalTo(INTERVAL / 4));
+        assertThat(scheduler.nextDelay(INTERVAL, 0, 2 * INTERVAL), equalTo(INTERVAL));
+    }
+
+    @Test
+    public void testDeviceEvent() {
+        var scheduler = new ReconcileScheduler(0);
+        scheduler.recordDeviceEvent(INTERVAL / 2);
+        assertThat(scheduler.nextDelay(INTERVAL, 0, INTERVAL), equalTo(INTERVAL / 4));
+        // Devices stable again.
+        assertThat(scheduler.nextDelay(INTERVAL, 0, 2 * INTERVAL), equalTo(INTERVAL));
+    }
+
+    @Test
+    public void testHighWriteLoad() {
+        var scheduler = new ReconcileScheduler(0);
+        for (int i = 0; i < ReconcileScheduler.HIGH_WRITE_RATE * 2 * INTERVAL / 1000; i++) {
+            scheduler.recordWrite();
+        }
+        assertThat(scheduler.nextDelay(INTERVAL, 0, INTERVAL), equalTo(INTERVAL * 2));
+        // Writes are counted since the last pass.
+        assertThat(scheduler.nextDelay(INTERVAL, 0, 2 * INTERVAL), equalTo(INTERVAL));
+    }
+
+    @Test
+    public void testFullPass() {
+        var scheduler = new ReconcileScheduler(0);
+        for (int i = 0; i < ReconcileScheduler.MAX_PASSES_BETWEEN_FULL; i++) {
+            assertThat(scheduler.fullPassRequired(), equalTo(false));
+            scheduler.passDone(false);
+        }
+        assertThat(scheduler.fullPassRequired(), equalTo(true));
+        scheduler.passDone(true);
+        assertThat(scheduler.fullPassRequired(), equalTo(false));
+    }
+}
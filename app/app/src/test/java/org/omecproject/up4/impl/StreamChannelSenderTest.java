@@ -0,0 +1,289 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.junit.Test;
+import p4.v1.P4RuntimeOuterClass.DigestList;
+import p4.v1.P4RuntimeOuterClass.StreamMessageResponse;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.omecproject.up4.impl.StreamChannelSender.FullQueuePolicy.DROP_NEWEST;
+import static org.omecproject.up4.impl.StreamChannelSender.FullQueuePolicy.DROP_OLDEST;
+
+public class StreamChannelSenderTest {
+
+    private static final int MAX_OUTSTANDING = 2;
+
+    private final FakeCallObserver observer = new FakeCallObserver();
+
+    private StreamChannelSender sender(int queueSize, StreamChannelSender.FullQueuePolicy policy) {
+        return new StreamChannelSender(observer, queueSize, policy, MAX_OUTSTANDING);
+    }
+
+    // Messages are told apart by the list_id of a DigestList.
+    private static StreamMessageResponse message(long id) {
+        return StreamMessageResponse.newBuilder()
+                .setDigest(DigestList.newBuilder().setListId(id).build())
+                .build();
+    }
+
+    private static DigestList digestList(long id) {
+        return message(id).getDigest();
+    }
+
+    @Test
+    public void testDropNewest() {
+        observer.ready = false;
+        var sender = sender(2, DROP_NEWEST);
+        assertThat(sender.send(message(1)), equalTo(true));
+        assertThat(sender.send(message(2)), equalTo(true));
+        assertThat(sender.send(message(3)), equalTo(false));
+        assertThat(sender.queueDepth(), equalTo(2));
+        assertThat(sender.droppedCount(), equalTo(1L));
+        assertThat(observer.sentIds().isEmpty(), equalTo(true));
+
+        observer.setReady(true);
+        assertThat(observer.sentIds(), equalTo(ImmutableList.of(1L, 2L)));
+        assertThat(sender.queueDepth(), equalTo(0));
+        assertThat(sender.sentCount(), equalTo(2L));
+    }
+
+    @Test
+    public void testDropOldest() {
+        observer.ready = false;
+        var sender = sender(2, DROP_OLDEST);
+        assertThat(sender.send(message(1)), equalTo(true));
+        assertThat(sender.send(message(2)), equalTo(true));
+        assertThat(sender.send(message(3)), equalTo(true));
+        assertThat(sender.queueDepth(), equalTo(2));
+        assertThat(sender.droppedCount(), equalTo(1L));
+
+        observer.setReady(true);
+        assertThat(observer.sentIds(), equalTo(ImmutableList.of(2L, 3L)));
+    }
+
+    @Test
+    public void testCoalescing() {
+        observer.ready = false;
+        var sender = sender(4, DROP_NEWEST);
+        assertThat(sender.send(message(1), "key"), equalTo(true));
+        assertThat(sender.send(message(1), "key"), equalTo(true));
+        assertThat(sender.queueDepth(), equalTo(1));
+        assertThat(sender.coalescedCount(), equalTo(1L));
+
+        observer.setReady(true);
+        assertThat(observer.sentIds(), equalTo(ImmutableList.of(1L)));
+        // Sent, the key can be used again.
+        sender.send(message(1), "key");
+        assertThat(observer.sentIds(), equalTo(ImmutableList.of(1L, 1L)));
+        assertThat(sender.coalescedCount(), equalTo(1L));
+    }
+
+    @Test
+    public void testCoalescingKeysOfDroppedMessages() {
+        observer.ready = false;
+        var sender = sender(1, DROP_OLDEST);
+        sender.send(message(1), "a");
+        // Evicts message 1, and releases its key.
+        sender.send(message(2), "b");
+        sender.send(message(3), "a");
+        assertThat(sender.coalescedCount(), equalTo(0L));
+        assertThat(sender.droppedCount(), equalTo(2L));
+        observer.setReady(true);
+        assertThat(observer.sentIds(), equalTo(ImmutableList.of(3L)));
+
+        observer.ready = false;
+        sender = sender(1, DROP_NEWEST);
+        sender.send(message(4), "a");
+        // Dropped, its key is not kept.
+        assertThat(sender.send(message(5), "b"), equalTo(false));
+        observer.setReady(true);
+        assertThat(sender.send(message(6), "b"), equalTo(true));
+        assertThat(sender.coalescedCount(), equalTo(0L));
+        assertThat(observer.sentIds(), equalTo(ImmutableList.of(3L, 4L, 6L)));
+    }
+
+    @Test
+    public void testReadyGating() {
+        var sender = sender(4, DROP_NEWEST);
+        sender.send(message(1));
+        assertThat(observer.sentIds(), equalTo(ImmutableList.of(1L)));
+        observer.ready = false;
+        sender.send(message(2));
+        sender.send(message(3));
+        assertThat(observer.sentIds(), equalTo(ImmutableList.of(1L)));
+        assertThat(sender.queueDepth(), equalTo(2));
+        // Drained by the onReady handler.
+        observer.setReady(true);
+        assertThat(observer.sentIds(), equalTo(ImmutableList.of(1L, 2L, 3L)));
+    }
+
+    @Test
+    public void testClose() {
+        observer.ready = false;
+        var sender = sender(4, DROP_NEWEST);
+        sender.send(message(1));
+        sender.close(null);
+        assertThat(observer.completed, equalTo(true));
+        assertThat(sender.isClosed(), equalTo(true));
+        assertThat(sender.queueDepth(), equalTo(0));
+        assertThat(sender.send(message(2)), equalTo(false));
+        assertThat(sender.canSendDigestList(), equalTo(false));
+        // Already closed.
+        sender.close(Status.INTERNAL.asException());
+        assertThat(observer.error, nullValue());
+        observer.setReady(true);
+        assertThat(observer.sentIds().isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void testCloseWithError() {
+        var sender = sender(4, DROP_NEWEST);
+        sender.close(Status.INVALID_ARGUMENT.asException());
+        assertThat(Status.fromThrowable(observer.error).getCode(), equalTo(Status.Code.INVALID_ARGUMENT));
+        assertThat(observer.completed, equalTo(false));
+    }
+
+    @Test
+    public void testCancel() {
+        observer.ready = false;
+        var sender = sender(4, DROP_NEWEST);
+        sender.send(message(1), "key");
+        observer.onCancelHandler.run();
+        assertThat(sender.isClosed(), equalTo(true));
+        assertThat(sender.queueDepth(), equalTo(0));
+        assertThat(sender.send(message(2), "key"), equalTo(false));
+        assertThat(sender.sendDigestList(digestList(3)), equalTo(false));
+    }
+
+    @Test
+    public void testSendFailure() {
+        var sender = sender(4, DROP_NEWEST);
+        final AtomicInteger failures = new AtomicInteger();
+        sender.setFailureHandler(failures::incrementAndGet);
+        observer.failOnNext = new IllegalStateException("call already closed");
+        sender.send(message(1));
+        assertThat(sender.isClosed(), equalTo(true));
+        assertThat(failures.get(), equalTo(1));
+        assertThat(Status.fromThrowable(observer.error).getCode(), equalTo(Status.Code.UNAVAILABLE));
+        assertThat(sender.send(message(2)), equalTo(false));
+        assertThat(failures.get(), equalTo(1));
+    }
+
+    @Test
+    public void testDigestListWindow() {
+        observer.ready = false;
+        var sender = sender(4, DROP_NEWEST);
+        assertThat(sender.sendDigestList(digestList(1)), equalTo(true));
+        assertThat(sender.sendDigestList(digestList(2)), equalTo(true));
+        assertThat(sender.canSendDigestList(), equalTo(false));
+        assertThat(sender.sendDigestList(digestList(3)), equalTo(false));
+        assertThat(sender.outstandingDigestLists(), equalTo(2));
+
+        // Retransmissions are coalesced with the lists still queued.
+        final List<Long> givenUp = Lists.newArrayList();
+        sender.retransmitDigestLists(0, 3, givenUp);
+        assertThat(sender.retransmittedCount(), equalTo(2L));
+        assertThat(sender.coalescedCount(), equalTo(2L));
+        assertThat(sender.queueDepth(), equalTo(2));
+
+        observer.setReady(true);
+        assertThat(observer.sentIds(), equalTo(ImmutableList.of(1L, 2L)));
+        assertThat(sender.ackDigestList(1), equalTo(true));
+        assertThat(sender.ackDigestList(1), equalTo(false));
+        assertThat(sender.canSendDigestList(), equalTo(true));
+        assertThat(givenUp.isEmpty(), equalTo(true));
+    }
+
+    /**
+     * Server call observer with controllable readiness.
+     */
+    private static final class FakeCallObserver extends ServerCallStreamObserver<StreamMessageResponse> {
+        private final List<StreamMessageResponse> sent = Lists.newArrayList();
+        private volatile boolean ready = true;
+        private Runnable onReadyHandler;
+        private Runnable onCancelHandler;
+        private RuntimeException failOnNext;
+        private Throwable error;
+        private boolean completed;
+
+        private void setReady(boolean ready) {
+            this.ready = ready;
+            if (ready && onReadyHandler != null) {
+                onReadyHandler.run();
+            }
+        }
+
+        private List<Long> sentIds() {
+            return sent.stream()
+                    .map(m -> m.getDigest().getListId())
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void setOnCancelHandler(Runnable onCancelHandler) {
+            this.onCancelHandler = onCancelHandler;
+        }
+
+        @Override
+        public void setCompression(String compression) {
+        }
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void setOnReadyHandler(Runnable onReadyHandler) {
+            this.onReadyHandler = onReadyHandler;
+        }
+
+        @Override
+        public void disableAutoInboundFlowControl() {
+        }
+
+        @Override
+        public void request(int count) {
+        }
+
+        @Override
+        public void setMessageCompression(boolean enable) {
+        }
+
+        @Override
+        public void onNext(StreamMessageResponse value) {
+            if (failOnNext != null) {
+                throw failOnNext;
+            }
+            sent.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onCompleted() {
+            completed = true;
+        }
+    }
+}
@@ -4,23 +4,71 @@
  */
 package org.omecproject.up4.impl;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.omecproject.up4.config.Up4Config;
 import org.onlab.packet.Ip4Address;
 import org.onosproject.cfg.ComponentConfigAdapter;
 import org.onosproject.common.event.impl.TestEventDispatcher;
 import org.onosproject.core.CoreServiceAdapter;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.mastership.MastershipServiceAdapter;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
 import org.onosproject.net.behaviour.upf.UpfGtpTunnelPeer;
 import org.onosproject.net.behaviour.upf.UpfInterface;
+import org.onosproject.net.behaviour.upf.UpfProgrammable;
 import org.onosproject.net.behaviour.upf.UpfProgrammableException;
 import org.onosproject.net.config.NetworkConfigRegistryAdapter;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.device.DeviceListener;
 import org.onosproject.net.device.DeviceServiceAdapter;
+import org.onosproject.net.flow.FlowEntry;
 import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.net.meter.Meter;
 import org.onosproject.net.meter.MeterServiceAdapter;
 import org.onosproject.net.pi.PiPipeconfServiceAdapter;
+import org.onosproject.net.pi.model.PiPipeconf;
+import org.onosproject.net.pi.model.PiPipeconfId;
+import org.onosproject.store.service.AsyncAtomicValue;
+import org.onosproject.store.service.AtomicValue;
+import org.onosproject.store.service.AtomicValueBuilder;
+import org.onosproject.store.service.StorageService;
+import org.osgi.service.component.ComponentContext;
 
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.omecproject.up4.impl.AppConstants.APP_NAME;
 import static org.omecproject.up4.impl.AppConstants.DEFAULT_SLICE_ID;
+import static org.omecproject.up4.impl.AppConstants.SUPPORTED_PIPECONF_STRING;
+import static org.omecproject.up4.impl.OsgiPropertyConstants.UPF_DEGRADED_READY;
 import static org.omecproject.up4.impl.Up4DeviceManager.DBUF_TUNNEL_ID;
 import static org.onosproject.net.NetTestTools.injectEventDispatcher;
 
@@ -29,8 +77,19 @@ import static org.onosproject.net.NetTestTools.injectEventDispatcher;
  */
 public class Up4DeviceManagerTest {
 
+    private static final DeviceId UPF1 = DeviceId.deviceId("device:upf1");
+    private static final DeviceId UPF2 = DeviceId.deviceId("device:upf2");
+    private static final DeviceId UPF3 = DeviceId.deviceId("device:upf3");
+    private static final long TIMEOUT_SECONDS = 5;
+
     private Up4DeviceManager component;
 
+    private final Map<DeviceId, UpfProgrammable> upfProgrammables = Maps.newHashMap();
+    private final TestDeviceService deviceService = new TestDeviceService();
+    private final TestMastershipService mastershipService = new TestMastershipService();
+    // Leader UPF device shared by the ONOS instances.
+    private DeviceId sharedLeader;
+
     private final UpfInterface dbufInterface = UpfInterface.createDbufReceiverFrom(
             Ip4Address.valueOf("10.0.0.1"), DEFAULT_SLICE_ID);
     private final UpfGtpTunnelPeer dbufTunnelPeer = UpfGtpTunnelPeer.builder()
@@ -42,14 +101,22 @@ public class Up4DeviceManagerTest {
 
     @Before
     public void setUp() {
+        for (DeviceId deviceId : ImmutableList.of(UPF1, UPF2, UPF3)) {
+            final UpfProgrammable upfProgrammable = mock(UpfProgrammable.class);
+            when(upfProgrammable.init()).thenReturn(true);
+            upfProgrammables.put(deviceId, upfProgrammable);
+            deviceService.addDevice(deviceId, upfProgrammable);
+        }
         component = new Up4DeviceManager();
         component.coreService = new CoreServiceAdapter();
-        component.flowRuleService = new FlowRuleServiceAdapter();
-        component.meterService = new MeterServiceAdapter();
-        component.deviceService = new DeviceServiceAdapter();
-        component.piPipeconfService = new PiPipeconfServiceAdapter();
+        component.flowRuleService = new TestFlowRuleService();
+        component.meterService = new TestMeterService();
+        component.deviceService = deviceService;
+        component.mastershipService = mastershipService;
+        component.piPipeconfService = new TestPiPipeconfService();
         component.netCfgService = new NetworkConfigRegistryAdapter();
         component.componentConfigService = new ComponentConfigAdapter();
+        component.storageService = storageService();
         component.up4Store = TestDistributedUp4Store.build();
         injectEventDispatcher(component, new TestEventDispatcher());
         component.activate();
@@ -57,9 +124,100 @@ public class Up4DeviceManagerTest {
 
     @After
     public void tearDown() {
+        mastershipService.releaseSyncs();
         component.deactivate();
     }
 
+    @SuppressWarnings("unchecked")
+    private StorageService storageService() {
+        final AtomicValue<DeviceId> leaderValue = mock(AtomicValue.class);
+        when(leaderValue.get()).thenAnswer(i -> sharedLeader());
+        when(leaderValue.compareAndSet(any(), any()))
+                .thenAnswer(i -> compareAndSetSharedLeader(i.getArgument(0), i.getArgument(1)));
+        doAnswer(i -> {
+            setSharedLeader(i.getArgument(0));
+            return null;
+        }).when(leaderValue).set(any());
+        final AsyncAtomicValue<DeviceId> asyncLeaderValue = mock(AsyncAtomicValue.class);
+        when(asyncLeaderValue.asAtomicValue()).thenReturn(leaderValue);
+        final AtomicValueBuilder<DeviceId> builder = mock(AtomicValueBuilder.class, RETURNS_SELF);
+        when(builder.build()).thenReturn(asyncLeaderValue);
+        final StorageService storageService = mock(StorageService.class);
+        when(storageService.<DeviceId>atomicValueBuilder()).thenReturn(builder);
+        return storageService;
+    }
+
+    private synchronized DeviceId sharedLeader() {
+        return sharedLeader;
+    }
+
+    private synchronized void setSharedLeader(DeviceId deviceId) {
+        sharedLeader = deviceId;
+    }
+
+    private synchronized boolean compareAndSetSharedLeader(DeviceId expect, DeviceId update) {
+        if (!Objects.equals(sharedLeader, expect)) {
+            return false;
+        }
+        sharedLeader = update;
+        return true;
+    }
+
+    private static Up4Config config(DeviceId... deviceIds) {
+        final ObjectMapper mapper = new ObjectMapper();
+        final ObjectNode node = mapper.createObjectNode();
+        final ArrayNode devices = node.putArray(Up4Config.DEVICES);
+        for (DeviceId deviceId : deviceIds) {
+            devices.add(deviceId.toString());
+        }
+        final Up4Config config = new Up4Config();
+        config.init(new DefaultApplicationId(1, APP_NAME), Up4Config.KEY, node, mapper, c -> { });
+        return config;
+    }
+
+    /**
+     * Sets up the UPF data plane with the given devices, and waits for the
+     * followers to be synced from the leader.
+     */
+    private void setUpDataPlane(DeviceId... deviceIds) {
+        component.upfUpdateConfig(config(deviceIds));
+        assertThat(component.isReady(), equalTo(true));
+        waitFor(() -> component.packetOutDevices().size() == deviceIds.length);
+    }
+
+    /**
+     * Makes the given follower available again after an outage, and waits
+     * for its bootstrap sync to start. The sync doesn't complete until
+     * released.
+     */
+    private void startBootstrapSync(DeviceId deviceId) {
+        mastershipService.holdSyncs();
+        deviceService.setAvailable(deviceId, false);
+        deviceService.setAvailable(deviceId, true);
+        waitFor(() -> component.isSyncing(deviceId));
+    }
+
+    private static ComponentContext context(String property, String value) {
+        final Dictionary<String, Object> properties = new Hashtable<>();
+        properties.put(property, value);
+        final ComponentContext context = mock(ComponentContext.class);
+        when(context.getProperties()).thenReturn(properties);
+        return context;
+    }
+
+    private static void waitFor(BooleanSupplier condition) {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
     @Test
     public void basics() {
 
@@ -85,4 +243,297 @@ public class Up4DeviceManagerTest {
         component.delete(dbufTunnelPeer);
     }
 
+    @Test
+    public void testDbufTunnelPeerIds() {
+        // The control plane allocates IDs from 2 upwards.
+        assertThat(Up4DeviceManager.dbufTunnelPeerId(0), equalTo(DBUF_TUNNEL_ID));
+        assertThat(Byte.toUnsignedInt(Up4DeviceManager.dbufTunnelPeerId(1)), equalTo(255));
+        assertThat(Byte.toUnsignedInt(Up4DeviceManager.dbufTunnelPeerId(2)), equalTo(254));
+    }
+
+    @Test
+    public void testFailoverToFirstAvailableFollower() {
+        setUpDataPlane(UPF1, UPF2, UPF3);
+        assertThat(component.leaderUpfDevice(), equalTo(UPF1));
+        assertThat(sharedLeader(), equalTo(UPF1));
+
+        // UPF2 is not a full replica of the leader until synced.
+        startBootstrapSync(UPF2);
+        deviceService.setAvailable(UPF1, false);
+        component.failoverLeader(UPF1);
+        assertThat(component.leaderUpfDevice(), equalTo(UPF3));
+        assertThat(sharedLeader(), equalTo(UPF3));
+    }
+
+    @Test
+    public void testFailoverWithoutFollowers() {
+        setUpDataPlane(UPF1, UPF2, UPF3);
+        startBootstrapSync(UPF2);
+        deviceService.setAvailable(UPF3, false);
+        // Not the leader.
+        component.failoverLeader(UPF3);
+        assertThat(component.leaderUpfDevice(), equalTo(UPF1));
+
+        deviceService.setAvailable(UPF1, false);
+        component.failoverLeader(UPF1);
+        assertThat(component.leaderUpfDevice(), equalTo(UPF1));
+        assertThat(sharedLeader(), equalTo(UPF1));
+    }
+
+    @Test
+    public void testFailoverToConcurrentlyElectedLeader() {
+        setUpDataPlane(UPF1, UPF2, UPF3);
+        // Another ONOS instance replaced the leader with UPF3 first.
+        setSharedLeader(UPF3);
+        deviceService.setAvailable(UPF1, false);
+        component.failoverLeader(UPF1);
+        assertThat(component.leaderUpfDevice(), equalTo(UPF3));
+        assertThat(sharedLeader(), equalTo(UPF3));
+    }
+
+    @Test
+    public void testSharedLeaderChanged() {
+        setUpDataPlane(UPF1, UPF2);
+        component.sharedLeaderChanged(UPF2);
+        assertThat(component.leaderUpfDevice(), equalTo(UPF2));
+        // Not in the config.
+        component.sharedLeaderChanged(UPF3);
+        assertThat(component.leaderUpfDevice(), equalTo(UPF2));
+        component.sharedLeaderChanged(null);
+        assertThat(component.leaderUpfDevice(), equalTo(UPF2));
+        assertThat(component.isReady(), equalTo(true));
+    }
+
+    @Test
+    public void testParallelInit() {
+        // UPF2 init completes only once UPF3 init has started.
+        final CountDownLatch upf3Init = new CountDownLatch(1);
+        when(upfProgrammables.get(UPF2).init()).thenAnswer(i -> upf3Init.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        when(upfProgrammables.get(UPF3).init()).thenAnswer(i -> {
+            upf3Init.countDown();
+            return true;
+        });
+        component.upfUpdateConfig(config(UPF1, UPF2, UPF3));
+        // Not retried, all set up at the first attempt.
+        waitFor(() -> component.packetOutDevices().size() == 3);
+        assertThat(component.isReady(), equalTo(true));
+    }
+
+    @Test
+    public void testParallelInitWithFailure() {
+        when(upfProgrammables.get(UPF3).init()).thenThrow(new IllegalStateException("UPF3 init failed"));
+        // Returns when all the devices are done, even if one failed.
+        component.upfUpdateConfig(config(UPF1, UPF2, UPF3));
+        assertThat(component.packetOutDevices(), equalTo(ImmutableList.of(UPF1, UPF2)));
+        assertThat(component.isReady(), equalTo(false));
+
+        component.modified(context(UPF_DEGRADED_READY, "true"));
+        assertThat(component.isReady(), equalTo(true));
+        assertThat(component.leaderUpfDevice(), equalTo(UPF1));
+    }
+
+    @Test
+    public void testDegradedReady() {
+        component.modified(context(UPF_DEGRADED_READY, "true"));
+        final CountDownLatch upf2Init = new CountDownLatch(1);
+        when(upfProgrammables.get(UPF2).init()).thenAnswer(i -> upf2Init.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        // Returns without waiting for UPF2.
+        component.upfUpdateConfig(config(UPF1, UPF2));
+        assertThat(component.isReady(), equalTo(true));
+        assertThat(component.packetOutDevices(), equalTo(ImmutableList.of(UPF1)));
+
+        // Joins once set up, and synced from the leader.
+        upf2Init.countDown();
+        waitFor(() -> component.packetOutDevices().equals(ImmutableList.of(UPF1, UPF2)));
+        assertThat(component.leaderUpfDevice(), equalTo(UPF1));
+    }
+
+    @Test
+    public void testRemoveFollower() {
+        setUpDataPlane(UPF1, UPF2, UPF3);
+        component.upfUpdateConfig(config(UPF1, UPF3));
+        assertThat(component.leaderUpfDevice(), equalTo(UPF1));
+        assertThat(component.packetOutDevices(), equalTo(ImmutableList.of(UPF1, UPF3)));
+        verify(upfProgrammables.get(UPF2)).cleanUp();
+        verify(upfProgrammables.get(UPF1), never()).cleanUp();
+        assertThat(component.isReady(), equalTo(true));
+    }
+
+    @Test
+    public void testRemoveLeader() {
+        setUpDataPlane(UPF1, UPF2, UPF3);
+        component.upfUpdateConfig(config(UPF2, UPF3));
+        // Failed over before the removal.
+        assertThat(component.leaderUpfDevice(), equalTo(UPF2));
+        assertThat(sharedLeader(), equalTo(UPF2));
+        assertThat(component.packetOutDevices(), equalTo(ImmutableList.of(UPF2, UPF3)));
+        verify(upfProgrammables.get(UPF1)).cleanUp();
+        assertThat(component.isReady(), equalTo(true));
+    }
+
+    @Test
+    public void testReturningFollowerSync() {
+        setUpDataPlane(UPF1, UPF2, UPF3);
+        startBootstrapSync(UPF2);
+        assertThat(component.packetOutDevices(), equalTo(ImmutableList.of(UPF1, UPF3)));
+        // Not a candidate leader until synced.
+        deviceService.setAvailable(UPF3, false);
+        deviceService.setAvailable(UPF1, false);
+        component.failoverLeader(UPF1);
+        assertThat(component.leaderUpfDevice(), equalTo(UPF1));
+
+        deviceService.setAvailable(UPF1, true);
+        mastershipService.releaseSyncs();
+        waitFor(() -> !component.isSyncing(UPF2));
+        waitFor(() -> component.packetOutDevices().equals(ImmutableList.of(UPF1, UPF2)));
+        deviceService.setAvailable(UPF1, false);
+        component.failoverLeader(UPF1);
+        assertThat(component.leaderUpfDevice(), equalTo(UPF2));
+    }
+
+    @Test
+    public void testJoiningFollowerSync() {
+        component.modified(context(UPF_DEGRADED_READY, "true"));
+        final AtomicBoolean upf2Init = new AtomicBoolean(false);
+        when(upfProgrammables.get(UPF2).init()).thenAnswer(i -> upf2Init.get());
+        component.upfUpdateConfig(config(UPF1, UPF2));
+        assertThat(component.isReady(), equalTo(true));
+        assertThat(component.packetOutDevices(), equalTo(ImmutableList.of(UPF1)));
+
+        // Set up when available again, and synced before use.
+        mastershipService.holdSyncs();
+        upf2Init.set(true);
+        deviceService.setAvailable(UPF2, true);
+        waitFor(() -> component.isSyncing(UPF2));
+        assertThat(component.packetOutDevices(), equalTo(ImmutableList.of(UPF1)));
+        mastershipService.releaseSyncs();
+        waitFor(() -> component.packetOutDevices().equals(ImmutableList.of(UPF1, UPF2)));
+    }
+
+    @Test
+    public void testRemoveSyncingFollower() {
+        setUpDataPlane(UPF1, UPF2, UPF3);
+        startBootstrapSync(UPF2);
+        component.upfUpdateConfig(config(UPF1, UPF3));
+        assertThat(component.isSyncing(UPF2), equalTo(false));
+        assertThat(component.packetOutDevices(), equalTo(ImmutableList.of(UPF1, UPF3)));
+
+        // Removed from the device store.
+        startBootstrapSync(UPF3);
+        deviceService.removeDevice(UPF3);
+        waitFor(() -> !component.isSyncing(UPF3));
+        assertThat(component.packetOutDevices(), equalTo(ImmutableList.of(UPF1)));
+        assertThat(component.leaderUpfDevice(), equalTo(UPF1));
+    }
+
+    /**
+     * Device service with UPF physical devices, whose availability can be
+     * changed by notifying the listener.
+     */
+    private static final class TestDeviceService extends DeviceServiceAdapter {
+        private final Map<DeviceId, Device> devices = Maps.newConcurrentMap();
+        private final Set<DeviceId> unavailable = Sets.newConcurrentHashSet();
+        private DeviceListener listener;
+
+        private void addDevice(DeviceId deviceId, UpfProgrammable upfProgrammable) {
+            final Device device = mock(Device.class);
+            when(device.id()).thenReturn(deviceId);
+            when(device.is(UpfProgrammable.class)).thenReturn(true);
+            when(device.as(UpfProgrammable.class)).thenReturn(upfProgrammable);
+            devices.put(deviceId, device);
+        }
+
+        private void setAvailable(DeviceId deviceId, boolean available) {
+            if (available) {
+                unavailable.remove(deviceId);
+            } else {
+                unavailable.add(deviceId);
+            }
+            listener.event(new DeviceEvent(DeviceEvent.Type.DEVICE_AVAILABILITY_CHANGED, devices.get(deviceId)));
+        }
+
+        private void removeDevice(DeviceId deviceId) {
+            final Device device = devices.remove(deviceId);
+            listener.event(new DeviceEvent(DeviceEvent.Type.DEVICE_REMOVED, device));
+        }
+
+        @Override
+        public Device getDevice(DeviceId deviceId) {
+            return devices.get(deviceId);
+        }
+
+        @Override
+        public boolean isAvailable(DeviceId deviceId) {
+            return devices.containsKey(deviceId) && !unavailable.contains(deviceId);
+        }
+
+        @Override
+        public void addListener(DeviceListener listener) {
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * Mastership service where this instance masters no device. Can hold the
+     * bootstrap syncs, which check the mastership first.
+     */
+    private static final class TestMastershipService extends MastershipServiceAdapter {
+        private volatile CountDownLatch syncs = new CountDownLatch(0);
+
+        private void holdSyncs() {
+            if (syncs.getCount() == 0) {
+                syncs = new CountDownLatch(1);
+            }
+        }
+
+        private void releaseSyncs() {
+            syncs.countDown();
+        }
+
+        @Override
+        public boolean isLocalMaster(DeviceId deviceId) {
+            try {
+                syncs.await(2 * TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Flow rule service with no flow rules, as if all devices were in sync.
+     */
+    private static final class TestFlowRuleService extends FlowRuleServiceAdapter {
+        @Override
+        public Iterable<FlowEntry> getFlowEntries(DeviceId deviceId) {
+            return ImmutableList.of();
+        }
+    }
+
+    /**
+     * Meter service with no meters.
+     */
+    private static final class TestMeterService extends MeterServiceAdapter {
+        @Override
+        public Collection<Meter> getMeters(DeviceId deviceId) {
+            return ImmutableList.of();
+        }
+    }
+
+    /**
+     * Pipeconf service returning a UPF pipeconf for every device.
+     */
+    private static final class TestPiPipeconfService extends PiPipeconfServiceAdapter {
+        private final PiPipeconf pipeconf = mock(PiPipeconf.class);
+
+        private TestPiPipeconfService() {
+            when(pipeconf.id()).thenReturn(new PiPipeconfId("org.stratumproject." + SUPPORTED_PIPECONF_STRING));
+        }
+
+        @Override
+        public Optional<PiPipeconf> getPipeconf(DeviceId deviceId) {
+            return Optional.of(pipeconf);
+        }
+    }
 }
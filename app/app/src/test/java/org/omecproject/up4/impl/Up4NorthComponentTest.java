@@ -4,13 +4,19 @@
  */
 package org.omecproject.up4.impl;
 
+import com.google.common.collect.ImmutableList;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UInt64Value;
 import com.google.rpc.Code;
-import com.google.rpc.Status;
 import io.grpc.stub.StreamObserver;
 import junit.framework.AssertionFailedError;
 import org.junit.Before;
 import org.junit.Test;
+import org.omecproject.up4.Up4Event;
+import org.omecproject.up4.Up4EventSubject;
+import org.onlab.packet.Ip4Address;
+import org.onosproject.net.behaviour.upf.UpfCounter;
 import org.onosproject.net.behaviour.upf.UpfEntityType;
 import org.onosproject.net.pi.model.PiCounterId;
 import org.onosproject.net.pi.model.PiPipeconf;
@@ -492,17 +498,27 @@ public class Up4NorthComponentTest {
     }
 
     public void doArbitration(StreamObserver<P4RuntimeOuterClass.StreamMessageRequest> requestObserver) {
+        doArbitration(requestObserver, P4RUNTIME_ELECTION_ID);
+    }
+
+    public void doArbitration(StreamObserver<P4RuntimeOuterClass.StreamMessageRequest> requestObserver,
+                              P4RuntimeOuterClass.Uint128 electionId) {
         P4RuntimeOuterClass.StreamMessageRequest request = P4RuntimeOuterClass.StreamMessageRequest.newBuilder()
                 .setArbitration(P4RuntimeOuterClass.MasterArbitrationUpdate.newBuilder()
                                         .setDeviceId(P4RUNTIME_DEVICE_ID)
                                         .setRole(P4RUNTIME_ROLE)
-                                        .setElectionId(P4RUNTIME_ELECTION_ID)
+                                        .setElectionId(electionId)
                                         .build())
                 .build();
 
         requestObserver.onNext(request);
     }
 
+    private static long resyncToken(P4RuntimeOuterClass.StreamMessageResponse response)
+            throws InvalidProtocolBufferException {
+        return response.getArbitration().getStatus().getDetails(0).unpack(UInt64Value.class).getValue();
+    }
+
     @Test
     public void arbitrationTest() {
         MockStreamObserver<P4RuntimeOuterClass.StreamMessageResponse> responseObserver
@@ -516,8 +532,230 @@ public class Up4NorthComponentTest {
         assertThat(response.getArbitration().getDeviceId(), equalTo(P4RUNTIME_DEVICE_ID));
         assertThat(response.getArbitration().getRole(), equalTo(P4RUNTIME_ROLE));
         assertThat(response.getArbitration().getElectionId(), equalTo(P4RUNTIME_ELECTION_ID));
-        assertThat(response.getArbitration().getStatus(),
-                   equalTo(Status.newBuilder().setCode(Code.OK.getNumber()).build()));
+        assertThat(response.getArbitration().getStatus().getCode(), equalTo(Code.OK.getNumber()));
+    }
+
+    @Test
+    public void primaryBackupArbitrationTest() throws InvalidProtocolBufferException {
+        var lowElectionId = P4RuntimeOuterClass.Uint128.newBuilder().setLow(1).build();
+        var highElectionId = P4RuntimeOuterClass.Uint128.newBuilder().setHigh(1).build();
+
+        MockStreamObserver<P4RuntimeOuterClass.StreamMessageResponse> lowObserver = new MockStreamObserver<>();
+        var lowStream = up4NorthService.streamChannel(lowObserver);
+        doArbitration(lowStream, lowElectionId);
+        assertThat(lowObserver.lastResponse().getArbitration().getStatus().getCode(),
+                   equalTo(Code.OK.getNumber()));
+        long token = resyncToken(lowObserver.lastResponse());
+
+        // A client with a higher election_id becomes primary, the previous one is notified.
+        MockStreamObserver<P4RuntimeOuterClass.StreamMessageResponse> highObserver = new MockStreamObserver<>();
+        var highStream = up4NorthService.streamChannel(highObserver);
+        doArbitration(highStream, highElectionId);
+        assertThat(highObserver.lastResponse().getArbitration().getStatus().getCode(),
+                   equalTo(Code.OK.getNumber()));
+        assertThat(lowObserver.lastResponse().getArbitration().getStatus().getCode(),
+                   equalTo(Code.ALREADY_EXISTS.getNumber()));
+        assertThat(lowObserver.lastResponse().getArbitration().getElectionId(), equalTo(highElectionId));
+
+        // Writes from the backup are rejected.
+        MockStreamObserver<P4RuntimeOuterClass.WriteResponse> writeObserver = new MockStreamObserver<>();
+        writeObserver.setErrorExpected(io.grpc.Status.PERMISSION_DENIED.asException());
+        up4NorthService.write(P4RuntimeOuterClass.WriteRequest.newBuilder()
+                                      .setDeviceId(P4RUNTIME_DEVICE_ID)
+                                      .setElectionId(lowElectionId)
+                                      .build(), writeObserver);
+        writeObserver.assertErrorObserved();
+        assertThat(io.grpc.Status.fromThrowable(writeObserver.lastError()).getCode(),
+                   equalTo(io.grpc.Status.Code.PERMISSION_DENIED));
+
+        // When the primary leaves, the backup is promoted with a new token.
+        highStream.onCompleted();
+        assertThat(lowObserver.lastResponse().getArbitration().getStatus().getCode(),
+                   equalTo(Code.OK.getNumber()));
+        long newToken = resyncToken(lowObserver.lastResponse());
+        assertThat(newToken == token, equalTo(false));
+
+        // Reconnecting with the same election_id, nothing changed.
+        lowStream.onCompleted();
+        MockStreamObserver<P4RuntimeOuterClass.StreamMessageResponse> reconnectObserver = new MockStreamObserver<>();
+        var reconnectStream = up4NorthService.streamChannel(reconnectObserver);
+        doArbitration(reconnectStream, lowElectionId);
+        assertThat(resyncToken(reconnectObserver.lastResponse()), equalTo(newToken));
+
+        // Reconnecting after a write from the CLI, the state must be re-read.
+        reconnectStream.onCompleted();
+        up4NorthComponent.invalidateResyncToken();
+        MockStreamObserver<P4RuntimeOuterClass.StreamMessageResponse> cliObserver = new MockStreamObserver<>();
+        doArbitration(up4NorthService.streamChannel(cliObserver), lowElectionId);
+        assertThat(resyncToken(cliObserver.lastResponse()) == newToken, equalTo(false));
+    }
+
+    @Test
+    public void readOnlyRoleTest() {
+        MockStreamObserver<P4RuntimeOuterClass.StreamMessageResponse> primaryObserver = new MockStreamObserver<>();
+        doArbitration(up4NorthService.streamChannel(primaryObserver));
+
+        // Read-only clients don't contend with the primary, even with a higher election_id.
+        var readOnlyRole = P4RuntimeOuterClass.Role.newBuilder().setId(AppConstants.READ_ONLY_ROLE_ID).build();
+        MockStreamObserver<P4RuntimeOuterClass.StreamMessageResponse> readOnlyObserver = new MockStreamObserver<>();
+        up4NorthService.streamChannel(readOnlyObserver).onNext(
+                P4RuntimeOuterClass.StreamMessageRequest.newBuilder()
+                        .setArbitration(P4RuntimeOuterClass.MasterArbitrationUpdate.newBuilder()
+                                                .setDeviceId(P4RUNTIME_DEVICE_ID)
+                                                .setRole(readOnlyRole)
+                                                .setElectionId(P4RuntimeOuterClass.Uint128.newBuilder()
+                                                                       .setHigh(1).build())
+                                                .build())
+                        .build());
+        assertThat(readOnlyObserver.lastResponse().getArbitration().getStatus().getCode(),
+                   equalTo(Code.OK.getNumber()));
+        assertThat(readOnlyObserver.lastResponse().getArbitration().getRole(), equalTo(readOnlyRole));
+        assertThat(primaryObserver.responsesObserved.size(), equalTo(1));
+        assertThat(up4NorthComponent.readOnlyStreamChannels().size(), equalTo(1));
+
+        // Writes with the read-only role, or to the read-only server, are rejected.
+        MockStreamObserver<P4RuntimeOuterClass.WriteResponse> writeObserver = new MockStreamObserver<>();
+        writeObserver.setErrorExpected(io.grpc.Status.PERMISSION_DENIED.asException());
+        up4NorthService.write(P4RuntimeOuterClass.WriteRequest.newBuilder()
+                                      .setDeviceId(P4RUNTIME_DEVICE_ID)
+                                      .setRoleId(AppConstants.READ_ONLY_ROLE_ID)
+                                      .setElectionId(P4RUNTIME_ELECTION_ID)
+                                      .build(), writeObserver);
+        assertThat(io.grpc.Status.fromThrowable(writeObserver.lastError()).getCode(),
+                   equalTo(io.grpc.Status.Code.PERMISSION_DENIED));
+        writeObserver = new MockStreamObserver<>();
+        writeObserver.setErrorExpected(io.grpc.Status.PERMISSION_DENIED.asException());
+        up4NorthComponent.up4ReadOnlyService.write(P4RuntimeOuterClass.WriteRequest.newBuilder()
+                                                           .setDeviceId(P4RUNTIME_DEVICE_ID)
+                                                           .setElectionId(P4RUNTIME_ELECTION_ID)
+                                                           .build(), writeObserver);
+        assertThat(io.grpc.Status.fromThrowable(writeObserver.lastError()).getCode(),
+                   equalTo(io.grpc.Status.Code.PERMISSION_DENIED));
+    }
+
+    @Test
+    public void readOnlyWriteWithoutPrimaryTest() {
+        // Read-only client, and no primary.
+        var readOnlyElectionId = P4RuntimeOuterClass.Uint128.newBuilder().setHigh(2).build();
+        var readOnlyRole = P4RuntimeOuterClass.Role.newBuilder().setId(AppConstants.READ_ONLY_ROLE_ID).build();
+        MockStreamObserver<P4RuntimeOuterClass.StreamMessageResponse> readOnlyObserver = new MockStreamObserver<>();
+        up4NorthService.streamChannel(readOnlyObserver).onNext(
+                P4RuntimeOuterClass.StreamMessageRequest.newBuilder()
+                        .setArbitration(P4RuntimeOuterClass.MasterArbitrationUpdate.newBuilder()
+                                                .setDeviceId(P4RUNTIME_DEVICE_ID)
+                                                .setRole(readOnlyRole)
+                                                .setElectionId(readOnlyElectionId)
+                                                .build())
+                        .build());
+
+        // Writes with the default role_id and the election_id of the read-only client are rejected.
+        MockStreamObserver<P4RuntimeOuterClass.WriteResponse> writeObserver = new MockStreamObserver<>();
+        writeObserver.setErrorExpected(io.grpc.Status.PERMISSION_DENIED.asException());
+        up4NorthService.write(P4RuntimeOuterClass.WriteRequest.newBuilder()
+                                      .setDeviceId(P4RUNTIME_DEVICE_ID)
+                                      .setElectionId(readOnlyElectionId)
+                                      .build(), writeObserver);
+        writeObserver.assertErrorObserved();
+        assertThat(io.grpc.Status.fromThrowable(writeObserver.lastError()).getCode(),
+                   equalTo(io.grpc.Status.Code.PERMISSION_DENIED));
+    }
+
+    private static void awaitResponses(MockStreamObserver<?> observer, int count) throws InterruptedException {
+        for (int i = 0; i < 100 && observer.responsesObserved.size() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(observer.responsesObserved.size(), equalTo(count));
+    }
+
+    private static P4RuntimeOuterClass.StreamMessageRequest digestAck(long listId) {
+        return P4RuntimeOuterClass.StreamMessageRequest.newBuilder()
+                .setDigestAck(P4RuntimeOuterClass.DigestListAck.newBuilder()
+                                      .setDigestId(ExtraP4InfoConstants.DDN_DIGEST_ID)
+                                      .setListId(listId)
+                                      .build())
+                .build();
+    }
+
+    @Test
+    public void ddnDigestAckTest() throws InterruptedException {
+        var primaryElectionId = P4RuntimeOuterClass.Uint128.newBuilder().setHigh(1).build();
+        var backupElectionId = P4RuntimeOuterClass.Uint128.newBuilder().setLow(1).build();
+        MockStreamObserver<P4RuntimeOuterClass.StreamMessageResponse> primaryObserver = new MockStreamObserver<>();
+        var primaryStream = up4NorthService.streamChannel(primaryObserver);
+        doArbitration(primaryStream, primaryElectionId);
+        MockStreamObserver<P4RuntimeOuterClass.StreamMessageResponse> backupObserver = new MockStreamObserver<>();
+        var backupStream = up4NorthService.streamChannel(backupObserver);
+        doArbitration(backupStream, backupElectionId);
+        final int primaryResponses = primaryObserver.responsesObserved.size();
+        final int backupResponses = backupObserver.responsesObserved.size();
+        var primarySender = up4NorthComponent.streamChannels().get(primaryElectionId);
+
+        // DDNs are sent to the primary only.
+        var ddn = new Up4Event(Up4Event.Type.DOWNLINK_DATA_NOTIFICATION,
+                               new Up4EventSubject(Ip4Address.valueOf("17.0.0.1")));
+        up4NorthComponent.handleDdn(ddn);
+        awaitResponses(primaryObserver, primaryResponses + 1);
+        var digestList = primaryObserver.lastResponse().getDigest();
+        assertThat(digestList.getDataCount(), equalTo(1));
+        assertThat(primarySender.outstandingDigestLists(), equalTo(1));
+        assertThat(backupObserver.responsesObserved.size(), equalTo(backupResponses));
+
+        // Acks from other clients are ignored, the UE is still suppressed.
+        backupStream.onNext(digestAck(digestList.getListId()));
+        up4NorthComponent.handleDdn(ddn);
+        Thread.sleep(100);
+        assertThat(primaryObserver.responsesObserved.size(), equalTo(primaryResponses + 1));
+        assertThat(primarySender.outstandingDigestLists(), equalTo(1));
+
+        // The ack releases the window and the UE, and the stream stays open.
+        primaryStream.onNext(digestAck(digestList.getListId()));
+        assertThat(primarySender.outstandingDigestLists(), equalTo(0));
+        assertThat(primarySender.isClosed(), equalTo(false));
+        assertThat(primaryObserver.lastError() == null, equalTo(true));
+        up4NorthComponent.handleDdn(ddn);
+        awaitResponses(primaryObserver, primaryResponses + 2);
+        assertTrue(primaryObserver.lastResponse().hasDigest());
+        assertThat(primaryObserver.lastResponse().getDigest().getListId() == digestList.getListId(), equalTo(false));
+    }
+
+    @Test
+    public void counterPushTest() throws InvalidProtocolBufferException, CodecException {
+        MockStreamObserver<P4RuntimeOuterClass.StreamMessageResponse> responseObserver
+                = new MockStreamObserver<>();
+        doArbitration(up4NorthService.streamChannel(responseObserver));
+        UpfCounter counter = UpfCounter.builder()
+                .withCellId(1)
+                .setIngress(10, 1000)
+                .setEgress(0, 0)
+                .build();
+        up4NorthComponent.pushCounters(new CounterSnapshot(1, 0, ImmutableList.of(counter)));
+        // Arbitration response and counters.
+        assertThat(responseObserver.responsesObserved.size(), equalTo(2));
+        var response = responseObserver.lastResponse();
+        assertTrue(response.hasOther());
+        var counters = response.getOther().unpack(P4RuntimeOuterClass.ReadResponse.class);
+        // Current values of both directions of the cell.
+        assertThat(counters.getEntitiesCount(), equalTo(2));
+        assertThat(Codecs.CODECS.entity().decode(counters.getEntities(0), null, pipeconf), equalTo(
+                new PiCounterCell(PiCounterCellId.ofIndirect(PRE_QOS_PIPE_PRE_QOS_COUNTER, 1), 10, 1000)));
+        assertThat(Codecs.CODECS.entity().decode(counters.getEntities(1), null, pipeconf), equalTo(
+                new PiCounterCell(PiCounterCellId.ofIndirect(POST_QOS_PIPE_POST_QOS_COUNTER, 1), 0, 0)));
+
+        // Nothing changed, nothing is pushed.
+        up4NorthComponent.pushCounters(new CounterSnapshot(2, 0, ImmutableList.of(counter)));
+        assertThat(responseObserver.responsesObserved.size(), equalTo(2));
+
+        // Cumulative values are pushed, not the increase.
+        counter = UpfCounter.builder()
+                .withCellId(1)
+                .setIngress(15, 1500)
+                .setEgress(0, 0)
+                .build();
+        up4NorthComponent.pushCounters(new CounterSnapshot(3, 0, ImmutableList.of(counter)));
+        assertThat(responseObserver.responsesObserved.size(), equalTo(3));
+        counters = responseObserver.lastResponse().getOther().unpack(P4RuntimeOuterClass.ReadResponse.class);
+        assertThat(Codecs.CODECS.entity().decode(counters.getEntities(0), null, pipeconf), equalTo(
+                new PiCounterCell(PiCounterCellId.ofIndirect(PRE_QOS_PIPE_PRE_QOS_COUNTER, 1), 15, 1500)));
     }
 
     public MockStreamObserver<P4RuntimeOuterClass.StreamMessageResponse> doPacketOut(byte[] payload) {
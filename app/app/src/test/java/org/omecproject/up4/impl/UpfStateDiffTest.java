@@ -0,0 +1,100 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.onlab.packet.Ip4Prefix;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.meter.Band;
+import org.onosproject.net.meter.DefaultBand;
+import org.onosproject.net.meter.DefaultMeter;
+import org.onosproject.net.meter.Meter;
+import org.onosproject.net.pi.model.PiMeterId;
+import org.onosproject.net.pi.runtime.PiMeterCellId;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class UpfStateDiffTest {
+
+    private static final DeviceId DEVICE_ID = DeviceId.deviceId("device:follower");
+    private static final ApplicationId APP_ID = new DefaultApplicationId(1, "up4-test");
+    private static final PiMeterId METER_ID = PiMeterId.of("session_meter");
+
+    private static FlowRule rule(int dst, int port) {
+        return DefaultFlowRule.builder()
+                .forDevice(DEVICE_ID)
+                .fromApp(APP_ID)
+                .forTable(0)
+                .withSelector(DefaultTrafficSelector.builder()
+                                      .matchIPDst(Ip4Prefix.valueOf(0x0a000000 + dst, 32))
+                                      .build())
+                .withTreatment(DefaultTrafficTreatment.builder()
+                                       .setOutput(PortNumber.portNumber(port))
+                                       .build())
+                .withPriority(10)
+                .makePermanent()
+                .build();
+    }
+
+    private static Meter meter(int index, long rate) {
+        return DefaultMeter.builder()
+                .forDevice(DEVICE_ID)
+                .fromApp(APP_ID)
+                .withCellId(PiMeterCellId.ofIndirect(METER_ID, index))
+                .withUnit(Meter.Unit.BYTES_PER_SEC)
+                .withBands(ImmutableList.of(DefaultBand.builder()
+                                                    .ofType(Band.Type.MARK_RED)
+                                                    .withRate(rate)
+                                                    .burstSize(rate / 10)
+                                                    .build()))
+                .build();
+    }
+
+    @Test
+    public void testInSync() {
+        List<FlowRule> rules = ImmutableList.of(rule(1, 1), rule(2, 1));
+        List<Meter> meters = ImmutableList.of(meter(1, 1000));
+        UpfStateDiff diff = UpfStateDiff.compute(rules, rules, meters, meters);
+        assertThat(diff.isEmpty(), equalTo(true));
+        assertThat(diff.rulesInSync(), equalTo(2));
+        assertThat(diff.leaderRules(), equalTo(2));
+        assertThat(diff.metersInSync(), equalTo(1));
+    }
+
+    @Test
+    public void testDiff() {
+        UpfStateDiff diff = UpfStateDiff.compute(
+                ImmutableList.of(rule(1, 1), rule(2, 1), rule(3, 1)),
+                ImmutableList.of(rule(1, 1), rule(2, 2), rule(4, 1)),
+                ImmutableList.of(meter(1, 1000), meter(2, 1000), meter(3, 1000)),
+                ImmutableList.of(meter(1, 1000), meter(2, 2000), meter(4, 1000)));
+        assertThat(diff.unexpectedRules(), equalTo(ImmutableList.of(rule(4, 1))));
+        // Same match, different treatment.
+        assertThat(diff.staleRules().size(), equalTo(1));
+        assertThat(diff.staleRules().get(0).exactMatch(rule(2, 1)), equalTo(true));
+        assertThat(diff.missingRules(), equalTo(ImmutableList.of(rule(3, 1))));
+        assertThat(diff.ruleOps(), equalTo(3));
+        assertThat(diff.rulesInSync(), equalTo(1));
+
+        assertThat(diff.unexpectedMeters().get(0).meterCellId(), equalTo(meter(4, 1000).meterCellId()));
+        // Same cell, different bands.
+        assertThat(diff.staleMeters().get(0).meterCellId(), equalTo(meter(2, 1000).meterCellId()));
+        assertThat(diff.missingMeters().get(0).meterCellId(), equalTo(meter(3, 1000).meterCellId()));
+        assertThat(diff.meterOps(), equalTo(3));
+        assertThat(diff.metersInSync(), equalTo(1));
+        assertThat(diff.isEmpty(), equalTo(false));
+    }
+}
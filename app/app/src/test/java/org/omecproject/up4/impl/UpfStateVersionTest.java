@@ -0,0 +1,122 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+import org.onlab.packet.Ip4Prefix;
+import org.onosproject.core.ApplicationId;
+import org.onosproject.core.DefaultApplicationId;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.PortNumber;
+import org.onosproject.net.flow.DefaultFlowRule;
+import org.onosproject.net.flow.DefaultTrafficSelector;
+import org.onosproject.net.flow.DefaultTrafficTreatment;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.meter.Band;
+import org.onosproject.net.meter.DefaultBand;
+import org.onosproject.net.meter.DefaultMeter;
+import org.onosproject.net.meter.Meter;
+import org.onosproject.net.pi.model.PiMeterId;
+import org.onosproject.net.pi.runtime.PiMeterCellId;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class UpfStateVersionTest {
+
+    private static final DeviceId LEADER = DeviceId.deviceId("device:leader");
+    private static final DeviceId FOLLOWER = DeviceId.deviceId("device:follower");
+    private static final ApplicationId APP_ID = new DefaultApplicationId(1, "up4-test");
+    private static final PiMeterId METER_ID = PiMeterId.of("session_meter");
+
+    private static FlowRule rule(DeviceId deviceId, int dst, int port) {
+        return DefaultFlowRule.builder()
+                .forDevice(deviceId)
+                .fromApp(APP_ID)
+                .forTable(0)
+                .withSelector(DefaultTrafficSelector.builder()
+                                      .matchIPDst(Ip4Prefix.valueOf(0x0a000000 + dst, 32))
+                                      .build())
+                .withTreatment(DefaultTrafficTreatment.builder()
+                                       .setOutput(PortNumber.portNumber(port))
+                                       .build())
+                .withPriority(10)
+                .makePermanent()
+                .build();
+    }
+
+    private static Meter meter(DeviceId deviceId, int index, long rate) {
+        return DefaultMeter.builder()
+                .forDevice(deviceId)
+                .fromApp(APP_ID)
+                .withCellId(PiMeterCellId.ofIndirect(METER_ID, index))
+                .withUnit(Meter.Unit.BYTES_PER_SEC)
+                .withBands(ImmutableList.of(DefaultBand.builder()
+                                                    .ofType(Band.Type.MARK_RED)
+                                                    .withRate(rate)
+                                                    .burstSize(rate / 10)
+                                                    .build()))
+                .build();
+    }
+
+    @Test
+    public void testInSync() {
+        var leader = new UpfStateVersion();
+        var follower = new UpfStateVersion();
+        assertThat(follower.inSync(leader), equalTo(true));
+        leader.ruleAdded(rule(LEADER, 1, 1));
+        leader.ruleAdded(rule(LEADER, 2, 1));
+        leader.meterAdded(meter(LEADER, 1, 1000));
+        assertThat(follower.inSync(leader), equalTo(false));
+        // Same state, written in a different order.
+        follower.meterAdded(meter(FOLLOWER, 1, 1000));
+        follower.ruleAdded(rule(FOLLOWER, 2, 1));
+        follower.ruleAdded(rule(FOLLOWER, 1, 1));
+        assertThat(follower.inSync(leader), equalTo(true));
+        assertThat(follower.mismatchedBuckets(leader).isEmpty(), equalTo(true));
+        assertThat(leader.size(), equalTo(3));
+    }
+
+    @Test
+    public void testGeneration() {
+        var version = new UpfStateVersion();
+        version.ruleAdded(rule(LEADER, 1, 1));
+        assertThat(version.generation(), equalTo(1L));
+        // Repeated events, e.g., stats updates, are not changes.
+        version.ruleAdded(rule(LEADER, 1, 1));
+        version.ruleRemoved(rule(LEADER, 2, 1));
+        assertThat(version.generation(), equalTo(1L));
+        // Modified treatment.
+        version.ruleAdded(rule(LEADER, 1, 2));
+        assertThat(version.generation(), equalTo(2L));
+        version.ruleRemoved(rule(LEADER, 1, 2));
+        assertThat(version.generation(), equalTo(3L));
+        assertThat(version.hash(), equalTo(0L));
+
+        version.reset(ImmutableList.of(), ImmutableList.of());
+        assertThat(version.generation(), equalTo(3L));
+        version.reset(ImmutableList.of(rule(LEADER, 1, 1)), ImmutableList.of(meter(LEADER, 1, 1000)));
+        assertThat(version.generation(), equalTo(4L));
+        assertThat(version.size(), equalTo(2));
+    }
+
+    @Test
+    public void testMismatchedBuckets() {
+        var leader = new UpfStateVersion();
+        var follower = new UpfStateVersion();
+        leader.reset(ImmutableList.of(rule(LEADER, 1, 1), rule(LEADER, 2, 1), rule(LEADER, 3, 1)),
+                     ImmutableList.of(meter(LEADER, 1, 1000), meter(LEADER, 2, 1000)));
+        follower.reset(ImmutableList.of(rule(FOLLOWER, 1, 1), rule(FOLLOWER, 2, 2)),
+                       ImmutableList.of(meter(FOLLOWER, 1, 1000), meter(FOLLOWER, 2, 2000)));
+        assertThat(follower.inSync(leader), equalTo(false));
+        // Missing rule, stale rule and stale meter.
+        assertThat(leader.mismatchedBuckets(follower), equalTo(ImmutableSet.of(
+                UpfStateVersion.bucket(rule(LEADER, 2, 1)),
+                UpfStateVersion.bucket(rule(LEADER, 3, 1)),
+                UpfStateVersion.bucket(meter(LEADER, 2, 1000)))));
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ SPDX-License-Identifier: Apache-2.0
+ SPDX-FileCopyrightText: 2022-present Open Networking Foundation <info@opennetworking.org>
+ */
+package org.omecproject.up4.impl;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+public class WriteTracerTest {
+
+    @Test
+    public void testDisabled() {
+        var tracer = new WriteTracer(4, 0, 0);
+        assertThat(tracer.begin(1), nullValue());
+        assertThat(WriteTracer.stageStart(), equalTo(0L));
+        assertThat(tracer.slowTraces().size(), equalTo(0));
+    }
+
+    @Test
+    public void testSampling() {
+        var tracer = new WriteTracer(4, 2, 0);
+        var first = tracer.begin(1);
+        assertThat(first, nullValue());
+        var second = tracer.begin(1);
+        long start = WriteTracer.stageStart();
+        assertThat(start, not(equalTo(0L)));
+        WriteTracer.stageEnd(WriteTracer.Stage.TRANSLATE, start);
+        tracer.end(second, true);
+        // Not bound anymore.
+        assertThat(WriteTracer.stageStart(), equalTo(0L));
+
+        assertThat(tracer.slowTraces().size(), equalTo(1));
+        var trace = tracer.slowTraces().get(0);
+        assertThat(trace.requestId(), equalTo(2L));
+        assertThat(trace.success(), equalTo(true));
+        assertThat(trace.totalNanos() >= trace.stageNanos(WriteTracer.Stage.TRANSLATE), equalTo(true));
+    }
+
+    @Test
+    public void testRingBuffer() {
+        var tracer = new WriteTracer(2, 1, 0);
+        for (int i = 0; i < 5; i++) {
+            tracer.end(tracer.begin(1), true);
+        }
+        assertThat(tracer.slowCount(), equalTo(5L));
+        var traces = tracer.slowTraces();
+        assertThat(traces.size(), equalTo(2));
+        // Most recent first.
+        assertThat(traces.get(0).requestId(), equalTo(5L));
+        assertThat(traces.get(1).requestId(), equalTo(4L));
+    }
+
+    @Test
+    public void testFastRequestsNotKept() {
+        var tracer = new WriteTracer(2, 1, 60000);
+        tracer.end(tracer.begin(1), true);
+        assertThat(tracer.slowTraces().size(), equalTo(0));
+    }
+}